@@ -0,0 +1,161 @@
+package com.stefanbahnson.movielibrary.benchmarks;
+
+import com.stefanbahnson.movielibrary.model.CompactMovieLibrary;
+import com.stefanbahnson.movielibrary.model.Genre;
+import com.stefanbahnson.movielibrary.model.IndexedMovieLibrary;
+import com.stefanbahnson.movielibrary.model.Movie;
+import com.stefanbahnson.movielibrary.model.MovieLibrary;
+import com.stefanbahnson.movielibrary.model.ShardedMovieLibrary;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures every operation of a {@code MovieLibrary} against synthetic
+ * libraries of different sizes.<p>
+ *
+ * Every benchmark is run both for throughput and as a sample of single
+ * operations, which reports latency percentiles. To also report the
+ * allocation rate, run with the gc profiler:
+ *
+ * <pre>
+ *   mvn install
+ *   mvn -f benchmarks/pom.xml package
+ *   java -jar benchmarks/target/benchmarks.jar -prof gc
+ * </pre>
+ *
+ * A single size can be picked with {@code -p size=1000000}, the columnar
+ * library with {@code -p engine=compact} and a library with a shard for
+ * every processor with {@code -p engine=sharded}. The largest libraries
+ * need a large heap, which is raised for the forked JVMs.<p>
+ *
+ * A library must stay the same size throughout a run to be comparable,
+ * so a movie added by a benchmark is removed again in the same
+ * invocation and the other way around.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms12g", "-Xmx12g"})
+public class MovieLibraryBenchmark {
+
+    private static final String[] WORDS = {
+        "the", "dark", "knight", "lord", "of", "rings", "return", "king",
+        "star", "wars", "empire", "strikes", "back", "godfather", "part",
+        "alien", "aliens", "matrix", "reloaded", "heat", "man", "bat",
+        "spider", "iron", "night", "day", "dead", "living", "last", "first",
+        "blade", "runner", "terminator", "judgment", "fight", "club", "pulp",
+        "fiction", "good", "bad", "ugly", "once", "upon", "time", "west"
+    };
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    private int size;
+
+    @Param({"standard", "compact", "sharded"})
+    private String engine;
+
+    private MovieLibrary library;
+    private Movie[] present;
+    private Movie[] absent;
+    private String[] queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void createLibrary() {
+        Random random = new Random(42);
+        List<Movie> movies = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            movies.add(randomMovie(random, i));
+        }
+        library = engine.equals("compact") ? new CompactMovieLibrary()
+                : engine.equals("sharded") ? new ShardedMovieLibrary()
+                : new IndexedMovieLibrary();
+        library.addAll(movies);
+
+        present = new Movie[1024];
+        absent = new Movie[1024];
+        queries = new String[1024];
+        for (int i = 0; i < present.length; i++) {
+            present[i] = movies.get(random.nextInt(size));
+            absent[i] = randomMovie(random, size + i);
+            String title = present[i].getTitle();
+            int from = random.nextInt(title.length() - 3);
+            queries[i] = title.substring(from, from + 4);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public boolean addMovie() {
+        Movie movie = absent[next++ & 1023];
+        return library.addMovie(movie) & library.removeMovie(movie);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public boolean removeMovie() {
+        Movie movie = present[next++ & 1023];
+        return library.removeMovie(movie) & library.addMovie(movie);
+    }
+
+    @Benchmark
+    public boolean findDuplicate() {
+        return library.findDuplicate(present[next++ & 1023].getTitle());
+    }
+
+    @Benchmark
+    public Movie getUniqueMovie() {
+        return library.getUniqueMovie(present[next++ & 1023].getTitle());
+    }
+
+    @Benchmark
+    public void getByGenre(Blackhole bh) {
+        List<Movie> movies = library.getByGenre(Genre.values()[next++ % 5]);
+        bh.consume(movies.get(movies.size() / 2));
+    }
+
+    @Benchmark
+    public void getAllByGenre(Blackhole bh) {
+        List<Movie> movies = library.getAllByGenre();
+        bh.consume(movies.get(next++ % movies.size()));
+    }
+
+    @Benchmark
+    public List<Movie> getMovieMatches() {
+        return library.getMovieMatches(queries[next++ & 1023]);
+    }
+
+    /**
+     * Returns a movie with a title made of random words and a number that
+     * makes it unique.
+     */
+    private static Movie randomMovie(Random random, int number) {
+        StringBuilder title = new StringBuilder();
+        int words = 1 + random.nextInt(4);
+        for (int i = 0; i < words; i++) {
+            String word = WORDS[random.nextInt(WORDS.length)];
+            title.append(Character.toUpperCase(word.charAt(0)))
+                 .append(word, 1, word.length())
+                 .append(' ');
+        }
+        title.append(number);
+        return new Movie(title.toString(), Genre.values()[random.nextInt(5)]);
+    }
+}
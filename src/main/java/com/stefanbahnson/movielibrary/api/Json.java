@@ -0,0 +1,114 @@
+package com.stefanbahnson.movielibrary.api;
+
+import com.stefanbahnson.movielibrary.model.ChangeEvent;
+import com.stefanbahnson.movielibrary.model.Genre;
+import com.stefanbahnson.movielibrary.model.Movie;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A helper class that writes movies as JSON.<p>
+ * This class can not be instantiated!
+ */
+final class Json {
+
+    private Json() {}// can not be instantiated!
+
+    /**
+     * Writes a movie as a JSON object with its title, main genre and all of
+     * its genres.
+     *
+     * @param out where to write the movie
+     * @param movie represents a movie with a given title and genre
+     * @throws IOException if the movie could not be written
+     */
+    static void writeMovie(Writer out, Movie movie) throws IOException {
+        out.write("{\"title\":");
+        writeString(out, movie.getTitle());
+        out.write(",\"genre\":");
+        writeString(out, movie.getGenre().name());
+        out.write(",\"genres\":[");
+        String separator = "";
+        for (Genre genre : movie.getGenres()) {
+            out.write(separator);
+            writeString(out, genre.name());
+            separator = ",";
+        }
+        out.write("],\"rating\":");
+        out.write(movie.isRated() ? Double.toString(movie.getRating()) : "null");
+        out.write('}');
+    }
+
+    /**
+     * Writes a change event as a JSON object with its sequence, its type
+     * and the movie before and after the change.
+     *
+     * @param out where to write the event
+     * @param event a change made to the library
+     * @throws IOException if the event could not be written
+     */
+    static void writeEvent(Writer out, ChangeEvent event) throws IOException {
+        out.write("{\"sequence\":");
+        out.write(Long.toString(event.getSequence()));
+        out.write(",\"type\":");
+        writeString(out, event.getType().name());
+        out.write(",\"previous\":");
+        writeMovieOrNull(out, event.getPrevious());
+        out.write(",\"movie\":");
+        writeMovieOrNull(out, event.getMovie());
+        out.write('}');
+    }
+
+    private static void writeMovieOrNull(Writer out, Movie movie) throws IOException {
+        if (movie == null) {
+            out.write("null");
+        } else {
+            writeMovie(out, movie);
+        }
+    }
+
+    /**
+     * Writes a JSON object with a single message.
+     *
+     * @param out where to write the message
+     * @param key the name of the message
+     * @param message the message
+     * @throws IOException if the message could not be written
+     */
+    static void writeMessage(Writer out, String key, String message)
+            throws IOException {
+        out.write('{');
+        writeString(out, key);
+        out.write(':');
+        writeString(out, message);
+        out.write('}');
+    }
+
+    /**
+     * Writes a string as a quoted and escaped JSON string.
+     *
+     * @param out where to write the string
+     * @param s the string to write
+     * @throws IOException if the string could not be written
+     */
+    static void writeString(Writer out, String s) throws IOException {
+        out.write('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':  out.write("\\\""); break;
+                case '\\': out.write("\\\\"); break;
+                case '\n': out.write("\\n");  break;
+                case '\r': out.write("\\r");  break;
+                case '\t': out.write("\\t");  break;
+                default:
+                    if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+                        out.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.write(c);
+                    }
+            }
+        }
+        out.write('"');
+    }
+}
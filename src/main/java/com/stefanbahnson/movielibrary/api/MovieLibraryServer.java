@@ -0,0 +1,796 @@
+package com.stefanbahnson.movielibrary.api;
+
+import com.stefanbahnson.movielibrary.metrics.LibraryMetrics;
+import com.stefanbahnson.movielibrary.model.ChangeEvent;
+import com.stefanbahnson.movielibrary.model.ChangeStream;
+import com.stefanbahnson.movielibrary.model.ConcurrentMovieLibrary;
+import com.stefanbahnson.movielibrary.model.Genre;
+import com.stefanbahnson.movielibrary.model.Movie;
+import com.stefanbahnson.movielibrary.model.MovieLibrary;
+import com.stefanbahnson.movielibrary.model.Page;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves a {@code MovieLibrary} as a JSON API over HTTP.<p>
+ *
+ * The server runs on the HTTP server built into the JDK. Every request is
+ * handled on a thread of its own from a cached pool. Virtual threads are
+ * not used on the Java 8 the project targets, nor on JDK 17; see
+ * {@link #threadPerRequestExecutor()}. The library must therefore be safe
+ * to use from many threads, such as a {@code ConcurrentMovieLibrary}.<p>
+ *
+ * Parameters are given in the query string or, for {@code POST} and
+ * {@code PUT}, as a form in the request body. A movie can be given a
+ * {@code rating} when it is added. A body longer than 16 KiB is answered
+ * with 413, a malformed request with 400, and a request the server fails
+ * to handle with 500.
+ *
+ * <pre>
+ *   GET    /movies                     all movies sorted by title
+ *   GET    /movies?sort=genre          all movies sorted by genre
+ *   GET    /movies?title=T             the movie with the title T
+ *   GET    /movies?minRating=R1&amp;maxRating=R2
+ *                                      all movies rated from R1 to R2,
+ *                                      best rated first
+ *   POST   /movies?title=T&amp;genre=G     adds a movie
+ *   POST   /movies?title=T&amp;genre=G&amp;genres=G1,G2
+ *                                      adds a movie with other genres too
+ *   PUT    /movies?title=T&amp;newTitle=N  renames a movie
+ *   PUT    /movies?title=T&amp;genre=G     changes the genre of a movie
+ *   PUT    /movies?title=T&amp;genres=G1,G2
+ *                                      changes the other genres of a movie
+ *   PUT    /movies?title=T&amp;rating=R    rates a movie, or removes its
+ *                                      rating if R is none
+ *   DELETE /movies?title=T             removes a movie
+ *   GET    /movies/search?q=Q          all movies with a title containing Q
+ *   GET    /movies/search?q=Q&amp;fuzzy=D  the 10 movies nearest to Q, each
+ *                                      word at most D typos off, with D 
+ *                                      from 0 to 2
+ *   GET    /movies/suggest?prefix=P    the first 10 movies with a title
+ *                                      starting with P
+ *   GET    /movies/top?genre=G&amp;limit=N the N best rated movies of the
+ *                                      genre G, or of any genre
+ *   GET    /movies/random?genre=G      a random movie of the genre G, or
+ *                                      of any genre
+ *   GET    /movies/random?weighted=true
+ *                                      a random rated movie, the better
+ *                                      rated the more likely
+ *   GET    /genres                     all genres
+ *   GET    /genres/G                   all movies of the genre G
+ *   GET    /genres?all=G1,G2&amp;none=G3   all movies of both G1 and G2 but
+ *                                      not of G3
+ *   GET    /metrics                    the {@code LibraryMetrics} as text
+ *   GET    /changes?from=S&amp;limit=N    at most N changes to the library
+ *                                      from the sequence S on
+ *   GET    /changes?epoch=E&amp;from=S    as above, if the changes are still
+ *                                      those of the epoch E
+ *   GET    /changes?from=S&amp;wait=W     as above, waiting up to W ms for
+ *                                      the first change
+ * </pre>
+ *
+ * Lists are written to the client as they are read, with chunked
+ * encoding. The whole library and the movies of a genre are read from the
+ * streams of the library, so a {@code ConcurrentMovieLibrary} is read a
+ * page at a time rather than copied first. Every other list, such as the
+ * movies sorted by genre or those found by a search, is found in whole
+ * before it is written. Connections are kept alive between requests.<p>
+ *
+ * A {@code PUT} makes its changes one at a time, the rename first, so a
+ * new title that another movie has is answered with 409 before anything
+ * is changed. A movie that is changed by someone else while the changes
+ * are made is also answered with 409, and keeps the changes made to it
+ * until then.<p>
+ *
+ * A list can also be fetched a page at a time by adding {@code limit}, the
+ * largest number of movies on a page, to a {@code GET} that lists movies.
+ * The response is then an object with the {@code movies} of the page and
+ * the {@code next} cursor, to be passed as {@code cursor} for the next page.<p>
+ *
+ * The changes are only served for a {@code ConcurrentMovieLibrary}, from
+ * its {@code ChangeStream}. The response is an object with the
+ * {@code epoch} of the stream, the {@code events} and the {@code next}
+ * sequence to read from. Without {@code from}, only the changes still to
+ * come are read. Sequences start again at one when the server starts, so a
+ * client that resumes passes the {@code epoch} it read them in. Changes
+ * that are no longer held, or are of another epoch, are answered with 410
+ * Gone, after which the client must read the whole library again.
+ */
+public class MovieLibraryServer {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int BACKLOG = 4096;
+    private static final int FUZZY_LIMIT = 10;
+    private static final int SUGGEST_LIMIT = 10;
+    private static final int TOP_LIMIT = 10;
+    private static final int CHANGES_LIMIT = 1000;
+    private static final long MAX_WAIT_MILLIS = 30000;
+    private static final int MAX_BODY_SIZE = 16 * 1024;
+
+    private final MovieLibrary library;
+    private final LibraryMetrics metrics;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Creates a server for a library. The server does not accept requests
+     * until it is started.
+     *
+     * @param library a library that is safe to use from many threads
+     * @param address the address to listen on
+     * @throws IOException if the address could not be bound
+     */
+    public MovieLibraryServer(MovieLibrary library, InetSocketAddress address)
+            throws IOException {
+        this.library = library;
+        this.metrics = new LibraryMetrics(library);
+        this.server = HttpServer.create(address, BACKLOG);
+        this.executor = threadPerRequestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/movies/search", new SearchHandler());
+        server.createContext("/movies/suggest", new SuggestHandler());
+        server.createContext("/movies/top", new TopHandler());
+        server.createContext("/movies/random", new RandomHandler());
+        server.createContext("/movies", new MoviesHandler());
+        server.createContext("/genres", new GenresHandler());
+        server.createContext("/metrics", new MetricsHandler());
+        if (library instanceof ConcurrentMovieLibrary) {
+            server.createContext("/changes", new ChangesHandler(
+                    ((ConcurrentMovieLibrary) library).getChangeStream()));
+        }
+    }
+
+    /**
+     * Starts accepting requests.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests and waits up to a given time for the requests
+     * being handled to finish.
+     *
+     * @param delaySeconds the longest time to wait
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+    }
+
+    /**
+     * Returns the address the server listens on.
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * Returns an executor that runs every task on a thread from a cached
+     * pool. The project targets Java 8 and is built and tested on JDK 17,
+     * where that is what the server uses. Only a JDK with virtual threads,
+     * 21 or later, makes the executor start a new virtual thread per task
+     * instead, which is looked up by reflection and has not been tested.
+     */
+    static ExecutorService threadPerRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * A handler that answers a request which fails with the status that
+     * fits the failure, and always closes the exchange.
+     */
+    private abstract static class Handler implements HttpHandler {
+        @Override
+        public final void handle(HttpExchange exchange) throws IOException {
+            try {
+                serve(exchange);
+            } catch (BodyTooLargeException e) {
+                exchange.getResponseHeaders().set("Connection", "close");
+                fail(exchange, 413, "Request too large");
+            } catch (IllegalArgumentException e) {
+                fail(exchange, 400, "Malformed request");
+            } catch (RuntimeException e) {
+                System.err.println("Could not handle " + exchange.getRequestMethod()
+                        + " " + exchange.getRequestURI() + ": " + e);
+                fail(exchange, 500, "Internal error");
+            } finally {
+                exchange.close();
+            }
+        }
+
+        /**
+         * Answers a request. The exchange is closed by the caller.
+         */
+        abstract void serve(HttpExchange exchange) throws IOException;
+
+        /**
+         * Answers a failed request, unless the response was already begun,
+         * in which case closing the exchange cuts it short.
+         */
+        private static void fail(HttpExchange exchange, int status, String message)
+                throws IOException {
+            if (exchange.getResponseCode() == -1) {
+                sendMessage(exchange, status, "error", message);
+            }
+        }
+    }
+
+    /**
+     * Thrown when a request body is longer than {@code MAX_BODY_SIZE}.
+     */
+    private static final class BodyTooLargeException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        BodyTooLargeException() {
+            super(null, null, false, false);
+        }
+    }
+
+    private final class MoviesHandler extends Handler {
+        @Override
+        void serve(HttpExchange exchange) throws IOException {
+            if (!exchange.getRequestURI().getPath().equals("/movies")) {
+                sendMessage(exchange, 404, "error", "Not found");
+                return;
+            }
+            Map<String, String> params = parameters(exchange);
+            switch (exchange.getRequestMethod()) {
+                case "GET":    get(exchange, params);    break;
+                case "POST":   add(exchange, params);    break;
+                case "PUT":    edit(exchange, params);   break;
+                case "DELETE": remove(exchange, params); break;
+                default:
+                    sendMessage(exchange, 405, "error", "Method not allowed");
+            }
+        }
+
+        private void get(HttpExchange exchange, Map<String, String> params)
+                throws IOException {
+            String title = params.get("title");
+            if (title != null) {
+                Movie movie = library.getUniqueMovie(title);
+                if (movie == null) {
+                    sendMessage(exchange, 404, "error", "No movie by that name");
+                } else {
+                    sendMovie(exchange, 200, movie);
+                }
+            } else if (params.containsKey("minRating") || params.containsKey("maxRating")) {
+                double min = params.containsKey("minRating")
+                           ? Double.parseDouble(params.get("minRating")) : 0;
+                double max = params.containsKey("maxRating")
+                           ? Double.parseDouble(params.get("maxRating")) : Movie.MAX_RATING;
+                sendMovies(exchange, library.getByRating(min, max));
+            } else if ("genre".equals(params.get("sort"))) {
+                sendMovies(exchange, library.getAllByGenre());
+            } else if (params.containsKey("limit")) {
+                Integer limit = limit(exchange, params);
+                if (limit != null) {
+                    sendPage(exchange, library.getPageByTitle(params.get("cursor"), limit));
+                }
+            } else {
+                sendMovies(exchange, library.streamByTitle().iterator());
+            }
+        }
+
+        private void add(HttpExchange exchange, Map<String, String> params)
+                throws IOException {
+            String title = params.get("title");
+            Genre genre = genre(params.get("genre"));
+            Set<Genre> otherGenres = genres(params.get("genres"));
+            if (title == null || title.isEmpty() || genre == null || otherGenres == null) {
+                sendMessage(exchange, 400, "error", "A title and a genre are required");
+                return;
+            }
+            Movie movie = new Movie(title, genre, otherGenres);
+            Double rating = rating(params.get("rating"));
+            if (rating != null) {
+                movie = movie.withRating(rating);
+            }
+            if (library.addMovie(movie)) {
+                sendMovie(exchange, 201, movie);
+            } else {
+                sendMessage(exchange, 409, "error", "Movie already added");
+            }
+        }
+
+        private void edit(HttpExchange exchange, Map<String, String> params)
+                throws IOException {
+            Movie movie = library.getUniqueMovie(params.get("title"));
+            String newTitle = params.get("newTitle");
+            String genreName = params.get("genre");
+            Genre genre = genre(genreName);
+            String genresNames = params.get("genres");
+            Set<Genre> otherGenres = genres(genresNames);
+            Double rating = rating(params.get("rating"));
+            if (movie == null) {
+                sendMessage(exchange, 404, "error", "No movie by that name");
+                return;
+            }
+            if ((newTitle == null && genreName == null && genresNames == null
+                        && rating == null)
+                    || (newTitle != null && newTitle.isEmpty())
+                    || (genreName != null && genre == null)
+                    || otherGenres == null) {
+                sendMessage(exchange, 400, "error", "A new title, genre or rating is required");
+                return;
+            }
+            // the rename goes first, since it is the only change that can be
+            // refused while the movie is unchanged, and nothing is changed yet
+            if (newTitle != null) {
+                Movie renamed = library.renameMovie(movie, newTitle);
+                if (renamed == null && movie.equals(library.getUniqueMovie(movie.getTitle()))) {
+                    sendMessage(exchange, 409, "error", "Another movie has the new title");
+                    return;
+                }
+                movie = renamed;
+            }
+            if (movie != null && genresNames != null) {
+                movie = library.changeGenres(movie, 
+                        genre != null ? genre : movie.getGenre(), otherGenres);
+            } else if (movie != null && genre != null && genre != movie.getGenre()) {
+                movie = library.changeGenre(movie, genre);
+            }
+            if (movie != null && rating != null) {
+                movie = library.rateMovie(movie, rating);
+            }
+            if (movie == null) {
+                sendMessage(exchange, 409, "error", "The movie was changed or removed by someone else");
+            } else {
+                sendMovie(exchange, 200, movie);
+            }
+        }
+
+        private void remove(HttpExchange exchange, Map<String, String> params)
+                throws IOException {
+            Movie movie = library.getUniqueMovie(params.get("title"));
+            if (movie == null || !library.removeMovie(movie)) {
+                sendMessage(exchange, 404, "error", "No movie by that name");
+            } else {
+                exchange.sendResponseHeaders(204, -1);
+            }
+        }
+    }
+
+    private final class SearchHandler extends Handler {
+        @Override
+        void serve(HttpExchange exchange) throws IOException {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                sendMessage(exchange, 405, "error", "Method not allowed");
+                return;
+            }
+            Map<String, String> params = parameters(exchange);
+            String query = params.containsKey("q") ? params.get("q") : "";
+            if (params.containsKey("fuzzy")) {
+                int maxDistance = Integer.parseInt(params.get("fuzzy"));
+                int limit = params.containsKey("limit")
+                          ? Integer.parseInt(params.get("limit"))
+                          : FUZZY_LIMIT;
+                sendMovies(exchange, library.getFuzzyMatches(query, maxDistance, limit));
+            } else if (params.containsKey("limit")) {
+                Integer limit = limit(exchange, params);
+                if (limit != null) {
+                    sendPage(exchange, library.getMatchPage(
+                            query, params.get("cursor"), limit));
+                }
+            } else {
+                sendMovies(exchange, library.getMovieMatches(query));
+            }
+        }
+    }
+
+    private final class SuggestHandler extends Handler {
+        @Override
+        void serve(HttpExchange exchange) throws IOException {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                sendMessage(exchange, 405, "error", "Method not allowed");
+                return;
+            }
+            Map<String, String> params = parameters(exchange);
+            String prefix = params.containsKey("prefix") ? params.get("prefix") : "";
+            int limit = params.containsKey("limit")
+                      ? Integer.parseInt(params.get("limit"))
+                      : SUGGEST_LIMIT;
+            sendMovies(exchange, library.suggest(prefix, limit));
+        }
+    }
+
+    private final class TopHandler extends Handler {
+        @Override
+        void serve(HttpExchange exchange) throws IOException {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                sendMessage(exchange, 405, "error", "Method not allowed");
+                return;
+            }
+            Map<String, String> params = parameters(exchange);
+            Genre genre = genre(params.get("genre"));
+            int limit = params.containsKey("limit")
+                      ? Integer.parseInt(params.get("limit"))
+                      : TOP_LIMIT;
+            if (params.containsKey("genre") && genre == null) {
+                sendMessage(exchange, 404, "error", "No genre by that name");
+            } else {
+                sendMovies(exchange, library.getTopRated(genre, limit));
+            }
+        }
+    }
+
+    private final class RandomHandler extends Handler {
+        @Override
+        void serve(HttpExchange exchange) throws IOException {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                sendMessage(exchange, 405, "error", "Method not allowed");
+                return;
+            }
+            Map<String, String> params = parameters(exchange);
+            boolean weighted = Boolean.parseBoolean(params.get("weighted"));
+            Genre genre = genre(params.get("genre"));
+            if (params.containsKey("genre") && (weighted || genre == null)) {
+                sendMessage(exchange, weighted ? 400 : 404, "error",
+                            weighted ? "Malformed request" : "No genre by that name");
+                return;
+            }
+            Movie movie = weighted ? library.randomRatedMovie()
+                        : genre != null ? library.randomMovie(genre)
+                        : library.randomMovie();
+            if (movie == null) {
+                sendMessage(exchange, 404, "error", "No movie to pick");
+            } else {
+                sendMovie(exchange, 200, movie);
+            }
+        }
+    }
+
+    private final class GenresHandler extends Handler {
+        @Override
+        void serve(HttpExchange exchange) throws IOException {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                sendMessage(exchange, 405, "error", "Method not allowed");
+                return;
+            }
+            Map<String, String> params = parameters(exchange);
+            String path = exchange.getRequestURI().getPath();
+            if (path.equals("/genres") || path.equals("/genres/")) {
+                if (params.containsKey("all") || params.containsKey("none")) {
+                    Set<Genre> required = genres(params.get("all"));
+                    Set<Genre> excluded = genres(params.get("none"));
+                    if (required == null || excluded == null) {
+                        sendMessage(exchange, 404, "error", "No genre by that name");
+                    } else {
+                        sendMovies(exchange, library.getByGenres(required, excluded));
+                    }
+                } else {
+                    sendGenres(exchange);
+                }
+                return;
+            }
+            Genre genre = genre(path.substring("/genres/".length()));
+            if (genre == null) {
+                sendMessage(exchange, 404, "error", "No genre by that name");
+            } else if (params.containsKey("limit")) {
+                Integer limit = limit(exchange, params);
+                if (limit != null) {
+                    sendPage(exchange, library.getPageByGenre(
+                            genre, params.get("cursor"), limit));
+                }
+            } else {
+                sendMovies(exchange, library.streamByGenre(genre).iterator());
+            }
+        }
+    }
+
+    private final class MetricsHandler extends Handler {
+        @Override
+        void serve(HttpExchange exchange) throws IOException {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                sendMessage(exchange, 405, "error", "Method not allowed");
+                return;
+            }
+            byte[] body = metrics.dump().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+        }
+    }
+
+    private static final class ChangesHandler extends Handler {
+        private final ChangeStream changes;
+
+        ChangesHandler(ChangeStream changes) {
+            this.changes = changes;
+        }
+
+        @Override
+        void serve(HttpExchange exchange) throws IOException {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                sendMessage(exchange, 405, "error", "Method not allowed");
+                return;
+            }
+            Map<String, String> params = parameters(exchange);
+            if (params.containsKey("epoch")
+                    && Long.parseLong(params.get("epoch")) != changes.getEpoch()) {
+                sendMessage(exchange, 410, "error",
+                            "The changes of epoch " + params.get("epoch") + " are no longer held");
+                return;
+            }
+            long from = params.containsKey("from")
+                      ? Long.parseLong(params.get("from"))
+                      : changes.lastSequence() + 1;
+            int limit = params.containsKey("limit")
+                      ? Integer.parseInt(params.get("limit"))
+                      : CHANGES_LIMIT;
+            long wait = params.containsKey("wait")
+                      ? Math.min(Long.parseLong(params.get("wait")), MAX_WAIT_MILLIS)
+                      : 0;
+            List<ChangeEvent> events;
+            try {
+                events = changes.read(from, limit, wait, TimeUnit.MILLISECONDS);
+            } catch (IllegalStateException e) {
+                sendMessage(exchange, 410, "error", e.getMessage());
+                return;
+            }
+
+            StringWriter json = new StringWriter();
+            json.write("{\"epoch\":");
+            json.write(Long.toString(changes.getEpoch()));
+            json.write(",\"events\":[");
+            for (int i = 0; i < events.size(); i++) {
+                if (i > 0) {
+                    json.write(',');
+                }
+                Json.writeEvent(json, events.get(i));
+            }
+            json.write("],\"next\":");
+            json.write(Long.toString(from + events.size()));
+            json.write('}');
+            send(exchange, 200, json.toString());
+        }
+    }
+
+    /**
+     * Returns the genre with a name, which is not case-sensitive.
+     *
+     * @return the genre or {@code null} if there is none by that name
+     */
+    private static Genre genre(String name) {
+        if (name == null) {
+            return null;
+        }
+        try {
+            return Genre.valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the genres of a comma separated list of names, which are not 
+     * case-sensitive.
+     *
+     * @return the genres, none if there is no list, or {@code null} if a
+     *         name is not the name of a genre
+     */
+    private static Set<Genre> genres(String names) {
+        Set<Genre> genres = EnumSet.noneOf(Genre.class);
+        if (names == null || names.trim().isEmpty()) {
+            return genres;
+        }
+        for (String name : names.split(",")) {
+            Genre genre = genre(name);
+            if (genre == null) {
+                return null;
+            }
+            genres.add(genre);
+        }
+        return genres;
+    }
+
+    /**
+     * Returns the rating of a request, which is {@link Movie#UNRATED} if
+     * it is {@code none}.
+     *
+     * @return the rating or {@code null} if there is none
+     * @throws IllegalArgumentException if the rating is not a number or is
+     *         out of range
+     */
+    private static Double rating(String rating) {
+        if (rating == null) {
+            return null;
+        }
+        if (rating.trim().equalsIgnoreCase("none")) {
+            return Movie.UNRATED;
+        }
+        double value = Double.parseDouble(rating);
+        if (!(value >= 0 && value <= Movie.MAX_RATING)) {
+            throw new IllegalArgumentException("rating out of range: " + rating);
+        }
+        return value;
+    }
+
+    /**
+     * Returns the page size of a request, or sends an error and returns
+     * {@code null} if it is not a positive number.
+     */
+    private static Integer limit(HttpExchange exchange, Map<String, String> params)
+            throws IOException {
+        try {
+            int limit = Integer.parseInt(params.get("limit"));
+            if (limit > 0) {
+                return limit;
+            }
+        } catch (NumberFormatException e) {
+            // answered below
+        }
+        sendMessage(exchange, 400, "error", "limit must be a positive number");
+        return null;
+    }
+
+    /**
+     * Sends a page of movies and the cursor of the next page, or an error
+     * if the cursor of the page was malformed.
+     */
+    private static void sendPage(HttpExchange exchange, Page page) throws IOException {
+        StringWriter json = new StringWriter();
+        json.write("{\"movies\":[");
+        for (int i = 0; i < page.getMovies().size(); i++) {
+            if (i > 0) {
+                json.write(',');
+            }
+            Json.writeMovie(json, page.getMovies().get(i));
+        }
+        json.write("],\"next\":");
+        if (page.getNextCursor() == null) {
+            json.write("null");
+        } else {
+            Json.writeString(json, page.getNextCursor());
+        }
+        json.write('}');
+        send(exchange, 200, json.toString());
+    }
+
+    private static void sendMovies(HttpExchange exchange, List<Movie> movies)
+            throws IOException {
+        sendMovies(exchange, movies.iterator());
+    }
+
+    /**
+     * Streams movies as a JSON array as they are read, using chunked
+     * encoding.
+     */
+    private static void sendMovies(HttpExchange exchange, Iterator<Movie> movies)
+            throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                exchange.getResponseBody(), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            out.write('[');
+            boolean first = true;
+            while (movies.hasNext()) {
+                if (!first) {
+                    out.write(',');
+                }
+                Json.writeMovie(out, movies.next());
+                first = false;
+            }
+            out.write(']');
+        }
+    }
+
+    private static void sendGenres(HttpExchange exchange) throws IOException {
+        StringWriter json = new StringWriter();
+        json.write('[');
+        for (Genre genre : Genre.values()) {
+            if (genre.ordinal() > 0) {
+                json.write(',');
+            }
+            Json.writeString(json, genre.name());
+        }
+        json.write(']');
+        send(exchange, 200, json.toString());
+    }
+
+    private static void sendMovie(HttpExchange exchange, int status, Movie movie)
+            throws IOException {
+        StringWriter json = new StringWriter();
+        Json.writeMovie(json, movie);
+        send(exchange, status, json.toString());
+    }
+
+    private static void sendMessage(HttpExchange exchange, int status,
+                                    String key, String message) throws IOException {
+        StringWriter json = new StringWriter();
+        Json.writeMessage(json, key, message);
+        send(exchange, status, json.toString());
+    }
+
+    /**
+     * Sends a JSON body with a known length.
+     */
+    private static void send(HttpExchange exchange, int status, String json)
+            throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    /**
+     * Returns the parameters of the query string and, if it is a form, of
+     * the request body. The request body is read to the end, which lets the
+     * connection be reused.
+     *
+     * @throws BodyTooLargeException if the body is longer than
+     *         {@code MAX_BODY_SIZE}, which is not read any further
+     */
+    private static Map<String, String> parameters(HttpExchange exchange)
+            throws IOException {
+        Map<String, String> params = new HashMap<>();
+        parse(exchange.getRequestURI().getRawQuery(), params);
+
+        String length = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (length != null && Long.parseLong(length.trim()) > MAX_BODY_SIZE) {
+            throw new BodyTooLargeException();
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buffer = new byte[4096];
+            for (int n; (n = in.read(buffer)) > 0;) {
+                if (body.size() + n > MAX_BODY_SIZE) {
+                    throw new BodyTooLargeException();
+                }
+                body.write(buffer, 0, n);
+            }
+        }
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        if (contentType != null
+                && contentType.startsWith("application/x-www-form-urlencoded")) {
+            parse(new String(body.toByteArray(), StandardCharsets.US_ASCII), params);
+        }
+        return params.isEmpty() ? Collections.<String, String>emptyMap() : params;
+    }
+
+    private static void parse(String encoded, Map<String, String> params) {
+        if (encoded == null || encoded.isEmpty()) {
+            return;
+        }
+        for (String pair : encoded.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            try {
+                params.put(URLDecoder.decode(key, "UTF-8"),
+                           URLDecoder.decode(value, "UTF-8"));
+            } catch (IllegalArgumentException | UnsupportedEncodingException e) {
+                // a malformed parameter is left out
+            }
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package com.stefanbahnson.movielibrary.importer;
+
+import com.stefanbahnson.movielibrary.model.Genre;
+import com.stefanbahnson.movielibrary.model.Movie;
+import com.stefanbahnson.movielibrary.model.MovieLibrary;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Imports large catalogs of movies into a {@code MovieLibrary}.<p>
+ *
+ * A catalog is a text file with one movie per row, holding a title and a
+ * genre separated by a comma (CSV) or a tab (TSV). A title containing the
+ * separator or quotes can be quoted with double quotes, where a quote in the
+ * title is written twice. A movie with several genres has them separated by
+ * a bar, the main genre first, as in {@code Action|Comedy}. A third column
+ * may hold the rating of the movie, which may be left empty. A first row of
+ * {@code title} and {@code genre}, and {@code rating}, is taken as a header
+ * and skipped.<p>
+ *
+ * The file is streamed in chunks of rows, which are parsed and validated by
+ * a pool of threads while the next chunks are read. Only a few chunks are
+ * in flight at any time, so the memory used besides the imported movies
+ * themselves does not depend on the size of the file. The movies are then
+ * checked for duplicates, in file order, and added to the library in a
+ * single bulk insert.
+ */
+public class CatalogImporter {
+    /**
+     * The number of rows parsed by a thread at a time.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 8192;
+
+    private static final int MAX_ERRORS = 100;
+
+    private static final Map<String, Genre> GENRES = new HashMap<>();
+    static {
+        for (Genre genre : Genre.values()) {
+            GENRES.put(genre.name().toLowerCase(Locale.ROOT), genre);
+        }
+    }
+
+    private final MovieLibrary library;
+    private final int threads;
+    private final int chunkSize;
+
+    /**
+     * Creates an importer that uses a thread per processor.
+     *
+     * @param library the library to import movies into
+     */
+    public CatalogImporter(MovieLibrary library) {
+        this(library, Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates an importer.
+     *
+     * @param library the library to import movies into
+     * @param threads the number of threads parsing rows
+     * @param chunkSize the number of rows parsed by a thread at a time
+     */
+    public CatalogImporter(MovieLibrary library, int threads, int chunkSize) {
+        if (threads < 1 || chunkSize < 1) {
+            throw new IllegalArgumentException("threads and chunkSize must be positive");
+        }
+        this.library = library;
+        this.threads = threads;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Imports a catalog into the library. The separator is a tab if the
+     * file name ends with {@code .tsv} and a comma otherwise.
+     *
+     * @param catalog the catalog file
+     * @return a report of the rows imported and rejected
+     * @throws IOException if the catalog could not be read
+     */
+    public ImportReport importCatalog(Path catalog) throws IOException {
+        boolean tsv = catalog.getFileName().toString()
+                             .toLowerCase(Locale.ROOT).endsWith(".tsv");
+        try (BufferedReader reader = Files.newBufferedReader(catalog, StandardCharsets.UTF_8)) {
+            return importCatalog(reader, tsv ? '\t' : ',');
+        }
+    }
+
+    /**
+     * Imports a catalog read from a reader into the library.
+     *
+     * @param reader the rows of the catalog
+     * @param separator the character between the title and genre of a row
+     * @return a report of the rows imported and rejected
+     * @throws IOException if the catalog could not be read
+     */
+    public ImportReport importCatalog(BufferedReader reader, char separator)
+            throws IOException {
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            Queue<Future<Chunk>> inFlight = new ArrayDeque<>();
+            Set<String> titles = new HashSet<>();
+            List<Movie> movies = new ArrayList<>();
+            List<String> errors = new ArrayList<>();
+            long rows = 0;
+            long rejected = 0;
+            long duplicates = 0;
+
+            List<String> lines = new ArrayList<>(chunkSize);
+            long firstLine = 1;
+            boolean eof = false;
+            while (!eof || !inFlight.isEmpty()) {
+                // keep every thread busy, but read no further ahead than that
+                while (!eof && inFlight.size() < 2 * threads) {
+                    String line = reader.readLine();
+                    if (line == null) {
+                        eof = true;
+                    } else {
+                        lines.add(line);
+                    }
+                    if (lines.size() == chunkSize || (eof && !lines.isEmpty())) {
+                        Chunk chunk = new Chunk(lines, firstLine, separator);
+                        firstLine += lines.size();
+                        inFlight.add(pool.submit(chunk));
+                        lines = new ArrayList<>(chunkSize);
+                    }
+                }
+                if (inFlight.isEmpty()) {
+                    break;
+                }
+
+                Chunk chunk = await(inFlight.remove());
+                rows += chunk.rows;
+                rejected += chunk.errors.size();
+                for (String error : chunk.errors) {
+                    if (errors.size() < MAX_ERRORS) {
+                        errors.add(error);
+                    }
+                }
+                for (Movie movie : chunk.movies) {
+                    String key = MovieLibrary.normalize(movie.getTitle());
+                    if (library.findDuplicate(key) || !titles.add(key)) {
+                        duplicates++;
+                    } else {
+                        movies.add(movie);
+                    }
+                }
+            }
+
+            int imported = library.addAll(movies);
+            duplicates += movies.size() - imported;
+            return new ImportReport(rows, imported, rejected, duplicates,
+                                    System.nanoTime() - start, errors);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static Chunk await(Future<Chunk> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Import failed", e.getCause());
+        }
+    }
+
+    /**
+     * A chunk of rows, which turns itself into movies when called.
+     */
+    private static final class Chunk implements Callable<Chunk> {
+        private final List<String> lines;
+        private final long firstLine;
+        private final char separator;
+
+        private final List<Movie> movies = new ArrayList<>();
+        private final List<String> errors = new ArrayList<>();
+        private int rows;
+
+        Chunk(List<String> lines, long firstLine, char separator) {
+            this.lines = lines;
+            this.firstLine = firstLine;
+            this.separator = separator;
+        }
+
+        @Override
+        public Chunk call() {
+            List<String> fields = new ArrayList<>(3);
+            for (int i = 0; i < lines.size(); i++) {
+                String line = lines.get(i);
+                long lineNumber = firstLine + i;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                if (lineNumber == 1 && isHeader(line)) {
+                    continue;
+                }
+                rows++;
+
+                fields.clear();
+                String error = split(line, separator, fields);
+                if (error == null && fields.size() != 2 && fields.size() != 3) {
+                    error = "expected a title and a genre";
+                }
+                if (error == null && fields.get(0).trim().isEmpty()) {
+                    error = "missing title";
+                }
+                Genre genre = null;
+                Set<Genre> otherGenres = EnumSet.noneOf(Genre.class);
+                if (error == null) {
+                    for (String name : fields.get(1).split("\\|")) {
+                        Genre g = GENRES.get(name.trim().toLowerCase(Locale.ROOT));
+                        if (g == null) {
+                            error = "unknown genre '" + name.trim() + "'";
+                            break;
+                        } else if (genre == null) {
+                            genre = g;
+                        } else {
+                            otherGenres.add(g);
+                        }
+                    }
+                }
+
+                double rating = Movie.UNRATED;
+                if (error == null && fields.size() == 3 && !fields.get(2).trim().isEmpty()) {
+                    try {
+                        rating = Double.parseDouble(fields.get(2).trim());
+                    } catch (NumberFormatException e) {
+                        error = "malformed rating '" + fields.get(2).trim() + "'";
+                    }
+                    if (error == null && !(rating >= 0 && rating <= Movie.MAX_RATING)) {
+                        error = "rating out of range '" + fields.get(2).trim() + "'";
+                    }
+                }
+
+                if (error == null) {
+                    Movie movie = new Movie(fields.get(0).trim(), genre, otherGenres);
+                    movies.add(Double.isNaN(rating) ? movie : movie.withRating(rating));
+                } else {
+                    errors.add("line " + lineNumber + ": " + error);
+                }
+            }
+            return this;
+        }
+
+        private boolean isHeader(String line) {
+            List<String> header = new ArrayList<>(3);
+            return split(line, separator, header) == null
+                    && (header.size() == 2 || header.size() == 3
+                        && header.get(2).trim().equalsIgnoreCase("rating"))
+                    && header.get(0).trim().equalsIgnoreCase("title")
+                    && header.get(1).trim().equalsIgnoreCase("genre");
+        }
+    }
+
+    /**
+     * Splits a row into its fields.
+     *
+     * @param line the row
+     * @param separator the character between fields
+     * @param fields receives the fields of the row
+     * @return a description of what is wrong with the row, or {@code null}
+     */
+    static String split(String line, char separator, List<String> fields) {
+        StringBuilder field = new StringBuilder();
+        int i = 0;
+        while (i <= line.length()) {
+            field.setLength(0);
+            if (i < line.length() && line.charAt(i) == '"') {
+                i++;
+                for (;;) {
+                    if (i >= line.length()) {
+                        return "unterminated quote";
+                    }
+                    char c = line.charAt(i++);
+                    if (c != '"') {
+                        field.append(c);
+                    } else if (i < line.length() && line.charAt(i) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        break;
+                    }
+                }
+                if (i < line.length() && line.charAt(i) != separator) {
+                    return "text after closing quote";
+                }
+            } else {
+                int end = line.indexOf(separator, i);
+                if (end < 0) {
+                    end = line.length();
+                }
+                field.append(line, i, end);
+                i = end;
+            }
+            fields.add(field.toString());
+            i++; // skip the separator
+        }
+        return null;
+    }
+}
@@ -0,0 +1,80 @@
+package com.stefanbahnson.movielibrary.importer;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The outcome of importing a catalog of movies into a library.<p>
+ *
+ * Every row read is either imported, rejected because it could not be
+ * turned into a movie, or skipped as a duplicate of a title already in
+ * the library or earlier in the catalog.
+ */
+public final class ImportReport {
+    private final long rows;
+    private final long imported;
+    private final long rejected;
+    private final long duplicates;
+    private final long elapsedNanos;
+    private final List<String> errors;
+
+    ImportReport(long rows, long imported, long rejected, long duplicates,
+                 long elapsedNanos, List<String> errors) {
+        this.rows = rows;
+        this.imported = imported;
+        this.rejected = rejected;
+        this.duplicates = duplicates;
+        this.elapsedNanos = elapsedNanos;
+        this.errors = Collections.unmodifiableList(errors);
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public long getImported() {
+        return imported;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+
+    /**
+     * Returns the number of rows read and processed per second.
+     */
+    public double getRowsPerSecond() {
+        return elapsedNanos == 0 ? 0 : rows * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * Returns a description of the first rejected rows, each with its line
+     * number and the reason it was rejected.
+     */
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    /**
+     * Returns a string that "textually represents" an {@code ImportReport}
+     * for increased readability.
+     *
+     * @return A String representation of an ImportReport
+     */
+    @Override
+    public String toString() {
+        return String.format("%d rows in %d ms (%.0f rows/s): %d imported, "
+                           + "%d rejected, %d duplicates",
+                             rows, getElapsedMillis(), getRowsPerSecond(),
+                             imported, rejected, duplicates);
+    }
+}
@@ -0,0 +1,159 @@
+package com.stefanbahnson.movielibrary.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of non-negative values, such as latencies in nanoseconds,
+ * that can be recorded from many threads at little cost.<p>
+ *
+ * Like an HdrHistogram, values are counted in buckets that grow with the
+ * magnitude of the value: every power of two is split into 32 buckets of
+ * equal width. Any value is therefore reported within about 3% of its
+ * true value, while the whole range of a {@code long} fits in less than
+ * two thousand buckets.<p>
+ *
+ * The counts are striped over several arrays, picked by the recording
+ * thread, so that threads rarely contend for the same counter.
+ */
+public final class Histogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_COUNT;
+    private static final int STRIPES = stripes();
+
+    private final AtomicLongArray[] counts = new AtomicLongArray[STRIPES];
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public Histogram() {
+        for (int i = 0; i < STRIPES; i++) {
+            counts[i] = new AtomicLongArray(BUCKETS);
+        }
+    }
+
+    /**
+     * Records a value. Negative values are recorded as zero.
+     *
+     * @param value the value to record
+     */
+    public void record(long value) {
+        value = Math.max(value, 0);
+        int stripe = (int) (Thread.currentThread().getId() * 0x9E3779B97F4A7C15L >>> 32)
+                   & (STRIPES - 1);
+        counts[stripe].incrementAndGet(bucket(value));
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Clears every recorded value. Values recorded at the same time may or
+     * may not be cleared.
+     */
+    public void reset() {
+        for (AtomicLongArray stripe : counts) {
+            for (int i = 0; i < BUCKETS; i++) {
+                stripe.set(i, 0);
+            }
+        }
+        sum.reset();
+        max.reset();
+    }
+
+    /**
+     * Returns the values recorded so far, merged from every stripe.
+     */
+    public Counts counts() {
+        long[] merged = new long[BUCKETS];
+        long total = 0;
+        for (AtomicLongArray stripe : counts) {
+            for (int i = 0; i < BUCKETS; i++) {
+                long n = stripe.get(i);
+                merged[i] += n;
+                total += n;
+            }
+        }
+        return new Counts(merged, total, sum.sum(), max.get());
+    }
+
+    /**
+     * The values of a histogram at one point in time.
+     */
+    public static final class Counts {
+        private final long[] buckets;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Counts(long[] buckets, long count, long sum, long max) {
+            this.buckets = buckets;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * Returns the value that a percentage of the recorded values are
+         * less than or equal to.
+         *
+         * @param percentile a percentage between 0 and 100
+         * @return the value at the percentile, or zero if nothing is recorded
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Math.min(highestValue(i), max);
+                }
+            }
+            return max;
+        }
+    }
+
+    /**
+     * Returns the bucket that counts a value.
+     */
+    static int bucket(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        int sub = (int) (value >>> shift) - SUB_COUNT;
+        return (shift + 1) * SUB_COUNT + sub;
+    }
+
+    /**
+     * Returns the highest value counted by a bucket.
+     */
+    static long highestValue(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        int shift = bucket / SUB_COUNT - 1;
+        long lowest = (long) (SUB_COUNT + bucket % SUB_COUNT) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    private static int stripes() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        return Math.min(64, Integer.highestOneBit(Math.max(1, processors) * 2 - 1) * 2);
+    }
+}
@@ -0,0 +1,204 @@
+package com.stefanbahnson.movielibrary.metrics;
+
+import com.stefanbahnson.movielibrary.model.MovieLibrary;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Measures how often, and how fast, the operations of every
+ * {@code MovieLibrary} run.<p>
+ *
+ * Each operation has a {@code Histogram} of its latency in nanoseconds,
+ * which also counts the operation. Searches also record their number of
+ * hits. An instance of this class adds the size of a library, its
+ * indexes and its search cache, and can be published through JMX.<p>
+ *
+ * Metrics are only recorded if the system property
+ * {@code movielibrary.metrics} is {@code true} when the application starts.
+ * Otherwise {@link #ENABLED} is a constant {@code false} and the JIT
+ * compiler removes the recording from the library altogether.
+ */
+public final class LibraryMetrics implements LibraryMetricsMXBean {
+    /**
+     * Whether metrics are recorded.
+     */
+    public static final boolean ENABLED = Boolean.getBoolean("movielibrary.metrics");
+
+    private static final Map<Operation, Histogram> LATENCIES = new EnumMap<>(Operation.class);
+    private static final Histogram SEARCH_HITS = ENABLED ? new Histogram() : null;
+    static {
+        if (ENABLED) {
+            for (Operation operation : Operation.values()) {
+                LATENCIES.put(operation, new Histogram());
+            }
+        }
+    }
+
+    private final MovieLibrary library;
+
+    /**
+     * Creates the metrics of a library.
+     *
+     * @param library the library whose size is reported
+     */
+    public LibraryMetrics(MovieLibrary library) {
+        this.library = library;
+    }
+
+    /**
+     * Returns the time an operation starts, to be passed on to
+     * {@link #record(Operation, long)} when it ends.
+     *
+     * @return the current time in nanoseconds, or zero if disabled
+     */
+    public static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records that an operation has ended.
+     *
+     * @param operation the operation
+     * @param start the time the operation started, from {@link #start()}
+     */
+    public static void record(Operation operation, long start) {
+        if (ENABLED) {
+            LATENCIES.get(operation).record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Records the number of hits of a search.
+     *
+     * @param hits the number of movies found
+     */
+    public static void recordHits(int hits) {
+        if (ENABLED) {
+            SEARCH_HITS.record(hits);
+        }
+    }
+
+    /**
+     * Publishes these metrics through the platform MBean server.
+     *
+     * @throws JMException if the metrics could not be published
+     */
+    public void register() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                new ObjectName("com.stefanbahnson.movielibrary:type=LibraryMetrics"));
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return ENABLED;
+    }
+
+    @Override
+    public int getLibrarySize() {
+        return library.size();
+    }
+
+    @Override
+    public Map<String, Integer> getIndexSizes() {
+        return library.getIndexSizes();
+    }
+
+    @Override
+    public Map<String, Long> getCacheStats() {
+        return library.getCacheStats();
+    }
+
+    @Override
+    public Map<String, Long> getOperationCounts() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (Map.Entry<Operation, Histogram> e : LATENCIES.entrySet()) {
+            values.put(e.getKey().name(), e.getValue().counts().getCount());
+        }
+        return values;
+    }
+
+    @Override
+    public Map<String, Long> getMedianLatencyNanos() {
+        return latencies(50);
+    }
+
+    @Override
+    public Map<String, Long> getP99LatencyNanos() {
+        return latencies(99);
+    }
+
+    @Override
+    public Map<String, Long> getMaxLatencyNanos() {
+        return latencies(100);
+    }
+
+    @Override
+    public String dump() {
+        StringBuilder out = new StringBuilder();
+        try {
+            dump(out);
+        } catch (IOException e) {
+            throw new AssertionError(e); // a StringBuilder does not throw
+        }
+        return out.toString();
+    }
+
+    /**
+     * Writes every metric as plain text, one per line.
+     *
+     * @param out where to write the metrics
+     * @throws IOException if the metrics could not be written
+     */
+    public void dump(Appendable out) throws IOException {
+        out.append(String.format("library size %d%n", getLibrarySize()));
+        for (Map.Entry<String, Integer> e : getIndexSizes().entrySet()) {
+            out.append(String.format("index %s %d%n", e.getKey(), e.getValue()));
+        }
+        for (Map.Entry<String, Long> e : getCacheStats().entrySet()) {
+            out.append(String.format("search cache %s %d%n", e.getKey(), e.getValue()));
+        }
+        if (!ENABLED) {
+            out.append(String.format("operations not recorded, "
+                                   + "start with -Dmovielibrary.metrics=true%n"));
+            return;
+        }
+
+        out.append(String.format("%-18s %10s %10s %10s %10s %10s %10s%n",
+                "operation (us)", "count", "mean", "p50", "p90", "p99", "max"));
+        for (Map.Entry<Operation, Histogram> e : LATENCIES.entrySet()) {
+            Histogram.Counts c = e.getValue().counts();
+            out.append(String.format("%-18s %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                    e.getKey().name().toLowerCase(), c.getCount(), c.getMean() / 1e3,
+                    c.getValueAtPercentile(50) / 1e3, c.getValueAtPercentile(90) / 1e3,
+                    c.getValueAtPercentile(99) / 1e3, c.getMax() / 1e3));
+        }
+        Histogram.Counts hits = SEARCH_HITS.counts();
+        out.append(String.format("%-18s %10d %10.1f %10d %10d %10d %10d%n",
+                "search hits", hits.getCount(), hits.getMean(),
+                hits.getValueAtPercentile(50), hits.getValueAtPercentile(90),
+                hits.getValueAtPercentile(99), hits.getMax()));
+    }
+
+    @Override
+    public void reset() {
+        if (ENABLED) {
+            for (Histogram histogram : LATENCIES.values()) {
+                histogram.reset();
+            }
+            SEARCH_HITS.reset();
+        }
+    }
+
+    private static Map<String, Long> latencies(double percentile) {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (Map.Entry<Operation, Histogram> e : LATENCIES.entrySet()) {
+            values.put(e.getKey().name(), e.getValue().counts().getValueAtPercentile(percentile));
+        }
+        return values;
+    }
+}
@@ -0,0 +1,35 @@
+package com.stefanbahnson.movielibrary.metrics;
+
+import java.util.Map;
+
+/**
+ * The metrics of a library as seen through JMX.
+ */
+public interface LibraryMetricsMXBean {
+
+    boolean isEnabled();
+
+    int getLibrarySize();
+
+    Map<String, Integer> getIndexSizes();
+
+    Map<String, Long> getCacheStats();
+
+    Map<String, Long> getOperationCounts();
+
+    Map<String, Long> getMedianLatencyNanos();
+
+    Map<String, Long> getP99LatencyNanos();
+
+    Map<String, Long> getMaxLatencyNanos();
+
+    /**
+     * Returns every metric as plain text.
+     */
+    String dump();
+
+    /**
+     * Clears every recorded operation.
+     */
+    void reset();
+}
@@ -0,0 +1,26 @@
+package com.stefanbahnson.movielibrary.metrics;
+
+/**
+ * The operations of a {@code MovieLibrary} that are measured.
+ */
+public enum Operation {
+    ADD_MOVIE,
+    ADD_ALL,
+    REMOVE_MOVIE,
+    RENAME_MOVIE,
+    CHANGE_GENRE,
+    RATE_MOVIE,
+    FIND_DUPLICATE,
+    GET_UNIQUE_MOVIE,
+    GET_BY_GENRE,
+    GET_BY_GENRES,
+    GET_ALL_BY_TITLE,
+    GET_ALL_BY_GENRE,
+    GET_MOVIE_MATCHES,
+    GET_FUZZY_MATCHES,
+    SUGGEST,
+    GET_BY_RATING,
+    GET_TOP_RATED,
+    RANDOM_MOVIE,
+    GET_PAGE
+}
@@ -0,0 +1,95 @@
+package com.stefanbahnson.movielibrary.model;
+
+/**
+ * Represents a single change made to a library: a movie added, removed,
+ * renamed, given other genres or rated.<p>
+ *
+ * Every event holds the movie as it was before the change and as it is
+ * after it, so the change can be made again to another library, such as a
+ * read replica, with {@link #applyTo(MovieLibrary)}. Events are numbered
+ * by a sequence that grows by one with every change to the library.
+ */
+public final class ChangeEvent {
+
+    /**
+     * The kinds of change made to a library.
+     */
+    public enum Type {
+        ADD,
+        REMOVE,
+        RENAME,
+        CHANGE_GENRE,
+        RATE
+    }
+
+    private final Type type;
+    private final Movie previous;
+    private final Movie movie;
+    long sequence; // set once, before the event is published
+
+    ChangeEvent(Type type, Movie previous, Movie movie) {
+        this.type = type;
+        this.previous = previous;
+        this.movie = movie;
+    }
+
+    /**
+     * Returns the number of this event, one more than the event before it.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns the movie as it was before the change.
+     *
+     * @return the movie, or {@code null} if it was added
+     */
+    public Movie getPrevious() {
+        return previous;
+    }
+
+    /**
+     * Returns the movie as it is after the change.
+     *
+     * @return the movie, or {@code null} if it was removed
+     */
+    public Movie getMovie() {
+        return movie;
+    }
+
+    /**
+     * Makes the same change to another library, which must hold the movie
+     * as it was before the change.
+     *
+     * @param library the library to change
+     * @return {@code true} if the library was changed
+     */
+    public boolean applyTo(MovieLibrary library) {
+        switch (type) {
+            case ADD:
+                return library.addMovie(movie);
+            case REMOVE:
+                return library.removeMovie(previous);
+            case RENAME:
+                return library.renameMovie(previous, movie.getTitle()) != null;
+            case CHANGE_GENRE:
+                return library.changeGenres(
+                        previous, movie.getGenre(), movie.getGenres()) != null;
+            default:
+                return library.rateMovie(previous, movie.getRating()) != null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "#" + sequence + " " + type + " "
+             + (previous == null ? "" : previous)
+             + (previous != null && movie != null ? " -> " : "")
+             + (movie == null ? "" : movie);
+    }
+}
@@ -0,0 +1,289 @@
+package com.stefanbahnson.movielibrary.model;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The stream of {@code ChangeEvent}s of a library, for the components that
+ * must learn of every change, such as read replicas, caches and search
+ * indexes.<p>
+ *
+ * The latest events are held in a ring buffer of fixed size. The library
+ * writes each batch of events into the ring and then publishes the
+ * sequence of the last one, so no lock is taken on either side. Readers
+ * find an event by its sequence, which also tells them if the event has
+ * been overwritten by a newer one.<p>
+ *
+ * A {@link Subscription} reads every event from a sequence on, in batches.
+ * The library never waits for its subscribers: a subscription that falls
+ * a whole ring behind is dropped, and must read the library again before
+ * it subscribes anew. A subscriber that stops can resume later from the
+ * sequence it got to, as long as the events from there are still in the
+ * ring.<p>
+ *
+ * Sequences start at one with every stream, so a sequence only means
+ * something together with the {@link #getEpoch() epoch} of its stream. A
+ * subscriber that finds another epoch must read the library again.
+ */
+public final class ChangeStream {
+    private static final long PARK_NANOS = 50000;
+    private static final int SPINS = 100;
+
+    private final AtomicReferenceArray<ChangeEvent> ring;
+    private final int mask;
+    private final long epoch;
+
+    /**
+     * The sequence of the last event published.
+     */
+    private volatile long published;
+
+    /**
+     * Creates an empty stream.
+     *
+     * @param capacity the number of events held, rounded up to a power of
+     *                 two
+     */
+    ChangeStream(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.ring = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        // below 2^53, so that it is kept whole as a number in JSON
+        this.epoch = ThreadLocalRandom.current().nextLong() >>> 11;
+    }
+
+    /**
+     * Returns the epoch of the stream, a random number picked when the
+     * stream is made. Two streams, such as those of two runs of the same
+     * library, have different epochs.
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Returns the sequence of the last event, or zero if there are no
+     * events yet.
+     */
+    public long lastSequence() {
+        return published;
+    }
+
+    /**
+     * Returns the sequence of the oldest event still held.
+     */
+    public long firstSequence() {
+        return Math.max(1, published - mask);
+    }
+
+    /**
+     * Returns the events from a sequence on, without subscribing. The
+     * events may be overwritten before they are read, which is then
+     * reported rather than hidden.
+     *
+     * @param from the sequence of the first event
+     * @param limit the largest number of events to return
+     * @return a new List of the events, empty if there are none from that
+     *         sequence yet
+     * @throws IllegalArgumentException if the limit is negative or the
+     *         sequence is past the next event
+     * @throws IllegalStateException if events from that sequence are no
+     *         longer held
+     */
+    public List<ChangeEvent> read(long from, int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must not be negative");
+        }
+        long last = published;
+        if (from < 1 || from > last + 1) {
+            throw new IllegalArgumentException("No event has the sequence " + from);
+        }
+        int count = (int) Math.min(limit, last - from + 1);
+        List<ChangeEvent> events = new ArrayList<>(count);
+        for (long sequence = from; sequence < from + count; sequence++) {
+            events.add(get(sequence));
+        }
+        return events;
+    }
+
+    /**
+     * Returns the events from a sequence on, as by {@link #read(long, int)},
+     * waiting for the first of them if there are none yet.
+     *
+     * @param from the sequence of the first event
+     * @param limit the largest number of events to return
+     * @param timeout the longest time to wait
+     * @param unit the unit of the timeout
+     * @return a new List of the events, empty if none was published in time
+     * @throws IllegalArgumentException if the limit is negative or the
+     *         sequence is past the next event
+     * @throws IllegalStateException if events from that sequence are no
+     *         longer held
+     */
+    public List<ChangeEvent> read(long from, int limit, long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (int tries = 0; ; tries++) {
+            List<ChangeEvent> events = read(from, limit);
+            if (!events.isEmpty() || limit == 0 || System.nanoTime() - deadline >= 0) {
+                return events;
+            }
+            pause(tries);
+        }
+    }
+
+    /**
+     * Subscribes to the events from a sequence on.
+     *
+     * @param from the sequence of the first event to read, which is
+     *             {@code lastSequence() + 1} for only the events to come
+     * @return an open subscription, to be read from a single thread
+     * @throws IllegalArgumentException if the sequence is past the next
+     *         event
+     */
+    public Subscription subscribe(long from) {
+        if (from < 1 || from > published + 1) {
+            throw new IllegalArgumentException("No event has the sequence " + from);
+        }
+        return new Subscription(from);
+    }
+
+    /**
+     * Numbers a batch of events and publishes them at once, overwriting
+     * the oldest events. Must only be called by one thread at a time.
+     *
+     * @param events the events, in the order they happened
+     */
+    void publish(List<ChangeEvent> events) {
+        long last = published;
+        for (int i = 0; i < events.size();) {
+            // a batch larger than the ring is published a ring at a time
+            int count = Math.min(events.size() - i, mask + 1);
+            for (int j = 0; j < count; j++) {
+                ChangeEvent event = events.get(i + j);
+                event.sequence = last + j + 1;
+                ring.lazySet((int) (event.sequence & mask), event);
+            }
+            last += count;
+            published = last;
+            i += count;
+        }
+    }
+
+    /**
+     * Returns the event with a sequence.
+     *
+     * @throws IllegalStateException if the event has been overwritten
+     */
+    private ChangeEvent get(long sequence) {
+        ChangeEvent event = ring.get((int) (sequence & mask));
+        if (event == null || event.sequence != sequence) {
+            throw new IllegalStateException(
+                    "The events from " + sequence + " are no longer held");
+        }
+        return event;
+    }
+
+    private static void pause(int tries) {
+        if (tries < SPINS) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+
+    /**
+     * Reads every event of the stream from a sequence on, in batches. It
+     * is closed as soon as the events it has yet to read are overwritten.
+     */
+    public final class Subscription implements Closeable {
+        /**
+         * The sequence of the next event to read.
+         */
+        private volatile long next;
+        private volatile boolean closed;
+
+        private Subscription(long from) {
+            this.next = from;
+        }
+
+        /**
+         * Returns the sequence of the next event to read, from which a
+         * later subscription can resume.
+         */
+        public long position() {
+            return next;
+        }
+
+        /**
+         * Returns the events published since the last poll, without
+         * waiting for more.
+         *
+         * @param limit the largest number of events to return
+         * @return a new List of the events, which may be empty
+         * @throws IllegalStateException if the subscription is closed, or
+         *         the events it has yet to read are no longer held
+         */
+        public List<ChangeEvent> poll(int limit) {
+            checkOpen();
+            try {
+                List<ChangeEvent> events = read(next, limit);
+                next += events.size();
+                return events;
+            } catch (IllegalStateException e) {
+                closed = true;
+                throw e;
+            }
+        }
+
+        /**
+         * Returns the events published since the last poll, waiting for
+         * the first of them if there are none yet.
+         *
+         * @param limit the largest number of events to return
+         * @param timeout the longest time to wait
+         * @param unit the unit of the timeout
+         * @return a new List of the events, empty if none was published
+         *         in time
+         * @throws IllegalStateException if the subscription is closed, or
+         *         the events it has yet to read are no longer held
+         */
+        public List<ChangeEvent> poll(int limit, long timeout, TimeUnit unit) {
+            checkOpen();
+            try {
+                List<ChangeEvent> events = read(next, limit, timeout, unit);
+                next += events.size();
+                return events;
+            } catch (IllegalStateException e) {
+                closed = true;
+                throw e;
+            }
+        }
+
+        /**
+         * Returns true if the subscription was closed, or dropped because
+         * it fell too far behind.
+         */
+        public boolean isClosed() {
+            return closed;
+        }
+
+        /**
+         * Closes the subscription.
+         */
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        private void checkOpen() {
+            if (closed) {
+                throw new IllegalStateException("The subscription is closed");
+            }
+        }
+    }
+}
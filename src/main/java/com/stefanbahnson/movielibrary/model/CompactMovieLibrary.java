@@ -0,0 +1,1173 @@
+package com.stefanbahnson.movielibrary.model;
+
+import com.stefanbahnson.movielibrary.metrics.LibraryMetrics;
+import com.stefanbahnson.movielibrary.metrics.Operation;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * A {@code MovieLibrary} that holds its movies in a few large arrays rather
+ * than as objects, for libraries of millions of movies.<p>
+ *
+ * Every movie is given an id. The UTF-8 titles of all movies are held back
+ * to back in one byte arena, and the genres of a movie are held in a column
+ * of main genres, a column of genre masks and a column of ratings, indexed
+ * by id. The sort orders
+ * of the library are arrays of ids, and titles are found through an open
+ * addressing hash table of ids. A movie then costs a few dozen bytes and no
+ * objects, so the heap and the pauses of the garbage collector stay small.<p>
+ *
+ * {@code Movie}s are only made when they are handed to a caller, and the
+ * lists returned are views that make them as they are read. Titles are
+ * compared where they lie in the arena, folded a character at a time, so
+ * that finding a title or a place in an order makes no objects either. The
+ * space of a removed title is reclaimed once most of the arena is unused.<p>
+ *
+ * The trade-off is that there are no search indexes: substring and fuzzy
+ * searches read through every title in the arena, into a buffer that is
+ * reused from title to title. Like the other libraries, this library is
+ * not safe to use from many threads without a
+ * {@code ConcurrentMovieLibrary}.
+ */
+public class CompactMovieLibrary extends MovieLibrary {
+    private static final Genre[] GENRES = Genre.values();
+    private static final byte FREE = -1;
+
+    private byte[] arena = new byte[4096];
+    private int arenaSize;
+    private int unusedBytes;
+
+    // the columns, indexed by id
+    private int[] offsets = new int[256];
+    private int[] lengths = new int[256];
+    private int[] hashes = new int[256];
+    private byte[] mainGenres = new byte[256];
+    private byte[] genreMasks = new byte[256];
+    private double[] ratings = new double[256];
+    private int idCount;
+    private int[] freeIds = new int[16];
+    private int freeCount;
+
+    // the ids sorted by title, and by title within each genre
+    private final Ids byTitle = new Ids();
+    private final Ids[] byGenre = new Ids[GENRES.length];
+
+    // the ids of rated movies sorted by rating, and by rating within each genre
+    private final Ids byRating = new Ids();
+    private final Ids[] byGenreRating = new Ids[GENRES.length];
+    private final WeightedSampler sampler = new WeightedSampler();
+
+    // id + 1 of every movie, 0 for an empty slot
+    private int[] table = new int[512];
+
+    private long version;
+    private final QueryCache matchCache =
+            new QueryCache(Integer.getInteger("movielibrary.cacheSize", 256));
+
+    private final List<Movie> allByTitle = new IdView(byTitle);
+    private final List<Movie> allByGenre = new AbstractList<Movie>() {
+        @Override
+        public Movie get(int index) {
+            for (Genre genre : GENRES_BY_NAME) {
+                Ids ids = byGenre[genre.ordinal()];
+                if (index < ids.size) {
+                    return movie(ids.get(index));
+                }
+                index -= ids.size;
+            }
+            throw new IndexOutOfBoundsException();
+        }
+
+        @Override
+        public int size() {
+            int size = 0;
+            for (Ids ids : byGenre) {
+                size += ids.size;
+            }
+            return size;
+        }
+    };
+
+    public CompactMovieLibrary() {
+        for (int g = 0; g < byGenre.length; g++) {
+            byGenre[g] = new Ids();
+            byGenreRating[g] = new Ids();
+        }
+    }
+
+    @Override
+    MovieLibrary copy() {
+        CompactMovieLibrary copy = new CompactMovieLibrary();
+        copy.merge(allByTitle);
+        return copy;
+    }
+
+    @Override
+    void apply(Movie removed, Movie added) {
+        if (removed != null && added != null && removed.getTitle().equals(added.getTitle())) {
+            replace(idOf(removed), removed, added);
+            return;
+        }
+        if (removed != null) {
+            remove(idOf(removed), removed);
+        }
+        if (added != null) {
+            insert(added);
+        }
+    }
+
+    @Override
+    int applyAll(Collection<Movie> movies) {
+        return merge(movies);
+    }
+
+    @Override
+    public boolean findDuplicate(String movieTitle) {
+        long start = LibraryMetrics.start();
+        try {
+            return find(movieTitle) >= 0;
+        } finally {
+            LibraryMetrics.record(Operation.FIND_DUPLICATE, start);
+        }
+    }
+
+    @Override
+    public boolean addMovie(Movie movie) {
+        long start = LibraryMetrics.start();
+        try {
+            if (find(movie.getTitle()) >= 0) {
+                return false;
+            }
+            insert(movie);
+            return true;
+        } finally {
+            LibraryMetrics.record(Operation.ADD_MOVIE, start);
+        }
+    }
+
+    @Override
+    public int addAll(Collection<Movie> movies) {
+        long start = LibraryMetrics.start();
+        try {
+            return merge(movies);
+        } finally {
+            LibraryMetrics.record(Operation.ADD_ALL, start);
+        }
+    }
+
+    /**
+     * Adds several movies at once, as by {@link #addAll(Collection)},
+     * without recording the operation.
+     */
+    private int merge(Collection<Movie> movies) {
+        final Map<Movie, Integer> ids = new IdentityHashMap<>();
+        List<Movie> added = new ArrayList<>(movies.size());
+        for (Movie movie : movies) {
+            if (find(movie.getTitle()) < 0) {
+                ids.put(movie, store(movie));
+                added.add(movie);
+            }
+        }
+        if (added.isEmpty()) {
+            return 0;
+        }
+        version++;
+        Collections.sort(added);
+        merge(byTitle, added, ids, null);
+        for (Genre genre : GENRES) {
+            List<Movie> ofGenre = new ArrayList<>();
+            for (Movie movie : added) {
+                if (movie.hasGenre(genre)) {
+                    ofGenre.add(movie);
+                }
+            }
+            // already in title order
+            merge(byGenre[genre.ordinal()], ofGenre, ids, null);
+        }
+
+        List<Movie> rated = new ArrayList<>();
+        for (Movie movie : added) {
+            if (movie.isRated()) {
+                rated.add(movie);
+            }
+        }
+        Collections.sort(rated, Movie.BY_RATING);
+        merge(byRating, rated, ids, Movie.BY_RATING);
+        for (Movie movie : rated) {
+            sampler.set(ids.get(movie), WeightedSampler.weight(movie.getRating()));
+        }
+        for (Genre genre : GENRES) {
+            List<Movie> ofGenre = new ArrayList<>();
+            for (Movie movie : rated) {
+                if (movie.hasGenre(genre)) {
+                    ofGenre.add(movie);
+                }
+            }
+            merge(byGenreRating[genre.ordinal()], ofGenre, ids, Movie.BY_RATING);
+        }
+        return added.size();
+    }
+
+    @Override
+    public Movie renameMovie(Movie movie, String newTitle) {
+        long start = LibraryMetrics.start();
+        try {
+            int id = idOf(movie);
+            if (id < 0) {
+                return null;
+            }
+            int other = find(newTitle);
+            if (other >= 0 && other != id) {
+                return null;
+            }
+            Movie renamed = movie.withTitle(newTitle);
+            remove(id, movie);
+            insert(renamed);
+            return renamed;
+        } finally {
+            LibraryMetrics.record(Operation.RENAME_MOVIE, start);
+        }
+    }
+
+    @Override
+    public Movie changeGenre(Movie movie, Genre newGenre) {
+        long start = LibraryMetrics.start();
+        try {
+            int id = idOf(movie);
+            if (id < 0) {
+                return null;
+            }
+            Movie changed = movie.withGenre(newGenre);
+            replace(id, movie, changed);
+            return changed;
+        } finally {
+            LibraryMetrics.record(Operation.CHANGE_GENRE, start);
+        }
+    }
+
+    @Override
+    public Movie changeGenres(Movie movie, Genre newGenre, Collection<Genre> otherGenres) {
+        long start = LibraryMetrics.start();
+        try {
+            int id = idOf(movie);
+            if (id < 0) {
+                return null;
+            }
+            Movie changed = movie.withGenres(newGenre, otherGenres);
+            replace(id, movie, changed);
+            return changed;
+        } finally {
+            LibraryMetrics.record(Operation.CHANGE_GENRE, start);
+        }
+    }
+
+    @Override
+    public Movie rateMovie(Movie movie, double rating) {
+        long start = LibraryMetrics.start();
+        try {
+            int id = idOf(movie);
+            if (id < 0) {
+                return null;
+            }
+            Movie changed = movie.withRating(rating);
+            replace(id, movie, changed);
+            return changed;
+        } finally {
+            LibraryMetrics.record(Operation.RATE_MOVIE, start);
+        }
+    }
+
+    @Override
+    public boolean removeMovie(Movie movie) {
+        long start = LibraryMetrics.start();
+        try {
+            int id = idOf(movie);
+            if (id < 0) {
+                return false;
+            }
+            remove(id, movie);
+            return true;
+        } finally {
+            LibraryMetrics.record(Operation.REMOVE_MOVIE, start);
+        }
+    }
+
+    @Override
+    public List<Movie> getByGenre(Genre genre) {
+        long start = LibraryMetrics.start();
+        try {
+            return new IdView(byGenre[genre.ordinal()]);
+        } finally {
+            LibraryMetrics.record(Operation.GET_BY_GENRE, start);
+        }
+    }
+
+    @Override
+    public List<Movie> getByGenres(Set<Genre> required, Set<Genre> excluded) {
+        long start = LibraryMetrics.start();
+        int requiredMask = Genre.mask(required);
+        int excludedMask = Genre.mask(excluded);
+        List<Movie> movies = new ArrayList<>();
+        for (int i = 0; i < byTitle.size; i++) {
+            int mask = genreMasks[byTitle.get(i)];
+            if ((mask & requiredMask) == requiredMask && (mask & excludedMask) == 0) {
+                movies.add(movie(byTitle.get(i)));
+            }
+        }
+        LibraryMetrics.record(Operation.GET_BY_GENRES, start);
+        return movies;
+    }
+
+    @Override
+    public List<Movie> getMovieMatches(String query) {
+        long start = LibraryMetrics.start();
+        String key = normalize(query);
+        List<Movie> movieMatches = matchCache.get(key, version);
+        if (movieMatches != null) {
+            movieMatches = new ArrayList<>(movieMatches);
+        } else {
+            movieMatches = new ArrayList<>();
+            FoldedTitle title = new FoldedTitle();
+            for (int i = 0; i < byTitle.size; i++) {
+                int id = byTitle.get(i);
+                if (title.read(id).contains(key)) {
+                    movieMatches.add(movie(id));
+                }
+            }
+            matchCache.put(key, version, movieMatches);
+        }
+        LibraryMetrics.record(Operation.GET_MOVIE_MATCHES, start);
+        LibraryMetrics.recordHits(movieMatches.size());
+        return movieMatches;
+    }
+
+    @Override
+    public List<Movie> getFuzzyMatches(String query, int maxDistance, int limit) {
+        checkFuzzy(maxDistance, limit);
+        long start = LibraryMetrics.start();
+        Set<String> queryWords = FuzzyTitleIndex.words(normalize(query));
+        final Map<Movie, Integer> scores = new HashMap<>();
+        if (!queryWords.isEmpty()) {
+            FoldedTitle title = new FoldedTitle();
+            for (int i = 0; i < byTitle.size; i++) {
+                int id = byTitle.get(i);
+                int score = FuzzyTitleIndex.score(queryWords, title.read(id), maxDistance);
+                if (score >= 0) {
+                    scores.put(movie(id), score);
+                }
+            }
+        }
+
+        List<Movie> movieMatches = new ArrayList<>(scores.keySet());
+        Collections.sort(movieMatches, new Comparator<Movie>() {
+            @Override
+            public int compare(Movie m1, Movie m2) {
+                int c = Integer.compare(scores.get(m1), scores.get(m2));
+                return c != 0 ? c : m1.compareTo(m2);
+            }
+        });
+        if (movieMatches.size() > limit) {
+            movieMatches = new ArrayList<>(movieMatches.subList(0, limit));
+        }
+        LibraryMetrics.record(Operation.GET_FUZZY_MATCHES, start);
+        LibraryMetrics.recordHits(movieMatches.size());
+        return movieMatches;
+    }
+
+    @Override
+    public List<Movie> suggest(String prefix, int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must not be negative");
+        }
+        long start = LibraryMetrics.start();
+        String key = normalize(prefix);
+        // the first title with a key not below the prefix
+        int low = 0;
+        int high = byTitle.size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareKey(byTitle.get(mid), key, false) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        List<Movie> suggestions = new ArrayList<>(Math.min(limit, 64));
+        for (int i = low; i < byTitle.size && suggestions.size() < limit; i++) {
+            int id = byTitle.get(i);
+            if (compareKey(id, key, true) != 0) {
+                break;
+            }
+            suggestions.add(movie(id));
+        }
+        LibraryMetrics.record(Operation.SUGGEST, start);
+        return suggestions;
+    }
+
+    @Override
+    public List<Movie> getByRating(double minRating, double maxRating) {
+        if (Double.isNaN(minRating) || Double.isNaN(maxRating)) {
+            throw new IllegalArgumentException("ratings must be numbers");
+        }
+        long start = LibraryMetrics.start();
+        List<Movie> movies = new ArrayList<>();
+        if (maxRating >= 0 && minRating <= maxRating) {
+            // the first movie rated maxRating, as no title is below the empty title
+            Movie from = new Movie("", Genre.ACTION, 0,
+                                   Math.min(maxRating, Movie.MAX_RATING));
+            for (int i = search(byRating, from, Movie.BY_RATING); i < byRating.size; i++) {
+                int id = byRating.get(i);
+                if (ratings[id] < minRating) {
+                    break;
+                }
+                movies.add(movie(id));
+            }
+        }
+        LibraryMetrics.record(Operation.GET_BY_RATING, start);
+        LibraryMetrics.recordHits(movies.size());
+        return movies;
+    }
+
+    @Override
+    public List<Movie> getTopRated(Genre genre, int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must not be negative");
+        }
+        long start = LibraryMetrics.start();
+        Ids ids = genre == null ? byRating : byGenreRating[genre.ordinal()];
+        List<Movie> movies = new ArrayList<>(
+                new IdView(ids).subList(0, Math.min(limit, ids.size)));
+        LibraryMetrics.record(Operation.GET_TOP_RATED, start);
+        return movies;
+    }
+
+    @Override
+    public Movie randomMovie() {
+        long start = LibraryMetrics.start();
+        try {
+            return random(allByTitle);
+        } finally {
+            LibraryMetrics.record(Operation.RANDOM_MOVIE, start);
+        }
+    }
+
+    @Override
+    public Movie randomMovie(Genre genre) {
+        long start = LibraryMetrics.start();
+        try {
+            return random(new IdView(byGenre[genre.ordinal()]));
+        } finally {
+            LibraryMetrics.record(Operation.RANDOM_MOVIE, start);
+        }
+    }
+
+    @Override
+    public Movie randomRatedMovie() {
+        long start = LibraryMetrics.start();
+        try {
+            int id = sampler.pick();
+            return id < 0 ? null : movie(id);
+        } finally {
+            LibraryMetrics.record(Operation.RANDOM_MOVIE, start);
+        }
+    }
+
+    @Override
+    public Movie getUniqueMovie(String movieTitle) {
+        long start = LibraryMetrics.start();
+        try {
+            int id = find(movieTitle);
+            return id < 0 ? null : movie(id);
+        } finally {
+            LibraryMetrics.record(Operation.GET_UNIQUE_MOVIE, start);
+        }
+    }
+
+    @Override
+    public int size() {
+        return byTitle.size;
+    }
+
+    @Override
+    public List<Movie> getAllByTitle() {
+        long start = LibraryMetrics.start();
+        try {
+            return allByTitle;
+        } finally {
+            LibraryMetrics.record(Operation.GET_ALL_BY_TITLE, start);
+        }
+    }
+
+    @Override
+    public List<Movie> getAllByGenre() {
+        long start = LibraryMetrics.start();
+        try {
+            return allByGenre;
+        } finally {
+            LibraryMetrics.record(Operation.GET_ALL_BY_GENRE, start);
+        }
+    }
+
+    @Override
+    public List<Movie> getAllByTitle(int offset, int limit) {
+        long start = LibraryMetrics.start();
+        try {
+            return range(allByTitle, offset, limit);
+        } finally {
+            LibraryMetrics.record(Operation.GET_ALL_BY_TITLE, start);
+        }
+    }
+
+    @Override
+    public List<Movie> getByGenre(Genre genre, int offset, int limit) {
+        long start = LibraryMetrics.start();
+        try {
+            return range(new IdView(byGenre[genre.ordinal()]), offset, limit);
+        } finally {
+            LibraryMetrics.record(Operation.GET_BY_GENRE, start);
+        }
+    }
+
+    @Override
+    public Page getPageByTitle(String cursor, int limit) {
+        long start = LibraryMetrics.start();
+        try {
+            return page(byTitle, null, cursor, limit);
+        } finally {
+            LibraryMetrics.record(Operation.GET_PAGE, start);
+        }
+    }
+
+    @Override
+    public Page getPageByGenre(Genre genre, String cursor, int limit) {
+        long start = LibraryMetrics.start();
+        try {
+            return page(byGenre[genre.ordinal()], null, cursor, limit);
+        } finally {
+            LibraryMetrics.record(Operation.GET_PAGE, start);
+        }
+    }
+
+    @Override
+    public Page getMatchPage(String query, String cursor, int limit) {
+        long start = LibraryMetrics.start();
+        try {
+            return page(byTitle, query, cursor, limit);
+        } finally {
+            LibraryMetrics.record(Operation.GET_PAGE, start);
+        }
+    }
+
+    @Override
+    public Stream<Movie> streamMovieMatches(String query) {
+        String key = normalize(query);
+        FoldedTitle title = new FoldedTitle();
+        return IntStream.range(0, byTitle.size)
+                        .map(byTitle::get)
+                        .filter(id -> title.read(id).contains(key))
+                        .mapToObj(this::movie);
+    }
+
+    @Override
+    public Map<String, Integer> getIndexSizes() {
+        Map<String, Integer> sizes = new LinkedHashMap<>();
+        sizes.put("titles", byTitle.size);
+        sizes.put("arena bytes", arenaSize);
+        sizes.put("unused bytes", unusedBytes);
+        sizes.put("ratings", byRating.size);
+        for (Genre genre : GENRES_BY_NAME) {
+            sizes.put(genre.name().toLowerCase(), byGenre[genre.ordinal()].size);
+        }
+        return sizes;
+    }
+
+    @Override
+    public Map<String, Long> getCacheStats() {
+        return matchCache.stats();
+    }
+
+    /**
+     * Returns the title of a movie, decoded from the arena.
+     */
+    private String title(int id) {
+        return new String(arena, offsets[id], lengths[id], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Makes the movie with an id.
+     */
+    private Movie movie(int id) {
+        return new Movie(title(id), GENRES[mainGenres[id]], genreMasks[id], ratings[id]);
+    }
+
+    /**
+     * Returns the id of a movie in the library, that is a movie with the
+     * same title, genres and rating as the one provided.
+     *
+     * @return the id, or -1 if the library does not contain the movie
+     */
+    private int idOf(Movie movie) {
+        int id = find(movie.getTitle());
+        if (id < 0
+                || mainGenres[id] != movie.getGenre().ordinal()
+                || genreMasks[id] != movie.getGenreMask()
+                || Double.compare(ratings[id], movie.getRating()) != 0
+                || compareTitle(id, movie.getTitle()) != 0) {
+            return -1;
+        }
+        return id;
+    }
+
+    /**
+     * Returns the id of the movie with a title, which is not case-sensitive.
+     *
+     * @return the id, or -1 if there is no movie with the title
+     */
+    private int find(String movieTitle) {
+        if (movieTitle == null) {
+            return -1;
+        }
+        String key = normalize(movieTitle);
+        int hash = key.hashCode();
+        for (int slot = slot(hash); table[slot] != 0; slot = (slot + 1) & (table.length - 1)) {
+            int id = table[slot] - 1;
+            if (hashes[id] == hash && compareKey(id, key, false) == 0) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Adds a movie with a title not yet in the library to the library and
+     * all of its orders.
+     */
+    private void insert(Movie movie) {
+        version++;
+        int id = store(movie);
+        byTitle.add(search(byTitle, movie, null), id);
+        for (Genre genre : GENRES) {
+            if (movie.hasGenre(genre)) {
+                Ids ids = byGenre[genre.ordinal()];
+                ids.add(search(ids, movie, null), id);
+            }
+        }
+        rank(id, movie);
+    }
+
+    /**
+     * Removes a movie in the library from the library and all of its
+     * orders, and frees its id.
+     */
+    private void remove(int id, Movie movie) {
+        version++;
+        byTitle.remove(search(byTitle, movie, null));
+        for (Genre genre : GENRES) {
+            if (movie.hasGenre(genre)) {
+                Ids ids = byGenre[genre.ordinal()];
+                ids.remove(search(ids, movie, null));
+            }
+        }
+        unrank(id, movie);
+        unlink(id);
+        mainGenres[id] = FREE;
+        unusedBytes += lengths[id];
+        if (freeCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+        }
+        freeIds[freeCount++] = id;
+        if (unusedBytes > 64 * 1024 && unusedBytes > arenaSize / 2) {
+            compactArena();
+        }
+    }
+
+    /**
+     * Gives a movie in the library other genres or another rating, in the
+     * columns and the orders of the genres and ratings.
+     */
+    private void replace(int id, Movie movie, Movie changed) {
+        version++;
+        // the rating orders are searched by the movie the columns still hold
+        unrank(id, movie);
+        for (Genre genre : GENRES) {
+            Ids ids = byGenre[genre.ordinal()];
+            if (movie.hasGenre(genre)) {
+                ids.remove(search(ids, movie, null));
+            }
+            if (changed.hasGenre(genre)) {
+                ids.add(search(ids, changed, null), id);
+            }
+        }
+        mainGenres[id] = (byte) changed.getGenre().ordinal();
+        genreMasks[id] = (byte) changed.getGenreMask();
+        ratings[id] = changed.getRating();
+        rank(id, changed);
+    }
+
+    /**
+     * Adds a movie to the rating orders and weighs its id by its rating,
+     * if it has been rated.
+     */
+    private void rank(int id, Movie movie) {
+        if (!movie.isRated()) {
+            return;
+        }
+        sampler.set(id, WeightedSampler.weight(movie.getRating()));
+        byRating.add(search(byRating, movie, Movie.BY_RATING), id);
+        for (Genre genre : GENRES) {
+            if (movie.hasGenre(genre)) {
+                Ids ids = byGenreRating[genre.ordinal()];
+                ids.add(search(ids, movie, Movie.BY_RATING), id);
+            }
+        }
+    }
+
+    /**
+     * Removes a movie from the rating orders and clears the weight of its
+     * id.
+     */
+    private void unrank(int id, Movie movie) {
+        if (!movie.isRated()) {
+            return;
+        }
+        sampler.set(id, 0);
+        byRating.remove(search(byRating, movie, Movie.BY_RATING));
+        for (Genre genre : GENRES) {
+            if (movie.hasGenre(genre)) {
+                Ids ids = byGenreRating[genre.ordinal()];
+                ids.remove(search(ids, movie, Movie.BY_RATING));
+            }
+        }
+    }
+
+    /**
+     * Writes a movie into the arena and the columns under a new id, and
+     * files it in the hash table. The orders are left to the caller.
+     *
+     * @return the id of the movie
+     */
+    private int store(Movie movie) {
+        if ((idCount - freeCount + 1) * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+        byte[] title = movie.getTitle().getBytes(StandardCharsets.UTF_8);
+        if (arenaSize + title.length > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(arenaSize + title.length,
+                                                  arena.length * 2));
+        }
+        System.arraycopy(title, 0, arena, arenaSize, title.length);
+
+        int id;
+        if (freeCount > 0) {
+            id = freeIds[--freeCount];
+        } else {
+            id = idCount++;
+            if (id == offsets.length) {
+                int capacity = offsets.length * 2;
+                offsets = Arrays.copyOf(offsets, capacity);
+                lengths = Arrays.copyOf(lengths, capacity);
+                hashes = Arrays.copyOf(hashes, capacity);
+                mainGenres = Arrays.copyOf(mainGenres, capacity);
+                genreMasks = Arrays.copyOf(genreMasks, capacity);
+                ratings = Arrays.copyOf(ratings, capacity);
+            }
+        }
+        offsets[id] = arenaSize;
+        lengths[id] = title.length;
+        hashes[id] = normalize(movie.getTitle()).hashCode();
+        mainGenres[id] = (byte) movie.getGenre().ordinal();
+        genreMasks[id] = (byte) movie.getGenreMask();
+        ratings[id] = movie.getRating();
+        arenaSize += title.length;
+        link(id);
+        return id;
+    }
+
+    /**
+     * Files an id in the hash table.
+     */
+    private void link(int id) {
+        int slot = slot(hashes[id]);
+        while (table[slot] != 0) {
+            slot = (slot + 1) & (table.length - 1);
+        }
+        table[slot] = id + 1;
+    }
+
+    /**
+     * Removes an id from the hash table, moving back the ids after it that
+     * would otherwise no longer be found.
+     */
+    private void unlink(int id) {
+        int mask = table.length - 1;
+        int slot = slot(hashes[id]);
+        while (table[slot] != id + 1) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = 0;
+        for (int next = (slot + 1) & mask; table[next] != 0; next = (next + 1) & mask) {
+            int home = slot(hashes[table[next] - 1]);
+            // move the id back if its home is not between the hole and itself
+            if (((next - home) & mask) >= ((next - slot) & mask)) {
+                table[slot] = table[next];
+                table[next] = 0;
+                slot = next;
+            }
+        }
+    }
+
+    private void rehash(int capacity) {
+        table = new int[capacity];
+        for (int id = 0; id < idCount; id++) {
+            if (mainGenres[id] != FREE) {
+                link(id);
+            }
+        }
+    }
+
+    private int slot(int hash) {
+        return (hash ^ (hash >>> 16)) & (table.length - 1);
+    }
+
+    /**
+     * Copies the titles of the movies in the library into a new arena,
+     * leaving out the titles of removed movies.
+     */
+    private void compactArena() {
+        byte[] compacted = new byte[Math.max(4096, (arenaSize - unusedBytes) * 2)];
+        int size = 0;
+        for (int i = 0; i < byTitle.size; i++) {
+            int id = byTitle.get(i);
+            System.arraycopy(arena, offsets[id], compacted, size, lengths[id]);
+            offsets[id] = size;
+            size += lengths[id];
+        }
+        arena = compacted;
+        arenaSize = size;
+        unusedBytes = 0;
+    }
+
+    /**
+     * Finds a movie in an order of ids by binary search.
+     *
+     * @param ids ids sorted by the comparator
+     * @param movie the movie to find
+     * @param order the order of the ids, {@code null} for natural order or
+     *              {@link Movie#BY_RATING}
+     * @return the index of the movie, or the index it would be inserted at
+     */
+    private int search(Ids ids, Movie movie, Comparator<Movie> order) {
+        int index = indexOf(ids, movie, order);
+        return index < 0 ? -(index + 1) : index;
+    }
+
+    /**
+     * Finds a movie in an order of ids by binary search, as
+     * {@code Collections.binarySearch} does.
+     *
+     * @return the index of the movie, or -(the index it would be inserted
+     *         at) - 1
+     */
+    private int indexOf(Ids ids, Movie movie, Comparator<Movie> order) {
+        int low = 0;
+        int high = ids.size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int c = compare(ids.get(mid), movie, order);
+            if (c < 0) {
+                low = mid + 1;
+            } else if (c > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Returns a page of an order of ids, starting after the movie the
+     * cursor was made from, as {@link MovieLibrary#page} does for a list.
+     */
+    private Page page(Ids ids, String query, String cursor, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        int from = 0;
+        if (cursor != null) {
+            int index = indexOf(ids, new Movie(Page.titleOf(cursor), Genre.ACTION), null);
+            from = index < 0 ? -(index + 1) : index + 1;
+        }
+
+        String key = normalize(query);
+        FoldedTitle title = new FoldedTitle();
+        List<Movie> movies = new ArrayList<>(Math.min(limit, 1024));
+        int i = from;
+        for (; i < ids.size && movies.size() < limit; i++) {
+            int id = ids.get(i);
+            if (key == null || title.read(id).contains(key)) {
+                movies.add(movie(id));
+            }
+        }
+        boolean more = i < ids.size && !movies.isEmpty();
+        return new Page(movies, more ? Page.cursorAfter(movies.get(movies.size() - 1)) : null);
+    }
+
+    /**
+     * Merges sorted movies into an order of ids in a single pass, back to
+     * front, so that the order stays sorted.
+     *
+     * @param sorted ids sorted by the comparator
+     * @param added movies sorted by the comparator
+     * @param ids the ids of the added movies
+     * @param order the order of both, {@code null} for natural order
+     */
+    private void merge(Ids sorted, List<Movie> added, Map<Movie, Integer> ids,
+                       Comparator<Movie> order) {
+        int i = sorted.size - 1;
+        int j = added.size() - 1;
+        sorted.ensureCapacity(sorted.size + added.size());
+        sorted.size += added.size();
+        for (int k = sorted.size - 1; j >= 0; k--) {
+            if (i >= 0 && compare(sorted.get(i), added.get(j), order) > 0) {
+                sorted.ids[k] = sorted.ids[i--];
+            } else {
+                sorted.ids[k] = ids.get(added.get(j--));
+            }
+        }
+    }
+
+    /**
+     * Compares the movie with an id to another movie, as the comparator
+     * would compare the movies, without making the movie.
+     *
+     * @param order {@code null} for natural order or {@link Movie#BY_RATING}
+     */
+    private int compare(int id, Movie movie, Comparator<Movie> order) {
+        if (order != null) {
+            // as Movie.BY_RATING, where unrated movies come last
+            int c = Double.compare(ratings[id], movie.getRating());
+            if (c != 0) {
+                return !Double.isNaN(ratings[id]) && movie.isRated() ? -c : c;
+            }
+        }
+        int c = compareKey(id, movie.getKey(), false);
+        return c != 0 ? c : compareTitle(id, movie.getTitle());
+    }
+
+    /**
+     * Compares the folded title of a movie, read from the arena, to a key,
+     * as {@code String.compareTo} compares the keys of two movies.
+     *
+     * @param prefix whether a title that starts with the key compares equal
+     */
+    private int compareKey(int id, String key, boolean prefix) {
+        return compare(id, key, true, prefix);
+    }
+
+    /**
+     * Compares the title of a movie, read from the arena, to a title, as
+     * {@code String.compareTo} does.
+     */
+    private int compareTitle(int id, String title) {
+        return compare(id, title, false, false);
+    }
+
+    private int compare(int id, String text, boolean folded, boolean prefix) {
+        int i = 0;
+        int end = offsets[id] + lengths[id];
+        for (int at = offsets[id]; at < end; at += width(arena[at])) {
+            int codePoint = codePointAt(arena, at);
+            char c = (char) codePoint;
+            if (codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                // a pair of surrogates, which folding leaves as they are
+                if (i == text.length()) {
+                    return prefix ? 0 : 1;
+                }
+                int d = Character.highSurrogate(codePoint) - text.charAt(i++);
+                if (d != 0) {
+                    return d;
+                }
+                c = Character.lowSurrogate(codePoint);
+            } else if (folded) {
+                c = Movie.fold(c);
+            }
+            if (i == text.length()) {
+                return prefix ? 0 : 1;
+            }
+            int d = c - text.charAt(i++);
+            if (d != 0) {
+                return d;
+            }
+        }
+        return i - text.length();
+    }
+
+    /**
+     * Returns the number of bytes of the UTF-8 character that starts with a
+     * byte.
+     */
+    private static int width(byte first) {
+        int b = first & 0xFF;
+        return b < 0x80 ? 1 : b < 0xE0 ? 2 : b < 0xF0 ? 3 : 4;
+    }
+
+    /**
+     * Decodes the UTF-8 character that starts at an index of a byte array.
+     */
+    private static int codePointAt(byte[] bytes, int index) {
+        int b = bytes[index] & 0xFF;
+        if (b < 0x80) {
+            return b;
+        } else if (b < 0xE0) {
+            return (b & 0x1F) << 6 | bytes[index + 1] & 0x3F;
+        } else if (b < 0xF0) {
+            return (b & 0x0F) << 12 | (bytes[index + 1] & 0x3F) << 6
+                    | bytes[index + 2] & 0x3F;
+        }
+        return (b & 0x07) << 18 | (bytes[index + 1] & 0x3F) << 12
+                | (bytes[index + 2] & 0x3F) << 6 | bytes[index + 3] & 0x3F;
+    }
+
+    /**
+     * A title read from the arena and folded to one case, into a buffer
+     * that is reused for the next title, so that a scan of the titles makes
+     * no strings.
+     */
+    private final class FoldedTitle implements CharSequence {
+        private char[] chars = new char[64];
+        private int length;
+
+        /**
+         * Reads the title of a movie in place of the last one.
+         *
+         * @return this title
+         */
+        FoldedTitle read(int id) {
+            // a title has no more chars than bytes
+            if (lengths[id] > chars.length) {
+                chars = new char[Math.max(lengths[id], chars.length * 2)];
+            }
+            length = 0;
+            int end = offsets[id] + lengths[id];
+            for (int at = offsets[id]; at < end; at += width(arena[at])) {
+                int codePoint = codePointAt(arena, at);
+                if (codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                    chars[length++] = Character.highSurrogate(codePoint);
+                    chars[length++] = Character.lowSurrogate(codePoint);
+                } else {
+                    chars[length++] = Movie.fold((char) codePoint);
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Checks if the title contains a key, which is the same as its
+         * unfolded title containing the query of the key without regard to
+         * case.
+         */
+        boolean contains(String key) {
+            int last = length - key.length();
+            candidates:
+            for (int i = 0; i <= last; i++) {
+                for (int j = 0; j < key.length(); j++) {
+                    if (chars[i + j] != key.charAt(j)) {
+                        continue candidates;
+                    }
+                }
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return chars[index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(chars, start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(chars, 0, length);
+        }
+    }
+
+    /**
+     * A growable array of movie ids.
+     */
+    private static final class Ids {
+        int[] ids = new int[16];
+        int size;
+
+        int get(int index) {
+            return ids[index];
+        }
+
+        void add(int index, int id) {
+            ensureCapacity(size + 1);
+            System.arraycopy(ids, index, ids, index + 1, size - index);
+            ids[index] = id;
+            size++;
+        }
+
+        void remove(int index) {
+            System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+            size--;
+        }
+
+        void ensureCapacity(int capacity) {
+            if (capacity > ids.length) {
+                ids = Arrays.copyOf(ids, Math.max(capacity, ids.length * 2));
+            }
+        }
+    }
+
+    /**
+     * An unmodifiable view of an order of ids, which makes the movies as
+     * they are read.
+     */
+    private final class IdView extends AbstractList<Movie> implements RandomAccess {
+        private final Ids ids;
+
+        IdView(Ids ids) {
+            this.ids = ids;
+        }
+
+        @Override
+        public Movie get(int index) {
+            if (index < 0 || index >= ids.size) {
+                throw new IndexOutOfBoundsException("Index: " + index);
+            }
+            return movie(ids.get(index));
+        }
+
+        @Override
+        public int size() {
+            return ids.size;
+        }
+    }
+}
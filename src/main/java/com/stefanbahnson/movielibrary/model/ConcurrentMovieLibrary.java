@@ -0,0 +1,580 @@
+package com.stefanbahnson.movielibrary.model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * A {@code MovieLibrary} that can be shared by many threads.<p>
+ *
+ * Readers never lock. The library is held twice, by a master library and a
+ * replica of it, and readers read whichever of the two is not being
+ * changed, so a reader always sees a consistent library even while it is
+ * being changed.<p>
+ *
+ * Writers take turns on a lock. Each change is made to the master library
+ * while readers read the replica. Readers are then sent to the master
+ * library, and once the last reader of the replica is done, the same
+ * change is made to the replica, which takes the readers back. A change
+ * therefore costs twice what it costs a single library, however large the
+ * library is, rather than a copy of the library. Readers only count
+ * themselves in and out, in a counter picked by their thread, which is how
+ * a writer knows when the readers of a library are done. The price is
+ * that a writer waits for the slowest reader of the replica, where a
+ * library that published a new version for every change would let old
+ * readers finish on the old version, at the cost of copying it.<p>
+ *
+ * Since both libraries change, the listings of the whole library or of a
+ * genre are copies rather than views of it, which take time and memory in
+ * proportion to the listing on every call. Parts of a listing are copies
+ * of just that part. Callers that read large listings often should read
+ * them by the page or stream them instead. The streams read the library
+ * a page at a time instead, each page as one read, so a stream holds no
+ * more than a page, and like the pages themselves it sees the changes
+ * made past the point it has read to.<p>
+ *
+ * Every change is also published as a {@code ChangeEvent} on the
+ * {@link #getChangeStream() change stream} of the library, once both
+ * libraries hold it. The number of events held is given by the system
+ * property {@code movielibrary.changeCapacity}.<p>
+ *
+ * A library made by {@link #warmUp(List, Callable)} answers queries as soon
+ * as its movies are read, by scanning them, while the master library is
+ * opened and the replica is indexed on background threads. The indexed
+ * replica then takes the place of the scanned movies at once. The master
+ * library builds its search indexes on the first change instead, before
+ * readers are first sent to it, so a warm-up builds them only once. That
+ * change takes as long as the indexing, while readers keep reading the
+ * replica, and a library that is never changed never builds them.
+ */
+public class ConcurrentMovieLibrary extends MovieLibrary implements Closeable {
+    /**
+     * The number of movies a stream reads at a time.
+     */
+    private static final int STREAM_PAGE_SIZE = 256;
+
+    private final Lock writeLock = new ReentrantLock();
+    private final CompletableFuture<MovieLibrary> warming;
+    private final Map<String, Long> warmUpTimes =
+            Collections.synchronizedMap(new LinkedHashMap<String, Long>());
+    private MovieLibrary master; // null until warm, guarded by writeLock
+    private MovieLibrary replica; // null until warm, guarded by writeLock
+    private boolean masterIndexed; // guarded by writeLock
+    private volatile MovieLibrary snapshot; // the library readers read
+    private final ReadIndicator[] readers = {new ReadIndicator(), new ReadIndicator()};
+    private volatile int readerIndex;
+    private final ChangeStream changes =
+            new ChangeStream(Integer.getInteger("movielibrary.changeCapacity", 65536));
+
+    /**
+     * Creates an empty library.
+     */
+    public ConcurrentMovieLibrary() {
+        this(new IndexedMovieLibrary());
+    }
+
+    /**
+     * Creates a library that makes its changes to the provided library,
+     * which must not be changed by anyone else from then on.
+     *
+     * @param master the library that holds the movies
+     */
+    public ConcurrentMovieLibrary(MovieLibrary master) {
+        this.master = master;
+        this.replica = master.copy();
+        this.snapshot = replica;
+        // a search must never wait for an index, as readers may be sent to either
+        master.buildIndexes();
+        replica.buildIndexes();
+        this.masterIndexed = true;
+        this.warming = CompletableFuture.completedFuture(master);
+    }
+
+    private ConcurrentMovieLibrary(List<Movie> movies,
+                                   final Callable<? extends MovieLibrary> master) {
+        final long start = System.nanoTime();
+        final ScanMovieLibrary scanned = new ScanMovieLibrary(movies);
+        this.snapshot = scanned;
+
+        // the master and the replica are built side by side
+        CompletableFuture<MovieLibrary> opened = CompletableFuture.supplyAsync(() -> {
+            long begin = System.nanoTime();
+            try {
+                return master.call();
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            } finally {
+                warmUpTimes.put("open", millisSince(begin));
+            }
+        });
+        CompletableFuture<MovieLibrary> indexed = CompletableFuture.supplyAsync(() -> {
+            long begin = System.nanoTime();
+            MovieLibrary copy = scanned.copy();
+            copy.buildIndexes();
+            warmUpTimes.put("index", millisSince(begin));
+            return copy;
+        });
+        this.warming = opened.thenCombine(indexed, (opener, copy) -> {
+            // no change is made before the warm-up is done, and the writer
+            // only sees the replica once it has joined the warm-up
+            replica = copy;
+            switchTo(copy);
+            warmUpTimes.put("warm", millisSince(start));
+            return opener;
+        });
+    }
+
+    /**
+     * Creates a library that answers queries at once from movies that are
+     * not yet indexed, while the master library is opened and the movies
+     * are indexed on background threads. Queries are answered by scanning
+     * the movies until the indexed replica takes their place, and changes
+     * wait for the master library. The search indexes of the master library
+     * are built by the first change.
+     *
+     * @param movies the movies of the master library as it will be opened,
+     *               sorted by title, which must not be changed from then on
+     * @param master opens the master library, which must not be changed
+     *               by anyone else from then on
+     * @return the library, warming up
+     */
+    public static ConcurrentMovieLibrary warmUp(List<Movie> movies,
+                                                Callable<? extends MovieLibrary> master) {
+        return new ConcurrentMovieLibrary(movies, master);
+    }
+
+    /**
+     * Returns a stage that completes once the library is warm, with the
+     * time taken by each phase of the warm-up in milliseconds: opening the
+     * master library, indexing the movies and the whole warm-up. A library
+     * that did not warm up completes at once, with no phases.
+     *
+     * @return the stage of the warm-up, which completes exceptionally if
+     *         the master library could not be opened
+     */
+    public CompletionStage<Map<String, Long>> whenWarm() {
+        return warming.thenApply(opened -> {
+            synchronized (warmUpTimes) {
+                return Collections.unmodifiableMap(new LinkedHashMap<>(warmUpTimes));
+            }
+        });
+    }
+
+    @Override
+    public boolean findDuplicate(String movieTitle) {
+        return read(library -> library.findDuplicate(movieTitle));
+    }
+
+    @Override
+    public boolean addMovie(Movie movie) {
+        writeLock.lock();
+        try {
+            boolean added = master().addMovie(movie);
+            if (added) {
+                mirror(null, movie);
+                announce(ChangeEvent.Type.ADD, null, movie);
+            }
+            return added;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public int addAll(Collection<Movie> movies) {
+        writeLock.lock();
+        try {
+            // the movies that will be added, the first of each new title
+            List<ChangeEvent> events = new ArrayList<>();
+            Set<String> keys = new HashSet<>();
+            for (Movie movie : movies) {
+                if (keys.add(movie.getKey()) && !master().findDuplicate(movie.getTitle())) {
+                    events.add(new ChangeEvent(ChangeEvent.Type.ADD, null, movie));
+                }
+            }
+            int added = master().addAll(movies);
+            if (added > 0) {
+                switchToMaster();
+                replica.applyAll(movies);
+                switchTo(replica);
+                changes.publish(events);
+            }
+            return added;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public Movie renameMovie(Movie movie, String newTitle) {
+        writeLock.lock();
+        try {
+            Movie renamed = master().renameMovie(movie, newTitle);
+            if (renamed != null) {
+                mirror(movie, renamed);
+                announce(ChangeEvent.Type.RENAME, movie, renamed);
+            }
+            return renamed;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public Movie changeGenre(Movie movie, Genre newGenre) {
+        writeLock.lock();
+        try {
+            Movie changed = master().changeGenre(movie, newGenre);
+            if (changed != null) {
+                mirror(movie, changed);
+                announce(ChangeEvent.Type.CHANGE_GENRE, movie, changed);
+            }
+            return changed;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public Movie changeGenres(Movie movie, Genre newGenre, Collection<Genre> otherGenres) {
+        writeLock.lock();
+        try {
+            Movie changed = master().changeGenres(movie, newGenre, otherGenres);
+            if (changed != null) {
+                mirror(movie, changed);
+                announce(ChangeEvent.Type.CHANGE_GENRE, movie, changed);
+            }
+            return changed;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public Movie rateMovie(Movie movie, double rating) {
+        writeLock.lock();
+        try {
+            Movie rated = master().rateMovie(movie, rating);
+            if (rated != null) {
+                mirror(movie, rated);
+                announce(ChangeEvent.Type.RATE, movie, rated);
+            }
+            return rated;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean removeMovie(Movie movie) {
+        writeLock.lock();
+        try {
+            boolean removed = master().removeMovie(movie);
+            if (removed) {
+                mirror(movie, null);
+                announce(ChangeEvent.Type.REMOVE, movie, null);
+            }
+            return removed;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Returns a copy of the movies of a genre, which takes time in
+     * proportion to their number. Prefer {@link #getPageByGenre} or
+     * {@link #streamByGenre} for a large genre.
+     */
+    @Override
+    public List<Movie> getByGenre(Genre genre) {
+        return read(library -> copyOf(library.getByGenre(genre)));
+    }
+
+    @Override
+    public List<Movie> getByGenres(Set<Genre> required, Set<Genre> excluded) {
+        return read(library -> library.getByGenres(required, excluded));
+    }
+
+    @Override
+    public List<Movie> getMovieMatches(String query) {
+        return read(library -> library.getMovieMatches(query));
+    }
+
+    @Override
+    public Movie getUniqueMovie(String movieTitle) {
+        return read(library -> library.getUniqueMovie(movieTitle));
+    }
+
+    @Override
+    public int size() {
+        return read(MovieLibrary::size);
+    }
+
+    /**
+     * Returns a copy of the whole library, which takes time in proportion
+     * to its size. Prefer {@link #getPageByTitle} or {@link #streamByTitle}
+     * for a large library.
+     */
+    @Override
+    public List<Movie> getAllByTitle() {
+        return read(library -> copyOf(library.getAllByTitle()));
+    }
+
+    /**
+     * Returns a copy of the whole library under every genre, which takes
+     * time in proportion to its size.
+     */
+    @Override
+    public List<Movie> getAllByGenre() {
+        return read(library -> copyOf(library.getAllByGenre()));
+    }
+
+    /**
+     * Returns a copy of part of the library, which takes time in
+     * proportion to the part rather than the library.
+     */
+    @Override
+    public List<Movie> getAllByTitle(int offset, int limit) {
+        return read(library -> copyOf(library.getAllByTitle(offset, limit)));
+    }
+
+    @Override
+    public List<Movie> getByGenre(Genre genre, int offset, int limit) {
+        return read(library -> copyOf(library.getByGenre(genre, offset, limit)));
+    }
+
+    @Override
+    public Page getPageByTitle(String cursor, int limit) {
+        return read(library -> library.getPageByTitle(cursor, limit));
+    }
+
+    @Override
+    public Page getPageByGenre(Genre genre, String cursor, int limit) {
+        return read(library -> library.getPageByGenre(genre, cursor, limit));
+    }
+
+    @Override
+    public Page getMatchPage(String query, String cursor, int limit) {
+        return read(library -> library.getMatchPage(query, cursor, limit));
+    }
+
+    @Override
+    public Stream<Movie> streamByTitle() {
+        return stream(cursor -> getPageByTitle(cursor, STREAM_PAGE_SIZE));
+    }
+
+    @Override
+    public Stream<Movie> streamByGenre(Genre genre) {
+        return stream(cursor -> getPageByGenre(genre, cursor, STREAM_PAGE_SIZE));
+    }
+
+    @Override
+    public List<Movie> getFuzzyMatches(String query, int maxDistance, int limit) {
+        return read(library -> library.getFuzzyMatches(query, maxDistance, limit));
+    }
+
+    @Override
+    public List<Movie> suggest(String prefix, int limit) {
+        return read(library -> library.suggest(prefix, limit));
+    }
+
+    @Override
+    public List<Movie> getByRating(double minRating, double maxRating) {
+        return read(library -> library.getByRating(minRating, maxRating));
+    }
+
+    @Override
+    public List<Movie> getTopRated(Genre genre, int limit) {
+        return read(library -> library.getTopRated(genre, limit));
+    }
+
+    @Override
+    public Movie randomMovie() {
+        return read(MovieLibrary::randomMovie);
+    }
+
+    @Override
+    public Movie randomMovie(Genre genre) {
+        return read(library -> library.randomMovie(genre));
+    }
+
+    @Override
+    public Movie randomRatedMovie() {
+        return read(MovieLibrary::randomRatedMovie);
+    }
+
+    @Override
+    public Stream<Movie> streamMovieMatches(String query) {
+        return stream(cursor -> getMatchPage(query, cursor, STREAM_PAGE_SIZE));
+    }
+
+    @Override
+    public Map<String, Integer> getIndexSizes() {
+        return read(MovieLibrary::getIndexSizes);
+    }
+
+    @Override
+    public Map<String, Long> getCacheStats() {
+        return read(MovieLibrary::getCacheStats);
+    }
+
+    /**
+     * Returns the stream of the changes made to this library, which can
+     * be read from many threads.
+     *
+     * @return the change stream of the library
+     */
+    public ChangeStream getChangeStream() {
+        return changes;
+    }
+
+    @Override
+    MovieLibrary copy() {
+        return read(MovieLibrary::copy);
+    }
+
+    /**
+     * Refuses to mirror a change, as a concurrent library is never the 
+     * replica of another library. Its changes are made through its public 
+     * methods, which keep the change stream.
+     */
+    @Override
+    void apply(Movie removed, Movie added) {
+        throw new UnsupportedOperationException("A concurrent library is not a replica");
+    }
+
+    @Override
+    int applyAll(Collection<Movie> movies) {
+        throw new UnsupportedOperationException("A concurrent library is not a replica");
+    }
+
+    /**
+     * Closes the master library if it can be closed, once the library is
+     * warm and no change is being made to it. A library that is warming up
+     * waits for its master library to be opened first. If the master
+     * library could not be opened, there is nothing to close.
+     *
+     * @throws IOException if the master library could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        writeLock.lock();
+        try {
+            MovieLibrary opened = master != null ? master
+                                : warming.handle((library, failure) -> library).join();
+            if (opened instanceof Closeable) {
+                ((Closeable) opened).close();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the master library, waiting for it to be opened if the
+     * library is warming up. Must be called while holding the write lock.
+     *
+     * @throws IllegalStateException if the master library could not be
+     *         opened
+     */
+    private MovieLibrary master() {
+        if (master == null) {
+            try {
+                master = warming.join();
+            } catch (CompletionException e) {
+                throw new IllegalStateException("The library could not be opened", e.getCause());
+            }
+        }
+        return master;
+    }
+
+    private static long millisSince(long start) {
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    /**
+     * Answers a query from the library readers are sent to, counting the
+     * calling thread as one of its readers until the query is answered.
+     * The query must not return a view of the library.
+     */
+    private <T> T read(Function<MovieLibrary, T> query) {
+        ReadIndicator indicator = readers[readerIndex];
+        indicator.arrive();
+        try {
+            return query.apply(snapshot);
+        } finally {
+            indicator.depart();
+        }
+    }
+
+    private static List<Movie> copyOf(List<Movie> movies) {
+        return Collections.unmodifiableList(new ArrayList<>(movies));
+    }
+
+    /**
+     * Makes a change that was made to the master library to the replica
+     * as well, while readers read the master library.
+     * Must be called while holding the write lock.
+     *
+     * @param removed the movie taken out, or {@code null} if one was added
+     * @param added the movie put in, or {@code null} if one was removed
+     */
+    private void mirror(Movie removed, Movie added) {
+        switchToMaster();
+        replica.apply(removed, added);
+        switchTo(replica);
+    }
+
+    /**
+     * Sends readers to the master library, once it has the indexes a
+     * warm-up leaves it without. Must be called while holding the write
+     * lock.
+     */
+    private void switchToMaster() {
+        if (!masterIndexed) {
+            master.buildIndexes();
+            masterIndexed = true;
+        }
+        switchTo(master);
+    }
+
+    /**
+     * Sends readers to a library, then waits until no reader is still
+     * reading any other. The readers of the two indicators take turns, so
+     * a reader that arrives after the switch never holds up the wait.
+     * Must be called while holding the write lock, or before the library
+     * is shared.
+     */
+    private void switchTo(MovieLibrary library) {
+        snapshot = library;
+        int previous = readerIndex;
+        int next = previous ^ 1;
+        // readers that arrived there before an earlier switch
+        readers[next].await();
+        readerIndex = next;
+        readers[previous].await();
+    }
+
+    /**
+     * Publishes the event of a change made to the master library.
+     * Must be called while holding the write lock.
+     */
+    private void announce(ChangeEvent.Type type, Movie previous, Movie movie) {
+        changes.publish(Collections.singletonList(new ChangeEvent(type, previous, movie)));
+    }
+}
@@ -0,0 +1,348 @@
+package com.stefanbahnson.movielibrary.model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An index of the case-folded words of every title for searches that
+ * tolerate typos.<p>
+ *
+ * The distinct words are held in a BK-tree, where every child of a word is
+ * filed under its edit distance from that word. By the triangle inequality,
+ * the words within a distance {@code k} of a query word can only be found
+ * under children filed between {@code d - k} and {@code d + k}, where
+ * {@code d} is the distance from the query word to their parent. A search
+ * therefore only measures the distance to a small part of the words, and
+ * never to every title in the library.<p>
+ *
+ * A word is left in the tree when the last movie with that word is removed,
+ * and is reused if the word comes back. The tree is rebuilt once more than
+ * half of its words are unused.
+ */
+final class FuzzyTitleIndex {
+
+    private final Map<String, Node> words = new HashMap<>();
+    private Node root;
+    private int unused;
+
+    /**
+     * Indexes a movie under every word of its title.
+     *
+     * @param movie represents a movie with a given title and genre
+     */
+    void add(Movie movie) {
+        for (String word : words(movie.getKey())) {
+            Node node = words.get(word);
+            if (node == null) {
+                node = new Node(word);
+                words.put(word, node);
+                insert(node);
+            } else if (node.movies.isEmpty()) {
+                unused--;
+            }
+            node.movies.add(movie);
+        }
+    }
+
+    /**
+     * Removes a movie from the index. The movie must still have the title
+     * it was indexed with.
+     *
+     * @param movie represents a movie with a given title and genre
+     */
+    void remove(Movie movie) {
+        for (String word : words(movie.getKey())) {
+            Node node = words.get(word);
+            if (node != null && node.movies.remove(movie) && node.movies.isEmpty()) {
+                unused++;
+            }
+        }
+        if (unused > words.size() / 2) {
+            rebuild();
+        }
+    }
+
+    /**
+     * Returns the number of distinct words in the index.
+     */
+    int size() {
+        return words.size() - unused;
+    }
+
+    /**
+     * Returns the indexed movies that have a title word within an edit
+     * distance of every word of the query, ranked by the sum of those
+     * distances and then by title.
+     *
+     * @param query one or more words
+     * @param maxDistance the largest edit distance allowed for each word
+     * @param limit the largest number of movies to return
+     * @return a new List of the best matched movies
+     */
+    List<Movie> search(String query, int maxDistance, int limit) {
+        Set<String> queryWords = words(MovieLibrary.normalize(query));
+        if (queryWords.isEmpty() || limit == 0) {
+            return new ArrayList<>();
+        }
+
+        // the title words near each query word, and their distance
+        List<Map<String, Integer>> near = new ArrayList<>(queryWords.size());
+        int rarest = 0;
+        long fewest = Long.MAX_VALUE;
+        for (String word : queryWords) {
+            Map<String, Integer> found = new HashMap<>();
+            find(word, maxDistance, found);
+            if (found.isEmpty()) {
+                return new ArrayList<>();
+            }
+            long movies = 0;
+            for (String w : found.keySet()) {
+                movies += words.get(w).movies.size();
+            }
+            if (movies < fewest) {
+                fewest = movies;
+                rarest = near.size();
+            }
+            near.add(found);
+        }
+
+        // walk the movies of the rarest query word and score the others
+        final Map<Movie, Integer> scores = new HashMap<>();
+        for (Map.Entry<String, Integer> e : near.get(rarest).entrySet()) {
+            candidateLoop:
+            for (Movie movie : words.get(e.getKey()).movies) {
+                if (scores.containsKey(movie)) {
+                    continue;
+                }
+                Set<String> titleWords = words(movie.getKey());
+                int score = 0;
+                for (Map<String, Integer> found : near) {
+                    int best = Integer.MAX_VALUE;
+                    for (String w : titleWords) {
+                        Integer d = found.get(w);
+                        if (d != null && d < best) {
+                            best = d;
+                        }
+                    }
+                    if (best == Integer.MAX_VALUE) {
+                        continue candidateLoop;
+                    }
+                    score += best;
+                }
+                scores.put(movie, score);
+            }
+        }
+
+        List<Movie> ranked = new ArrayList<>(scores.keySet());
+        Collections.sort(ranked, new Comparator<Movie>() {
+            @Override
+            public int compare(Movie m1, Movie m2) {
+                int c = Integer.compare(scores.get(m1), scores.get(m2));
+                return c != 0 ? c : m1.compareTo(m2);
+            }
+        });
+        return ranked.size() > limit
+             ? new ArrayList<>(ranked.subList(0, limit))
+             : ranked;
+    }
+
+    /**
+     * Files a new word in the tree.
+     */
+    private void insert(Node node) {
+        if (root == null) {
+            root = node;
+            return;
+        }
+        Node parent = root;
+        while (true) {
+            int d = distance(parent.word, node.word, Integer.MAX_VALUE);
+            Node child = parent.child(d);
+            if (child == null) {
+                node.distance = d;
+                node.sibling = parent.firstChild;
+                parent.firstChild = node;
+                parent.maxChildDistance = Math.max(parent.maxChildDistance, d);
+                return;
+            }
+            parent = child;
+        }
+    }
+
+    /**
+     * Collects the used words in the tree that are within a distance of a
+     * word.
+     */
+    private void find(String word, int maxDistance, Map<String, Integer> found) {
+        Deque<Node> pending = new ArrayDeque<>();
+        if (root != null) {
+            pending.push(root);
+        }
+        while (!pending.isEmpty()) {
+            Node node = pending.pop();
+            // no match and no child can be further away than this
+            int d = distance(node.word, word, node.maxChildDistance + maxDistance);
+            if (d <= maxDistance && !node.movies.isEmpty()) {
+                found.put(node.word, d);
+            }
+            for (Node child = node.firstChild; child != null; child = child.sibling) {
+                if (Math.abs(child.distance - d) <= maxDistance) {
+                    pending.push(child);
+                }
+            }
+        }
+    }
+
+    /**
+     * Files every used word in a new tree.
+     */
+    private void rebuild() {
+        List<Node> used = new ArrayList<>(words.size() - unused);
+        for (Node node : words.values()) {
+            if (!node.movies.isEmpty()) {
+                used.add(node);
+            }
+        }
+        words.clear();
+        root = null;
+        unused = 0;
+        for (Node old : used) {
+            Node node = new Node(old.word);
+            node.movies.addAll(old.movies);
+            words.put(node.word, node);
+            insert(node);
+        }
+    }
+
+    /**
+     * Scores a title against the words of a query, as a search of the
+     * index would, by reading the title rather than the index.
+     *
+     * The words of the title are read where they lie in the key, so that
+     * a scan of many titles makes no strings.
+     *
+     * @param queryWords the words of a case-folded query
+     * @param key the case-folded title
+     * @param maxDistance the largest edit distance allowed for each word
+     * @return the sum of the distances of the query words, or -1 if a word
+     *         is not near enough to any word of the title
+     */
+    static int score(Set<String> queryWords, CharSequence key, int maxDistance) {
+        int score = 0;
+        for (String queryWord : queryWords) {
+            int best = maxDistance + 1;
+            int start = -1;
+            for (int i = 0; i <= key.length() && best > 0; i++) {
+                if (i < key.length() && Character.isLetterOrDigit(key.charAt(i))) {
+                    if (start < 0) {
+                        start = i;
+                    }
+                } else if (start >= 0) {
+                    best = Math.min(best, distance(queryWord, key, start, i, maxDistance));
+                    start = -1;
+                }
+            }
+            if (best > maxDistance) {
+                return -1;
+            }
+            score += best;
+        }
+        return score;
+    }
+
+    /**
+     * Returns the Levenshtein distance between two words, or any value
+     * greater than the bound once the distance is known to exceed it.
+     */
+    static int distance(String a, String b, int bound) {
+        return distance(a, b, 0, b.length(), bound);
+    }
+
+    /**
+     * Returns the Levenshtein distance between a word and the word between
+     * two indexes of a text, as {@link #distance(String, String, int)}.
+     */
+    private static int distance(String a, CharSequence text, int from, int to, int bound) {
+        int length = to - from;
+        if (Math.abs(a.length() - length) > bound) {
+            return bound + 1;
+        }
+        int[] previous = new int[length + 1];
+        int[] current = new int[length + 1];
+        for (int j = 0; j <= length; j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = i;
+            char c = a.charAt(i - 1);
+            for (int j = 1; j <= length; j++) {
+                int cost = c == text.charAt(from + j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1], previous[j]) + 1,
+                                      previous[j - 1] + cost);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (rowMin > bound) {
+                return bound + 1;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[length];
+    }
+
+    /**
+     * Returns the distinct words of a case-folded text, split on every
+     * character that is not a letter or digit.
+     */
+    static Set<String> words(String folded) {
+        Set<String> words = new LinkedHashSet<>();
+        int start = -1;
+        for (int i = 0; i <= folded.length(); i++) {
+            if (i < folded.length() && Character.isLetterOrDigit(folded.charAt(i))) {
+                if (start < 0) {
+                    start = i;
+                }
+            } else if (start >= 0) {
+                words.add(folded.substring(start, i));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    /**
+     * A word in the tree, with the movies that have it in their title.
+     */
+    private static final class Node {
+        final String word;
+        final Set<Movie> movies = new HashSet<>(4);
+        int distance;
+        int maxChildDistance;
+        Node firstChild;
+        Node sibling;
+
+        Node(String word) {
+            this.word = word;
+        }
+
+        Node child(int distance) {
+            for (Node child = firstChild; child != null; child = child.sibling) {
+                if (child.distance == distance) {
+                    return child;
+                }
+            }
+            return null;
+        }
+    }
+}
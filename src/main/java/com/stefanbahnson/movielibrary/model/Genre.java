@@ -1,5 +1,9 @@
 package com.stefanbahnson.movielibrary.model;
 
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Set;
+
 /**
  * Represents the different genres a {@code Movie} can have.
  * 
@@ -29,5 +33,46 @@ public enum Genre {
     public String toString() {
         return this.genreAsString;
     }
+    
+    /**
+     * Returns the bit of a genre in a genre mask.
+     * 
+     * @param genre a genre
+     * @return a mask with only the bit of the genre set
+     */
+    public static int mask(Genre genre) {
+        return 1 << genre.ordinal();
+    }
+    
+    /**
+     * Returns the genre mask of several genres.
+     * 
+     * @param genres any number of genres
+     * @return a mask with the bit of every genre set
+     */
+    public static int mask(Collection<Genre> genres) {
+        int mask = 0;
+        for (Genre genre : genres) {
+            mask |= mask(genre);
+        }
+        return mask;
+    }
+    
+    /**
+     * Returns the genres of a genre mask. Bits that are not the bit of a 
+     * genre are ignored.
+     * 
+     * @param mask a genre mask
+     * @return a new set of the genres
+     */
+    public static Set<Genre> setOf(int mask) {
+        Set<Genre> genres = EnumSet.noneOf(Genre.class);
+        for (Genre genre : values()) {
+            if ((mask & mask(genre)) != 0) {
+                genres.add(genre);
+            }
+        }
+        return genres;
+    }
 
 }
@@ -0,0 +1,147 @@
+package com.stefanbahnson.movielibrary.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bitmap per genre over the movies of a library, for queries that combine
+ * genres.<p>
+ *
+ * Every movie is given a small id, which is reused once the movie is
+ * removed. The bitmap of a genre has the bit of a movie's id set if the
+ * movie has that genre, and one more bitmap has the bit of every movie in
+ * the library set. A query such as "ACTION and COMEDY but not HORROR" is
+ * then answered by combining the bitmaps 64 movies at a time.
+ */
+final class GenreBitmaps {
+    private static final Genre[] GENRES = Genre.values();
+
+    private final List<Movie> movies = new ArrayList<>();
+    private final Map<Movie, Integer> ids = new HashMap<>();
+    private int[] freeIds = new int[16];
+    private int freeCount;
+
+    private long[] all = new long[1];
+    private final long[][] byGenre = new long[GENRES.length][1];
+
+    /**
+     * Gives a movie an id and sets its bits.
+     *
+     * @param movie a movie not yet in the bitmaps
+     */
+    void add(Movie movie) {
+        int id;
+        if (freeCount > 0) {
+            id = freeIds[--freeCount];
+            movies.set(id, movie);
+        } else {
+            id = movies.size();
+            movies.add(movie);
+            ensureCapacity(id);
+        }
+        ids.put(movie, id);
+        set(all, id);
+        setGenres(id, movie.getGenreMask());
+    }
+
+    /**
+     * Clears the bits of a movie and frees its id.
+     *
+     * @param movie a movie in the bitmaps
+     */
+    void remove(Movie movie) {
+        Integer id = ids.remove(movie);
+        if (id == null) {
+            return;
+        }
+        clear(all, id);
+        setGenres(id, 0);
+        movies.set(id, null);
+        if (freeCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+        }
+        freeIds[freeCount++] = id;
+    }
+
+    /**
+     * Replaces a movie by a movie with other genres, which keeps its id.
+     *
+     * @param movie a movie in the bitmaps
+     * @param changed the movie that replaces it
+     */
+    void replace(Movie movie, Movie changed) {
+        int id = ids.remove(movie);
+        ids.put(changed, id);
+        movies.set(id, changed);
+        setGenres(id, changed.getGenreMask());
+    }
+
+    /**
+     * Returns the movies that have all of the required genres and none of
+     * the excluded genres, in no particular order.
+     *
+     * @param required a mask of the genres every movie must have
+     * @param excluded a mask of the genres no movie may have
+     * @return a new List of the selected movies
+     */
+    List<Movie> select(int required, int excluded) {
+        List<long[]> and = new ArrayList<>();
+        List<long[]> andNot = new ArrayList<>();
+        for (Genre genre : GENRES) {
+            if ((required & Genre.mask(genre)) != 0) {
+                and.add(byGenre[genre.ordinal()]);
+            }
+            if ((excluded & Genre.mask(genre)) != 0) {
+                andNot.add(byGenre[genre.ordinal()]);
+            }
+        }
+
+        List<Movie> selected = new ArrayList<>();
+        for (int w = 0; w < all.length; w++) {
+            long word = all[w];
+            for (int i = 0; i < and.size() && word != 0; i++) {
+                word &= and.get(i)[w];
+            }
+            for (int i = 0; i < andNot.size() && word != 0; i++) {
+                word &= ~andNot.get(i)[w];
+            }
+            while (word != 0) {
+                selected.add(movies.get(w * 64 + Long.numberOfTrailingZeros(word)));
+                word &= word - 1;
+            }
+        }
+        return selected;
+    }
+
+    private void setGenres(int id, int mask) {
+        for (Genre genre : GENRES) {
+            if ((mask & Genre.mask(genre)) != 0) {
+                set(byGenre[genre.ordinal()], id);
+            } else {
+                clear(byGenre[genre.ordinal()], id);
+            }
+        }
+    }
+
+    private void ensureCapacity(int id) {
+        int words = (id >>> 6) + 1;
+        if (words > all.length) {
+            int length = Math.max(words, all.length * 2);
+            all = Arrays.copyOf(all, length);
+            for (int g = 0; g < byGenre.length; g++) {
+                byGenre[g] = Arrays.copyOf(byGenre[g], length);
+            }
+        }
+    }
+
+    private static void set(long[] bits, int id) {
+        bits[id >>> 6] |= 1L << id;
+    }
+
+    private static void clear(long[] bits, int id) {
+        bits[id >>> 6] &= ~(1L << id);
+    }
+}
@@ -0,0 +1,749 @@
+package com.stefanbahnson.movielibrary.model;
+
+import com.stefanbahnson.movielibrary.metrics.LibraryMetrics;
+import com.stefanbahnson.movielibrary.metrics.Operation;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@code MovieLibrary} that holds its movies as objects in a list sorted 
+ * by title, with an index for every kind of query, so that most queries 
+ * take time in proportion to the size of their answer rather than the 
+ * size of the library.<p>
+ * 
+ * The movies are indexed by title, by genre and by rating when they are 
+ * added. The substring and fuzzy search indexes cost more to build than 
+ * all the others together, and are built by the first search that needs 
+ * them. This library is not safe to use from many threads without a 
+ * {@code ConcurrentMovieLibrary}.
+ */
+public class IndexedMovieLibrary extends MovieLibrary {
+    /**
+     * Holds the library of movies.<p>
+     * 
+     * This class guarantee that this list will always be sorted.
+     */
+    private final List<Movie> list = new ArrayList();
+    
+    /**
+     * Indexes every movie in the library by its normalized title.<p>
+     * 
+     * Kept in sync with {@code list} on every add, remove and rename so 
+     * exact title lookups never have to scan the library.
+     */
+    private final Map<String, Movie> titleIndex = new HashMap<>();
+    
+    /**
+     * Indexes every movie in the library by the trigrams of its title, 
+     * for substring searches.<p>
+     * 
+     * Built by the first search that needs it rather than when the library 
+     * is filled, since it costs more to build than every other index 
+     * together, and kept in sync from then on. Until then it is 
+     * {@code null}.
+     */
+    private volatile TitleSearchIndex searchIndex;
+    
+    /**
+     * Indexes every movie in the library by the words of its title, for 
+     * searches that tolerate typos. Built by the first such search, as 
+     * {@code searchIndex} is.
+     */
+    private volatile FuzzyTitleIndex fuzzyIndex;
+    
+    /**
+     * Held while the search indexes are built, which may be asked for by 
+     * many readers at once.
+     */
+    private final Object indexLock = new Object();
+    
+    /**
+     * Holds the movies of each genre, sorted by title. A movie with several 
+     * genres is held under each of them.<p>
+     * 
+     * Kept in sync with {@code list} on every add, remove, rename and 
+     * genre change so genre listings are views rather than copies.
+     */
+    private final Map<Genre, List<Movie>> genreIndex = new EnumMap<>(Genre.class);
+    
+    /**
+     * Holds a bitmap of the movies of each genre, for queries that combine 
+     * genres.
+     */
+    private final GenreBitmaps genreBitmaps = new GenreBitmaps();
+    
+    /**
+     * Holds the rated movies of the library sorted by rating, for queries 
+     * by rating.
+     */
+    private final RatingIndex ratingIndex = new RatingIndex();
+    
+    /**
+     * Counts the changes made to the library. Every add, remove, rename 
+     * and genre change makes a new version.
+     */
+    private long version;
+    
+    /**
+     * Caches the results of recent searches, which are only valid for the 
+     * version of the library they were found in. The number of results is 
+     * given by the system property {@code movielibrary.cacheSize}.
+     */
+    private final QueryCache matchCache = 
+            new QueryCache(Integer.getInteger("movielibrary.cacheSize", 256));
+    
+    /**
+     * All movies in the library sorted by genre then title, backed by 
+     * {@code genreIndex}. A movie with several genres is listed under 
+     * each of them.
+     */
+    private final List<Movie> allByGenre = new AbstractList<Movie>() {
+        @Override
+        public Movie get(int index) {
+            for (Genre genre : GENRES_BY_NAME) {
+                List<Movie> bucket = genreIndex.get(genre);
+                if (index < bucket.size()) {
+                    return bucket.get(index);
+                }
+                index -= bucket.size();
+            }
+            throw new IndexOutOfBoundsException();
+        }
+
+        @Override
+        public int size() {
+            int size = 0;
+            for (List<Movie> bucket : genreIndex.values()) {
+                size += bucket.size();
+            }
+            return size;
+        }
+    };
+    
+    public IndexedMovieLibrary() {
+        for (Genre genre : Genre.values()) {
+            genreIndex.put(genre, new ArrayList<Movie>());
+        }
+    }
+    
+    @Override
+    MovieLibrary copy() {
+        IndexedMovieLibrary copy = new IndexedMovieLibrary();
+        copy.merge(list);
+        return copy;
+    }
+    
+    @Override
+    void apply(Movie removed, Movie added) {
+        if (removed != null && added != null && removed.getTitle().equals(added.getTitle())) {
+            replace(removed, added);
+            return;
+        }
+        if (removed != null) {
+            remove(removed);
+        }
+        if (added != null) {
+            insert(added);
+        }
+    }
+    
+    @Override
+    int applyAll(Collection<Movie> movies) {
+        return merge(movies);
+    }
+    
+    @Override
+    public boolean findDuplicate(String movieTitle) {
+        long start = LibraryMetrics.start();
+        try {
+            return titleIndex.containsKey(normalize(movieTitle));
+        } finally {
+            LibraryMetrics.record(Operation.FIND_DUPLICATE, start);
+        }
+    }
+    
+    @Override
+    public boolean addMovie(Movie movie) {
+        long start = LibraryMetrics.start();
+        try {
+            if (titleIndex.containsKey(movie.getKey())) {
+                return false;
+            }
+            insert(movie);
+            return true;
+        } finally {
+            LibraryMetrics.record(Operation.ADD_MOVIE, start);
+        }
+    }
+    
+    /**
+     * Sorts the movies once and merges them into the library, which is 
+     * much faster than adding them one at a time.
+     */
+    @Override
+    public int addAll(Collection<Movie> movies) {
+        long start = LibraryMetrics.start();
+        try {
+            return merge(movies);
+        } finally {
+            LibraryMetrics.record(Operation.ADD_ALL, start);
+        }
+    }
+    
+    /**
+     * Adds several movies to the library at once, as by 
+     * {@link #addAll(Collection)}, without recording the operation.
+     */
+    private int merge(Collection<Movie> movies) {
+        List<Movie> added = new ArrayList<>(movies.size());
+        for (Movie movie : movies) {
+            if (!titleIndex.containsKey(movie.getKey())) {
+                titleIndex.put(movie.getKey(), movie);
+                addToSearchIndexes(movie);
+                genreBitmaps.add(movie);
+                ratingIndex.add(movie);
+                added.add(movie);
+            }
+        }
+        if (added.isEmpty()) {
+            return 0;
+        }
+        version++;
+        Collections.sort(added);
+        mergeSorted(list, added);
+        
+        for (Genre genre : Genre.values()) {
+            List<Movie> ofGenre = new ArrayList<>();
+            for (Movie movie : added) {
+                if (movie.hasGenre(genre)) {
+                    ofGenre.add(movie);
+                }
+            }
+            // already in title order
+            mergeSorted(genreIndex.get(genre), ofGenre);
+        }
+        return added.size();
+    }
+    
+    @Override
+    public Movie renameMovie(Movie movie, String newTitle) {
+        long start = LibraryMetrics.start();
+        try {
+            if (!contains(movie)) {
+                return null;
+            }
+            Movie other = titleIndex.get(normalize(newTitle));
+            if (other != null && !other.getKey().equals(movie.getKey())) {
+                return null;
+            }
+            Movie renamed = movie.withTitle(newTitle);
+            remove(movie);
+            insert(renamed);
+            return renamed;
+        } finally {
+            LibraryMetrics.record(Operation.RENAME_MOVIE, start);
+        }
+    }
+    
+    @Override
+    public Movie changeGenre(Movie movie, Genre newGenre) {
+        long start = LibraryMetrics.start();
+        try {
+            if (!contains(movie)) {
+                return null;
+            }
+            Movie changed = movie.withGenre(newGenre);
+            replace(movie, changed);
+            return changed;
+        } finally {
+            LibraryMetrics.record(Operation.CHANGE_GENRE, start);
+        }
+    }
+    
+    @Override
+    public Movie changeGenres(Movie movie, Genre newGenre, Collection<Genre> otherGenres) {
+        long start = LibraryMetrics.start();
+        try {
+            if (!contains(movie)) {
+                return null;
+            }
+            Movie changed = movie.withGenres(newGenre, otherGenres);
+            replace(movie, changed);
+            return changed;
+        } finally {
+            LibraryMetrics.record(Operation.CHANGE_GENRE, start);
+        }
+    }
+    
+    @Override
+    public Movie rateMovie(Movie movie, double rating) {
+        long start = LibraryMetrics.start();
+        try {
+            if (!contains(movie)) {
+                return null;
+            }
+            Movie changed = movie.withRating(rating);
+            replace(movie, changed);
+            return changed;
+        } finally {
+            LibraryMetrics.record(Operation.RATE_MOVIE, start);
+        }
+    }
+    
+    @Override
+    public boolean removeMovie(Movie movie) {
+        long start = LibraryMetrics.start();
+        try {
+            if (!contains(movie)) {
+                return false;
+            }
+            remove(movie);
+            return true;
+        } finally {
+            LibraryMetrics.record(Operation.REMOVE_MOVIE, start);
+        }
+    }
+    
+    /**
+     * Checks if a movie is in the library, that is if the library holds an 
+     * equal movie under its title.
+     */
+    private boolean contains(Movie movie) {
+        Movie current = titleIndex.get(movie.getKey());
+        return current != null && current.equals(movie);
+    }
+    
+    /**
+     * Adds a movie with a title not yet in the library to the library 
+     * and all of its indexes.
+     */
+    private void insert(Movie movie) {
+        version++;
+        titleIndex.put(movie.getKey(), movie);
+        addToSearchIndexes(movie);
+        genreBitmaps.add(movie);
+        ratingIndex.add(movie);
+        for (Genre genre : Genre.values()) {
+            if (movie.hasGenre(genre)) {
+                insertSorted(genreIndex.get(genre), movie);
+            }
+        }
+        insertSorted(list, movie);
+    }
+    
+    /**
+     * Replaces a movie in the library by a movie with the same title but 
+     * other genres or another rating, in the library and all of its 
+     * indexes.
+     */
+    private void replace(Movie movie, Movie changed) {
+        version++;
+        list.set(Collections.binarySearch(list, movie), changed);
+        titleIndex.put(movie.getKey(), changed);
+        removeFromSearchIndexes(movie);
+        addToSearchIndexes(changed);
+        genreBitmaps.replace(movie, changed);
+        ratingIndex.remove(movie);
+        ratingIndex.add(changed);
+        for (Genre genre : Genre.values()) {
+            if (movie.hasGenre(genre)) {
+                removeSorted(genreIndex.get(genre), movie);
+            }
+            if (changed.hasGenre(genre)) {
+                insertSorted(genreIndex.get(genre), changed);
+            }
+        }
+    }
+    
+    /**
+     * Removes a movie in the library from the library and all of its 
+     * indexes.
+     */
+    private void remove(Movie movie) {
+        version++;
+        removeSorted(list, movie);
+        for (Genre genre : Genre.values()) {
+            if (movie.hasGenre(genre)) {
+                removeSorted(genreIndex.get(genre), movie);
+            }
+        }
+        genreBitmaps.remove(movie);
+        ratingIndex.remove(movie);
+        titleIndex.remove(movie.getKey());
+        removeFromSearchIndexes(movie);
+    }
+    
+    /**
+     * Adds a movie to the search indexes that have been built.
+     */
+    private void addToSearchIndexes(Movie movie) {
+        if (searchIndex != null) {
+            searchIndex.add(movie);
+        }
+        if (fuzzyIndex != null) {
+            fuzzyIndex.add(movie);
+        }
+    }
+    
+    /**
+     * Removes a movie from the search indexes that have been built.
+     */
+    private void removeFromSearchIndexes(Movie movie) {
+        if (searchIndex != null) {
+            searchIndex.remove(movie);
+        }
+        if (fuzzyIndex != null) {
+            fuzzyIndex.remove(movie);
+        }
+    }
+    
+    /**
+     * Returns the trigram index of the library, building it if no search 
+     * has yet.
+     */
+    private TitleSearchIndex searchIndex() {
+        TitleSearchIndex index = searchIndex;
+        if (index == null) {
+            synchronized (indexLock) {
+                index = searchIndex;
+                if (index == null) {
+                    index = new TitleSearchIndex();
+                    for (Movie movie : list) {
+                        index.add(movie);
+                    }
+                    searchIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+    
+    /**
+     * Returns the word index of the library, building it if no fuzzy 
+     * search has yet.
+     */
+    private FuzzyTitleIndex fuzzyIndex() {
+        FuzzyTitleIndex index = fuzzyIndex;
+        if (index == null) {
+            synchronized (indexLock) {
+                index = fuzzyIndex;
+                if (index == null) {
+                    index = new FuzzyTitleIndex();
+                    for (Movie movie : list) {
+                        index.add(movie);
+                    }
+                    fuzzyIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+    
+    @Override
+    void buildIndexes() {
+        searchIndex();
+        fuzzyIndex();
+    }
+    
+    /**
+     * Inserts a movie into a list sorted by title where it keeps the list 
+     * sorted.
+     * 
+     * @param sorted a list sorted by title
+     * @param movie the movie to insert
+     */
+    private static void insertSorted(List<Movie> sorted, Movie movie) {
+        int index = Collections.binarySearch(sorted, movie);
+        sorted.add(index < 0 ? -(index + 1) : index, movie);
+    }
+    
+    /**
+     * Removes a movie from a list sorted by title, found by binary search.
+     * 
+     * @param sorted a list sorted by title
+     * @param movie the movie to remove
+     */
+    private static void removeSorted(List<Movie> sorted, Movie movie) {
+        int index = Collections.binarySearch(sorted, movie);
+        if (index >= 0) {
+            sorted.remove(index);
+        }
+    }
+    
+    /**
+     * Merges sorted movies into a sorted list in a single pass, back to 
+     * front, so that the list stays sorted.
+     * 
+     * @param sorted a list sorted by title
+     * @param added movies sorted by title
+     */
+    private static void mergeSorted(List<Movie> sorted, List<Movie> added) {
+        int i = sorted.size() - 1;
+        int j = added.size() - 1;
+        sorted.addAll(added);
+        for (int k = sorted.size() - 1; j >= 0; k--) {
+            if (i >= 0 && sorted.get(i).compareTo(added.get(j)) > 0) {
+                sorted.set(k, sorted.get(i--));
+            } else {
+                sorted.set(k, added.get(j--));
+            }
+        }
+    }
+    
+    @Override
+    public List<Movie> getByGenre(Genre genre) {
+        long start = LibraryMetrics.start();
+        try {
+            return Collections.unmodifiableList(genreIndex.get(genre));
+        } finally {
+            LibraryMetrics.record(Operation.GET_BY_GENRE, start);
+        }
+    }
+    
+    /**
+     * Finds the movies by combining a bitmap of each genre, 64 movies at a 
+     * time, rather than by looking at every movie.
+     */
+    @Override
+    public List<Movie> getByGenres(Set<Genre> required, Set<Genre> excluded) {
+        long start = LibraryMetrics.start();
+        List<Movie> movies = genreBitmaps.select(
+                Genre.mask(required), Genre.mask(excluded));
+        Collections.sort(movies);
+        LibraryMetrics.record(Operation.GET_BY_GENRES, start);
+        return movies;
+    }
+    
+    /**
+     * Answers queries of three or more characters from the title search 
+     * index, so the time taken depends on the number of matches rather 
+     * than the size of the library. The results of recent queries are 
+     * cached until the library is changed.
+     */
+    @Override
+    public List<Movie> getMovieMatches(String query) {
+        long start = LibraryMetrics.start();
+        String key = normalize(query);
+        List<Movie> movieMatches = matchCache.get(key, version);
+        if (movieMatches != null) {
+            movieMatches = new ArrayList<>(movieMatches);
+        } else if (query.length() >= TitleSearchIndex.GRAM_LENGTH) {
+            movieMatches = searchIndex().search(query);
+            Collections.sort(movieMatches);
+            matchCache.put(key, version, movieMatches);
+        } else {
+            movieMatches = new ArrayList<>();
+            for (Movie mov : list) {
+                if (TitleSearchIndex.containsIgnoreCase(mov.getTitle(), query)) {
+                    movieMatches.add(mov);
+                }
+            }
+            matchCache.put(key, version, movieMatches);
+        }
+        LibraryMetrics.record(Operation.GET_MOVIE_MATCHES, start);
+        LibraryMetrics.recordHits(movieMatches.size());
+        return movieMatches;
+    }
+    
+    @Override
+    public List<Movie> getFuzzyMatches(String query, int maxDistance, int limit) {
+        checkFuzzy(maxDistance, limit);
+        long start = LibraryMetrics.start();
+        List<Movie> movieMatches = fuzzyIndex().search(query, maxDistance, limit);
+        LibraryMetrics.record(Operation.GET_FUZZY_MATCHES, start);
+        LibraryMetrics.recordHits(movieMatches.size());
+        return movieMatches;
+    }
+    
+    @Override
+    public List<Movie> suggest(String prefix, int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must not be negative");
+        }
+        long start = LibraryMetrics.start();
+        List<Movie> suggestions = complete(list, prefix, limit);
+        LibraryMetrics.record(Operation.SUGGEST, start);
+        return suggestions;
+    }
+    
+    /**
+     * Finds the movies in an index sorted by rating, so the time taken 
+     * depends on the number of movies returned rather than the size of the 
+     * library.
+     */
+    @Override
+    public List<Movie> getByRating(double minRating, double maxRating) {
+        if (Double.isNaN(minRating) || Double.isNaN(maxRating)) {
+            throw new IllegalArgumentException("ratings must be numbers");
+        }
+        long start = LibraryMetrics.start();
+        List<Movie> movies = ratingIndex.range(minRating, maxRating);
+        LibraryMetrics.record(Operation.GET_BY_RATING, start);
+        LibraryMetrics.recordHits(movies.size());
+        return movies;
+    }
+    
+    /**
+     * Finds the movies in an index sorted by rating, as 
+     * {@link #getByRating(double, double)} does.
+     */
+    @Override
+    public List<Movie> getTopRated(Genre genre, int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must not be negative");
+        }
+        long start = LibraryMetrics.start();
+        List<Movie> movies = ratingIndex.top(genre, limit);
+        LibraryMetrics.record(Operation.GET_TOP_RATED, start);
+        return movies;
+    }
+    
+    @Override
+    public Movie randomMovie() {
+        long start = LibraryMetrics.start();
+        try {
+            return random(list);
+        } finally {
+            LibraryMetrics.record(Operation.RANDOM_MOVIE, start);
+        }
+    }
+    
+    @Override
+    public Movie randomMovie(Genre genre) {
+        long start = LibraryMetrics.start();
+        try {
+            return random(genreIndex.get(genre));
+        } finally {
+            LibraryMetrics.record(Operation.RANDOM_MOVIE, start);
+        }
+    }
+    
+    /**
+     * Picks the movie from a tree of the summed ratings that is kept up to 
+     * date as movies are rated, so a pick takes O(log n) time.
+     */
+    @Override
+    public Movie randomRatedMovie() {
+        long start = LibraryMetrics.start();
+        try {
+            return ratingIndex.random();
+        } finally {
+            LibraryMetrics.record(Operation.RANDOM_MOVIE, start);
+        }
+    }
+    
+    @Override
+    public Movie getUniqueMovie(String movieTitle) {
+        long start = LibraryMetrics.start();
+        try {
+            return titleIndex.get(normalize(movieTitle));
+        } finally {
+            LibraryMetrics.record(Operation.GET_UNIQUE_MOVIE, start);
+        }
+    }
+    
+    @Override
+    public int size() {
+        return list.size();
+    }
+    
+    @Override
+    public List<Movie> getAllByTitle() {
+        long start = LibraryMetrics.start();
+        try {
+            return Collections.unmodifiableList(list);
+        } finally {
+            LibraryMetrics.record(Operation.GET_ALL_BY_TITLE, start);
+        }
+    }
+    
+    @Override
+    public List<Movie> getAllByGenre() {
+        long start = LibraryMetrics.start();
+        try {
+            return allByGenre;
+        } finally {
+            LibraryMetrics.record(Operation.GET_ALL_BY_GENRE, start);
+        }
+    }
+    
+    @Override
+    public List<Movie> getAllByTitle(int offset, int limit) {
+        long start = LibraryMetrics.start();
+        try {
+            return range(list, offset, limit);
+        } finally {
+            LibraryMetrics.record(Operation.GET_ALL_BY_TITLE, start);
+        }
+    }
+    
+    @Override
+    public List<Movie> getByGenre(Genre genre, int offset, int limit) {
+        long start = LibraryMetrics.start();
+        try {
+            return range(genreIndex.get(genre), offset, limit);
+        } finally {
+            LibraryMetrics.record(Operation.GET_BY_GENRE, start);
+        }
+    }
+    
+    @Override
+    public Page getPageByTitle(String cursor, int limit) {
+        long start = LibraryMetrics.start();
+        try {
+            return page(list, null, cursor, limit);
+        } finally {
+            LibraryMetrics.record(Operation.GET_PAGE, start);
+        }
+    }
+    
+    @Override
+    public Page getPageByGenre(Genre genre, String cursor, int limit) {
+        long start = LibraryMetrics.start();
+        try {
+            return page(genreIndex.get(genre), null, cursor, limit);
+        } finally {
+            LibraryMetrics.record(Operation.GET_PAGE, start);
+        }
+    }
+    
+    @Override
+    public Page getMatchPage(String query, String cursor, int limit) {
+        long start = LibraryMetrics.start();
+        try {
+            return page(list, query, cursor, limit);
+        } finally {
+            LibraryMetrics.record(Operation.GET_PAGE, start);
+        }
+    }
+    
+    /**
+     * Returns the sizes of the indexes, where a search index that no search 
+     * has built yet has no entries.
+     */
+    @Override
+    public Map<String, Integer> getIndexSizes() {
+        Map<String, Integer> sizes = new LinkedHashMap<>();
+        sizes.put("titles", titleIndex.size());
+        sizes.put("trigrams", searchIndex == null ? 0 : searchIndex.size());
+        sizes.put("words", fuzzyIndex == null ? 0 : fuzzyIndex.size());
+        sizes.put("ratings", ratingIndex.size());
+        for (Genre genre : GENRES_BY_NAME) {
+            sizes.put(genre.name().toLowerCase(), genreIndex.get(genre).size());
+        }
+        return sizes;
+    }
+    
+    @Override
+    public Map<String, Long> getCacheStats() {
+        return matchCache.stats();
+    }
+}
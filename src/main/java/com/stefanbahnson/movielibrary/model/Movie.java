@@ -1,50 +1,241 @@
 package com.stefanbahnson.movielibrary.model;
 
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.Objects;
+import java.util.Set;
 
 /**
  * Represents a movie with a given title and genre. A {@code Movie} can 
- * only have one name and genre.<p>
+ * only have one name, but can have more than one genre. The first genre 
+ * given is the main genre of the movie.<p>
  * 
- * A movie is naturally ordered alphabetically by title name but can
- * also be ordered by genre then title, both in ascending order.
+ * The genres are packed into the bits of a single {@code int}, one bit per 
+ * {@code Genre} ordinal.<p>
+ * 
+ * A movie may be rated from 0 to {@link #MAX_RATING}. A movie that has not 
+ * been rated has the rating {@link #UNRATED}.<p>
+ * 
+ * A movie is immutable. A movie with a new title, genre or rating is made 
+ * with {@link #withTitle(String)}, {@link #withGenre(Genre)} and 
+ * {@link #withRating(double)}, which makes it 
+ * safe to share movies between threads and to use them as hash keys.<p>
+ * 
+ * A movie is naturally ordered alphabetically by title name, ignoring 
+ * case, but can also be ordered by genre then title, both in ascending 
+ * order, or by rating, best first. The title is folded to one case once, 
+ * when the movie is made, so comparing two movies never allocates.
  *
  * @author Stefan Bahnson
  */
 public class Movie implements Comparable<Movie> {
     /**
-     * Orders {@code movie}s by genre then title.
+     * The highest rating of a movie.
+     */
+    public static final double MAX_RATING = 10;
+    
+    /**
+     * The rating of a movie that has not been rated.
+     */
+    public static final double UNRATED = Double.NaN;
+    
+    /**
+     * The rank of each genre by name, by ordinal.
+     */
+    private static final int[] GENRE_RANKS = new int[Genre.values().length];
+    static {
+        for (Genre genre : Genre.values()) {
+            for (Genre other : Genre.values()) {
+                if (other.name().compareTo(genre.name()) < 0) {
+                    GENRE_RANKS[genre.ordinal()]++;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Orders {@code movie}s by genre name then title.
      */
     public static final Comparator<Movie> BY_GENRE = new Comparator<Movie>() {
         // sort by movie genre
         @Override
         public int compare(Movie m1, Movie m2) {
-            int c = m1.getGenre().name().compareTo(m2.getGenre().name());
-            if (c == 0) {
-                c = m1.getTitle().toLowerCase().compareTo(m2.getTitle().toLowerCase());
+            int c = GENRE_RANKS[m1.genre.ordinal()] - GENRE_RANKS[m2.genre.ordinal()];
+            return c != 0 ? c : m1.compareTo(m2);
+        }
+    };
+    
+    /**
+     * Orders {@code movie}s by rating, best first, then title. Movies that 
+     * have not been rated come last.
+     */
+    public static final Comparator<Movie> BY_RATING = new Comparator<Movie>() {
+        @Override
+        public int compare(Movie m1, Movie m2) {
+            // NaN compares above every rating, which puts unrated movies last
+            int c = Double.compare(m1.rating, m2.rating);
+            if (c != 0) {
+                return m1.isRated() && m2.isRated() ? -c : c;
             }
-            return c;
+            return m1.compareTo(m2);
         }
     };
     
-    private String title;
-    private Genre genre;
+    private final String title;
+    private final String key;
+    private final Genre genre;
+    private final int genres;
+    private final double rating;
+    private final int hash;
+    
+    /**
+     * Creates a movie with a given title and genre.
+     * 
+     * @param title title description of the movie
+     * @param genre genre description of the movie
+     */
+    public Movie(String title, Genre genre) {
+        this(title, genre, Genre.mask(genre));
+    }
+    
+    /**
+     * Creates a movie with a given title and several genres.
+     * 
+     * @param title title description of the movie
+     * @param genre the main genre description of the movie
+     * @param otherGenres the other genres of the movie, which may also 
+     *                    contain the main genre
+     */
+    public Movie(String title, Genre genre, Collection<Genre> otherGenres) {
+        this(title, genre, Genre.mask(genre) | Genre.mask(otherGenres));
+    }
+    
+    Movie(String title, Genre genre, int genres) {
+        this(title, fold(title), genre, genres, UNRATED);
+    }
+    
+    Movie(String title, Genre genre, int genres, double rating) {
+        this(title, fold(title), genre, genres, checkRating(rating));
+    }
+    
+    private Movie(String title, String key, Genre genre, int genres, double rating) {
+        this.title = Objects.requireNonNull(title);
+        this.key = key;
+        this.genre = Objects.requireNonNull(genre);
+        this.genres = genres;
+        this.rating = rating;
+        this.hash = 31 * (31 * (31 * title.hashCode() + genre.ordinal()) + genres)
+                  + Double.hashCode(rating);
+    }
     
     public String getTitle() {
         return title;
     }
+    
+    /**
+     * Returns the title folded to one case, as by 
+     * {@link MovieLibrary#normalize(String)}, which orders the movie and 
+     * identifies its title in a library.
+     */
+    String getKey() {
+        return key;
+    }
 
+    /**
+     * Returns the main genre of this movie.
+     */
     public Genre getGenre() {
         return genre;
     }
-
-    public void setTitle(String title) {
-        this.title = title;
+    
+    /**
+     * Returns every genre of this movie, including the main genre.
+     * 
+     * @return a new set of the genres
+     */
+    public Set<Genre> getGenres() {
+        return Genre.setOf(genres);
     }
-
-    public void setGenre(Genre genre) {
-        this.genre = genre;
+    
+    /**
+     * Returns the genres of this movie as a bit mask, with the bit 
+     * {@code 1 << genre.ordinal()} set for every genre of the movie.
+     */
+    public int getGenreMask() {
+        return genres;
+    }
+    
+    /**
+     * Checks if this movie has a genre, as its main genre or otherwise.
+     * 
+     * @param genre genre description of a movie
+     * @return {@code true} if the movie has the genre
+     */
+    public boolean hasGenre(Genre genre) {
+        return (genres & Genre.mask(genre)) != 0;
+    }
+    
+    /**
+     * Returns the rating of this movie, or {@link #UNRATED} if it has not 
+     * been rated.
+     */
+    public double getRating() {
+        return rating;
+    }
+    
+    /**
+     * Checks if this movie has been rated.
+     */
+    public boolean isRated() {
+        return !Double.isNaN(rating);
+    }
+    
+    /**
+     * Returns a movie with the same genres and rating as this movie but a 
+     * new title.
+     * 
+     * @param newTitle the title description of the new movie
+     * @return a movie with the new title
+     */
+    public Movie withTitle(String newTitle) {
+        return new Movie(newTitle, fold(newTitle), genre, genres, rating);
+    }
+    
+    /**
+     * Returns a movie with the same title and rating as this movie but a 
+     * new genre, which replaces all of its genres.
+     * 
+     * @param newGenre the genre description of the new movie
+     * @return a movie with the new genre
+     */
+    public Movie withGenre(Genre newGenre) {
+        return new Movie(title, key, newGenre, Genre.mask(newGenre), rating);
+    }
+    
+    /**
+     * Returns a movie with the same title and rating as this movie but 
+     * new genres.
+     * 
+     * @param newGenre the main genre description of the new movie
+     * @param otherGenres the other genres of the new movie
+     * @return a movie with the new genres
+     */
+    public Movie withGenres(Genre newGenre, Collection<Genre> otherGenres) {
+        return new Movie(title, key, newGenre, 
+                         Genre.mask(newGenre) | Genre.mask(otherGenres), rating);
+    }
+    
+    /**
+     * Returns a movie with the same title and genres as this movie but a 
+     * new rating.
+     * 
+     * @param newRating the rating of the new movie, from 0 to 
+     *                  {@link #MAX_RATING}, or {@link #UNRATED}
+     * @return a movie with the new rating
+     * @throws IllegalArgumentException if the rating is out of range
+     */
+    public Movie withRating(double newRating) {
+        return new Movie(title, key, genre, genres, checkRating(newRating));
     }
     
     /**
@@ -55,16 +246,32 @@ public class Movie implements Comparable<Movie> {
      */
     @Override
     public String toString() {
-        return new StringBuilder()
+        StringBuilder sb = new StringBuilder()
                 .append(getGenre())
                 .append(" - ")
-                .append(getTitle())
-                .toString();
+                .append(getTitle());
+        
+        // the other genres follow the title
+        Set<Genre> others = getGenres();
+        others.remove(genre);
+        if (!others.isEmpty()) {
+            String separator = " (";
+            for (Genre other : others) {
+                sb.append(separator).append(other.toString().trim());
+                separator = ", ";
+            }
+            sb.append(')');
+        }
+        if (isRated()) {
+            sb.append(" [").append(rating).append(']');
+        }
+        return sb.toString();
     }
     
     /**
      * Compares Strings of this movie's title with the specified movie's 
-     * title for order.
+     * title for order. The titles are compared ignoring case, and only 
+     * titles that are equal ignoring case are compared by case.
      * 
      * @param movie the specified Movie object
      * @return      a negative integer, zero, or a positive integer as this object 
@@ -73,7 +280,8 @@ public class Movie implements Comparable<Movie> {
     @Override
     public int compareTo(Movie movie) {
         Objects.requireNonNull(movie);
-        return this.title.compareTo(movie.title);
+        int c = this.key.compareTo(movie.key);
+        return c != 0 ? c : this.title.compareTo(movie.title);
     }
 
     @Override
@@ -85,10 +293,45 @@ public class Movie implements Comparable<Movie> {
         if (obj instanceof Movie) {
             Movie that = (Movie) obj;
             
-            return this.genre == that.genre &&
-                   Objects.equals(this.title, that.title);
+            return this.hash == that.hash &&
+                   this.genre == that.genre &&
+                   this.genres == that.genres &&
+                   Double.compare(this.rating, that.rating) == 0 &&
+                   this.title.equals(that.title);
         }
         
         return false;
     }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+    
+    private static double checkRating(double rating) {
+        if (rating < 0 || rating > MAX_RATING) {
+            throw new IllegalArgumentException("rating must be from 0 to " + MAX_RATING);
+        }
+        return rating;
+    }
+    
+    /**
+     * Folds a title to one case, with the same folding as 
+     * {@code String.equalsIgnoreCase}.
+     */
+    static String fold(String title) {
+        char[] folded = new char[title.length()];
+        for (int i = 0; i < folded.length; i++) {
+            folded[i] = fold(title.charAt(i));
+        }
+        return new String(folded);
+    }
+    
+    /**
+     * Folds one character of a title to one case, as {@link #fold(String)} 
+     * folds every character.
+     */
+    static char fold(char c) {
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
 }
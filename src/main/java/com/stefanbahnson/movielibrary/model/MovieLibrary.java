@@ -1,18 +1,30 @@
 package com.stefanbahnson.movielibrary.model;
 
-import static com.stefanbahnson.movielibrary.model.Movie.BY_GENRE;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Represents a library of {@code Movie}s. There are options for adding, 
  * removing, editing, sorting and filtering the library.<p>
  * 
  * To add to the library, a movie with set descriptions is required. 
- * Pre existing movies can have their descriptions edited but the library 
- * can not create a new movie.<p>
+ * Pre existing movies can have their descriptions edited through the 
+ * library, which replaces them with edited movies. Movies can not be 
+ * changed behind the back of the library.<p>
  * 
  * By default the movies are sorted by their title in ascending 
  * alphabetical order. 
@@ -21,17 +33,87 @@ import java.util.List;
  * is provided.<p>
  * 
  * There ia also an option for checking for duplicate movies with the 
- * same unique title.
+ * same unique title.<p>
+ * 
+ * How the movies are held is left to the implementations. An 
+ * {@code IndexedMovieLibrary} holds them as objects with an index for 
+ * every query, a {@code CompactMovieLibrary} holds them in a few large 
+ * arrays, a {@code ShardedMovieLibrary} splits them between several 
+ * libraries, and a {@code ConcurrentMovieLibrary} makes any of them safe 
+ * to use from many threads.
  * 
  * @author Stefan Bahnson
  */
-public class MovieLibrary {
+public abstract class MovieLibrary {
+    /**
+     * The largest edit distance a fuzzy search allows for each word. A 
+     * larger distance would find nearly every word of the library.
+     */
+    public static final int MAX_FUZZY_DISTANCE = 2;
+    
+    /**
+     * The genres in the order {@link Movie#BY_GENRE} sorts them.
+     */
+    static final Genre[] GENRES_BY_NAME = Genre.values();
+    
+    static {
+        Arrays.sort(GENRES_BY_NAME, new Comparator<Genre>() {
+            @Override
+            public int compare(Genre g1, Genre g2) {
+                return g1.name().compareTo(g2.name());
+            }
+        });
+    }
+    
+    /**
+     * Returns a new library with the same movies as this library. 
+     * Changes to either library do not affect the other.
+     * 
+     * @return a copy of this library
+     */
+    abstract MovieLibrary copy();
+    
+    /**
+     * Makes a change that was made to another library with the same movies
+     * to this library as well, without recording an operation. The movie
+     * that was taken out is replaced by the movie that was put in, so both
+     * libraries hold the very same movies afterwards.
+     * 
+     * @param removed the movie taken out, or {@code null} if one was added
+     * @param added the movie put in, or {@code null} if one was removed
+     */
+    abstract void apply(Movie removed, Movie added);
+    
+    /**
+     * Adds several movies that were added to another library with the same
+     * movies to this library as well, as by {@link #addAll(Collection)},
+     * without recording an operation.
+     * 
+     * @return the number of movies added
+     */
+    abstract int applyAll(Collection<Movie> movies);
+    
+    /**
+     * Builds every index that is otherwise built by the first query that 
+     * needs it, so that no query waits for it. A library that builds every 
+     * index as it is filled does nothing.
+     */
+    void buildIndexes() {
+    }
+    
     /**
-     * Holds the library of movies.<p>
+     * Returns the key a title is indexed by. Two titles have the same key 
+     * if, and only if, they are equal ignoring case.
      * 
-     * This class guarantee that this list will always be sorted.
+     * @param movieTitle title description of a movie
+     * @return the case-folded title or {@code null} if no title is provided
      */
-    private final List<Movie> list = new ArrayList();
+    public static String normalize(String movieTitle) {
+        if (movieTitle == null) {
+            return null;
+        }
+        return Movie.fold(movieTitle);
+    }
     
     /**
      * Matches a provided movie title to a movie title in the library to
@@ -40,59 +122,118 @@ public class MovieLibrary {
      * @param movieTitle title description of a movie
      * @return {@code true} if a duplicate is found and {@code false} if none.
      */
-    public boolean findDuplicate(String movieTitle) {
-        for (Movie mov : list) {
-            if (mov.getTitle().equalsIgnoreCase(movieTitle)) {
-                return true;
-            }
-        }
-        return false;
-    }
+    public abstract boolean findDuplicate(String movieTitle);
     
     /**
-     * Adds a movie with set descriptions to the library.
+     * Adds a movie with set descriptions to the library. The library can 
+     * only contain one movie per title, which is not case-sensitive.
      * 
      * @param movie represents a movie with a given title and genre
+     * @return {@code true} if the movie was added and {@code false} if 
+     *         the library already contains the title
      */
-    public void addMovie(Movie movie) {
-        list.add(movie);
-        Collections.sort(list);
-    }
+    public abstract boolean addMovie(Movie movie);
     
     /**
-     * Removes a movie from the library if the provided movie title matches 
-     * a movie title in the library. The titles must match exactly but is not
-     * case-sensitive.<p>
+     * Adds several movies with set descriptions to the library at once. 
+     * Movies with a title already in the library, or given more than once, 
+     * are skipped.
      * 
-     * @param movieTitle title description of a movie
+     * @param movies movies with a given title and genre
+     * @return the number of movies added to the library
      */
-    public void removeMovie(Movie movie) {
-        for (Iterator<Movie> itr = list.iterator(); itr.hasNext();) {
-            Movie mov = itr.next();
-            if (mov.equals(movie)) {
-                itr.remove();
-            }
-        }
-        Collections.sort(list);
-    }
+    public abstract int addAll(Collection<Movie> movies);
     
     /**
-     * Returns all movies that has the same genre as the one provided.
-     * These movies can only be viewed and not modified.
+     * Gives a movie in the library a new title. The new title must not 
+     * belong to another movie in the library, which is not case-sensitive.<p>
+     * 
+     * The movie is replaced by a movie with the new title, which keeps the 
+     * library sorted and its indexes intact.
+     * 
+     * @param movie a movie in the library
+     * @param newTitle the new title description of the movie
+     * @return the renamed movie, or {@code null} if the movie is not in 
+     *         the library or the title is taken
+     */
+    public abstract Movie renameMovie(Movie movie, String newTitle);
+    
+    /**
+     * Changes the genre of a movie in the library. The new genre replaces 
+     * all genres of the movie.<p>
+     * 
+     * The movie is replaced by a movie with the new genre, which keeps the 
+     * library sorted and its indexes intact.
+     * 
+     * @param movie a movie in the library
+     * @param newGenre the new genre description of the movie
+     * @return the movie with the new genre, or {@code null} if the movie 
+     *         is not in the library
+     */
+    public abstract Movie changeGenre(Movie movie, Genre newGenre);
+    
+    /**
+     * Changes the genres of a movie in the library.<p>
+     * 
+     * The movie is replaced by a movie with the new genres, which keeps the 
+     * library sorted and its indexes intact.
+     * 
+     * @param movie a movie in the library
+     * @param newGenre the new main genre description of the movie
+     * @param otherGenres the other new genres of the movie
+     * @return the movie with the new genres, or {@code null} if the movie 
+     *         is not in the library
+     */
+    public abstract Movie changeGenres(Movie movie, Genre newGenre, Collection<Genre> otherGenres);
+    
+    /**
+     * Rates a movie in the library, replacing any rating it has.<p>
+     * 
+     * The movie is replaced by a movie with the new rating, which keeps the 
+     * library sorted and its indexes intact.
+     * 
+     * @param movie a movie in the library
+     * @param rating the new rating of the movie, from 0 to 
+     *               {@link Movie#MAX_RATING}, or {@link Movie#UNRATED} to 
+     *               remove its rating
+     * @return the movie with the new rating, or {@code null} if the movie 
+     *         is not in the library
+     * @throws IllegalArgumentException if the rating is out of range
+     */
+    public abstract Movie rateMovie(Movie movie, double rating);
+    
+    /**
+     * Removes a movie from the library if it is equal to the provided movie, 
+     * that is if both the title and genre are the same.
+     * 
+     * @param movie represents a movie with a given title and genre
+     * @return {@code true} if the movie was removed and {@code false} if 
+     *         the library does not contain it
+     */
+    public abstract boolean removeMovie(Movie movie);
+    
+    /**
+     * Returns all movies that has the same genre as the one provided, as 
+     * their main genre or otherwise, sorted by title. These movies can 
+     * only be viewed and not modified.
      *  
      * @param genre genre description of a movie
      * @return an unmodifiable partial view of the library
      */
-    public List<Movie> getByGenre(Genre genre) {
-        List<Movie> currentGenreList = new ArrayList();
-                
-        for (Movie movie : list) {
-            if (movie.getGenre().name().equalsIgnoreCase(genre.name())) {
-                currentGenreList.add(movie);
-            }
-        }
-        return Collections.unmodifiableList(currentGenreList);
-    }
+    public abstract List<Movie> getByGenre(Genre genre);
+    
+    /**
+     * Returns all movies that has every one of the required genres and none 
+     * of the excluded genres, sorted by title.<p>
+     * 
+     * i.e. ACTION and COMEDY but not HORROR is found by requiring 
+     * <b>[ACTION, COMEDY]</b> and excluding <b>[HORROR]</b>
+     * 
+     * @param required the genres every movie must have, none for any genre
+     * @param excluded the genres no movie may have
+     * @return a new List of the selected movies
+     */
+    public abstract List<Movie> getByGenres(Set<Genre> required, Set<Genre> excluded);
     
     /**
      * Returns all movies that has a title which matches the query.<p>
@@ -100,23 +241,107 @@ public class MovieLibrary {
      * The exact characther sequence of the query is matched to parts 
      * of a movie title in that specific order. The query can contain a 
      * single character. If none, the whole library will be matched.
-     * The match is not case-sensitive!<p>
+     * The match is not case-sensitive and characters with a special 
+     * meaning in regular expressions are matched literally!<p>
      * 
      * i.e. <b>[rd of the ri]</b> will match Lo<b>[rd of the Ri]</b>ngs
      * 
      * @param query a characther sequence of any sort
      * @return a new List of all the matches movies
      */
-    public List<Movie> getMovieMatches(String query) {
-        List<Movie> movieMatches = new ArrayList();
-                
-        for (Movie mov : list) {
-            if (mov.getTitle().matches("(?i).*" + query + ".*")) {
-                movieMatches.add(mov);
-            }
-        }
-        return movieMatches;
-    }
+    public abstract List<Movie> getMovieMatches(String query);
+    
+    /**
+     * Returns the movies that has a title which nearly matches the query, 
+     * best match first. This finds titles even if the query is misspelled.<p>
+     * 
+     * Every word of the query must be within an edit distance of a word of 
+     * the title, that is the number of characters that must be inserted, 
+     * removed or replaced to make the words equal. The match is not 
+     * case-sensitive. Movies are ranked by the sum of those distances and 
+     * then by title.<p>
+     * 
+     * i.e. <b>godfater</b> will match <b>The Godfather</b> with a distance 
+     * of 1
+     * 
+     * @param query one or more words
+     * @param maxDistance the largest edit distance allowed for each word
+     * @param limit the largest number of movies to return
+     * @return a new List of the best matched movies
+     * @throws IllegalArgumentException if the distance is negative or above 
+     *         {@link #MAX_FUZZY_DISTANCE}, or the limit is negative
+     */
+    public abstract List<Movie> getFuzzyMatches(String query, int maxDistance, int limit);
+    
+    /**
+     * Returns the movies that has a title which starts with the prefix, to 
+     * complete a title that is being typed. The match is not 
+     * case-sensitive and the movies are sorted by title, ignoring case.<p>
+     * 
+     * The movies are found by a binary search of the library, so the time 
+     * taken depends on the number of movies returned rather than the size 
+     * of the library.
+     * 
+     * @param prefix the start of a title
+     * @param limit the largest number of movies to return
+     * @return a new List of the completed movies
+     * @throws IllegalArgumentException if the limit is negative
+     */
+    public abstract List<Movie> suggest(String prefix, int limit);
+    
+    /**
+     * Returns all movies rated from a lowest to a highest rating, both 
+     * included, best rated first.<p>
+     * 
+     * i.e. the movies rated <b>between 7.5 and 9</b>
+     * 
+     * @param minRating the lowest rating
+     * @param maxRating the highest rating
+     * @return a new List of the rated movies
+     * @throws IllegalArgumentException if a rating is not a number
+     */
+    public abstract List<Movie> getByRating(double minRating, double maxRating);
+    
+    /**
+     * Returns the best rated movies of a genre, or of the whole library, 
+     * best rated first. Movies that have not been rated are left out.
+     * 
+     * @param genre genre description of a movie, as its main genre or 
+     *              otherwise, or {@code null} for any genre
+     * @param limit the largest number of movies to return
+     * @return a new List of the best rated movies
+     * @throws IllegalArgumentException if the limit is negative
+     */
+    public abstract List<Movie> getTopRated(Genre genre, int limit);
+    
+    /**
+     * Picks a movie in the library at random, every movie as likely as 
+     * any other.
+     * 
+     * @return a random movie, or {@code null} if the library is empty
+     */
+    public abstract Movie randomMovie();
+    
+    /**
+     * Picks a movie of a genre at random, as its main genre or otherwise, 
+     * every movie of the genre as likely as any other.
+     * 
+     * @param genre genre description of a movie
+     * @return a random movie of the genre, or {@code null} if the genre 
+     *         has no movies
+     */
+    public abstract Movie randomMovie(Genre genre);
+    
+    /**
+     * Picks a rated movie in the library at random, with a chance in 
+     * proportion to its rating. A movie rated 8 is picked twice as often 
+     * as a movie rated 4, and movies rated 0 or not rated are never 
+     * picked.
+     * 
+     * @return a random rated movie, or {@code null} if no movie is rated 
+     *         above 0
+     */
+    public abstract Movie randomRatedMovie();
     
     /**
      * Returns a movie that has the same movie title as the title provided.
@@ -125,14 +350,14 @@ public class MovieLibrary {
      * @param movieTitle title description of a movie
      * @return a movie that has the same movie title as the title provided.
      */
-    public Movie getUniqueMovie(String movieTitle) {
-        for (Movie mov : list) {
-            if (mov.getTitle().equalsIgnoreCase(movieTitle)) {
-                return mov;
-            }
-        }
-        return null;
-    }
+    public abstract Movie getUniqueMovie(String movieTitle);
+    
+    /**
+     * Returns the number of movies in the library, without listing them.
+     * 
+     * @return the number of movies in the library
+     */
+    public abstract int size();
     
     /**
      * Returns all movies in the library sorted by title.
@@ -140,19 +365,262 @@ public class MovieLibrary {
      * 
      * @return all movies in the library sorted by title
      */
-    public List<Movie> getAllByTitle() {
-        return Collections.unmodifiableList(list);
-    }
+    public abstract List<Movie> getAllByTitle();
     
     /**
-     * Returns all movies in the library sorted by genre.
+     * Returns all movies in the library sorted by genre. A movie with 
+     * several genres is listed under each of them.
      * These movies can only be viewed and not modified.
      * 
      * @return All movies in the library sorted by genre
      */
-    public List<Movie> getAllByGenre() {
-        List<Movie> copy = new ArrayList<>(list);
-        Collections.sort(copy, BY_GENRE);
-        return copy;
+    public abstract List<Movie> getAllByGenre();
+    
+    /**
+     * Returns part of the movies in the library sorted by title, without 
+     * copying them. These movies can only be viewed and not modified.
+     * 
+     * @param offset the number of movies to skip
+     * @param limit the largest number of movies to return
+     * @return an unmodifiable partial view of the library
+     */
+    public abstract List<Movie> getAllByTitle(int offset, int limit);
+    
+    /**
+     * Returns part of the movies that has the same genre as the one 
+     * provided, sorted by title, without copying them. These movies can 
+     * only be viewed and not modified.
+     * 
+     * @param genre genre description of a movie
+     * @param offset the number of movies to skip
+     * @param limit the largest number of movies to return
+     * @return an unmodifiable partial view of the library
+     */
+    public abstract List<Movie> getByGenre(Genre genre, int offset, int limit);
+    
+    /**
+     * Returns a page of the movies in the library sorted by title.
+     * 
+     * @param cursor the cursor of the page, or {@code null} for the first 
+     *               page
+     * @param limit the largest number of movies on the page
+     * @return a page of the library
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    public abstract Page getPageByTitle(String cursor, int limit);
+    
+    /**
+     * Returns a page of the movies that has the same genre as the one 
+     * provided, sorted by title.
+     * 
+     * @param genre genre description of a movie
+     * @param cursor the cursor of the page, or {@code null} for the first 
+     *               page
+     * @param limit the largest number of movies on the page
+     * @return a page of the library
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    public abstract Page getPageByGenre(Genre genre, String cursor, int limit);
+    
+    /**
+     * Returns a page of the movies that has a title which matches the 
+     * query, sorted by title. The query is matched as by 
+     * {@link #getMovieMatches(String)}.<p>
+     * 
+     * The page is found by reading the library from the cursor until the 
+     * page is full, so no more than a page of matches is ever held.
+     * 
+     * @param query a characther sequence of any sort
+     * @param cursor the cursor of the page, or {@code null} for the first 
+     *               page
+     * @param limit the largest number of movies on the page
+     * @return a page of the matches
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    public abstract Page getMatchPage(String query, String cursor, int limit);
+    
+    /**
+     * Returns a lazy stream of all movies in the library sorted by title.
+     * 
+     * @return a sequential stream of the library
+     */
+    public Stream<Movie> streamByTitle() {
+        return getAllByTitle().stream();
+    }
+    
+    /**
+     * Returns a lazy stream of all movies that has the same genre as the 
+     * one provided, sorted by title.
+     * 
+     * @param genre genre description of a movie
+     * @return a sequential stream of part of the library
+     */
+    public Stream<Movie> streamByGenre(Genre genre) {
+        return getByGenre(genre).stream();
+    }
+    
+    /**
+     * Returns a lazy stream of all movies that has a title which matches 
+     * the query, sorted by title. The query is matched as by 
+     * {@link #getMovieMatches(String)}, but only as far as the stream is 
+     * read, which makes it the better choice for the first few matches.
+     * 
+     * @param query a characther sequence of any sort
+     * @return a sequential stream of the matches
+     */
+    public Stream<Movie> streamMovieMatches(String query) {
+        return streamByTitle().filter(
+                movie -> TitleSearchIndex.containsIgnoreCase(movie.getTitle(), query));
+    }
+    
+    /**
+     * Returns the number of entries in each index of the library, by the 
+     * name of the index.
+     * 
+     * @return the sizes of the indexes
+     */
+    public abstract Map<String, Integer> getIndexSizes();
+    
+    /**
+     * Returns the hits, misses, evictions and size of the cache of search 
+     * results, by name, or nothing for a library without such a cache.
+     * 
+     * @return the statistics of the search cache
+     */
+    public Map<String, Long> getCacheStats() {
+        return Collections.emptyMap();
+    }
+    
+    /**
+     * Checks the distance and limit of a fuzzy search.
+     * 
+     * @throws IllegalArgumentException if the distance is negative or above 
+     *         {@link #MAX_FUZZY_DISTANCE}, or the limit is negative
+     */
+    static void checkFuzzy(int maxDistance, int limit) {
+        if (maxDistance < 0 || maxDistance > MAX_FUZZY_DISTANCE) {
+            throw new IllegalArgumentException(
+                    "distance must be from 0 to " + MAX_FUZZY_DISTANCE);
+        }
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must not be negative");
+        }
+    }
+    
+    /**
+     * Returns a random movie of a list, or {@code null} if it is empty.
+     */
+    static Movie random(List<Movie> movies) {
+        int size = movies.size();
+        return size == 0 ? null : movies.get(ThreadLocalRandom.current().nextInt(size));
+    }
+    
+    /**
+     * Returns an unmodifiable view of part of a list.
+     */
+    static List<Movie> range(List<Movie> sorted, int offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("offset and limit must not be negative");
+        }
+        int from = Math.min(offset, sorted.size());
+        int to = (int) Math.min((long) from + limit, sorted.size());
+        return Collections.unmodifiableList(sorted.subList(from, to));
+    }
+    
+    /**
+     * Returns a page of a sorted list, starting after the movie the cursor 
+     * was made from.
+     * 
+     * @param sorted a list sorted by title
+     * @param query a query the movies must match, or {@code null}
+     * @param cursor the cursor of the page, or {@code null}
+     * @param limit the largest number of movies on the page
+     */
+    static Page page(List<Movie> sorted, String query, String cursor, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        int from = 0;
+        if (cursor != null) {
+            Movie last = new Movie(Page.titleOf(cursor), Genre.ACTION);
+            int index = Collections.binarySearch(sorted, last);
+            from = index < 0 ? -(index + 1) : index + 1;
+        }
+        
+        List<Movie> movies = new ArrayList<>(Math.min(limit, 1024));
+        int i = from;
+        for (; i < sorted.size() && movies.size() < limit; i++) {
+            Movie movie = sorted.get(i);
+            if (query == null 
+                    || TitleSearchIndex.containsIgnoreCase(movie.getTitle(), query)) {
+                movies.add(movie);
+            }
+        }
+        boolean more = i < sorted.size() && !movies.isEmpty();
+        return new Page(movies, more ? Page.cursorAfter(movies.get(movies.size() - 1)) : null);
+    }
+    
+    /**
+     * Returns a lazy stream of the movies of a listing, read a page at a 
+     * time as the stream is read.
+     * 
+     * @param pages reads the page of the listing at a cursor
+     */
+    static Stream<Movie> stream(final Function<String, Page> pages) {
+        Spliterator<Movie> movies = new Spliterators.AbstractSpliterator<Movie>(
+                Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            private Iterator<Movie> page = Collections.emptyIterator();
+            private String cursor;
+            private boolean last;
+            
+            @Override
+            public boolean tryAdvance(Consumer<? super Movie> action) {
+                while (!page.hasNext()) {
+                    if (last) {
+                        return false;
+                    }
+                    Page next = pages.apply(cursor);
+                    page = next.getMovies().iterator();
+                    cursor = next.getNextCursor();
+                    last = cursor == null;
+                }
+                action.accept(page.next());
+                return true;
+            }
+        };
+        return StreamSupport.stream(movies, false);
+    }
+    
+    /**
+     * Returns the first movies of a list sorted by title that has a title 
+     * which starts with the prefix, which is not case-sensitive.
+     * 
+     * @param sorted a list sorted by title
+     * @param prefix the start of a title
+     * @param limit the largest number of movies to return
+     */
+    static List<Movie> complete(List<Movie> sorted, String prefix, int limit) {
+        String key = normalize(prefix);
+        // the first movie with a key not below the prefix
+        int low = 0;
+        int high = sorted.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted.get(mid).getKey().compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        
+        List<Movie> movies = new ArrayList<>(Math.min(limit, 64));
+        for (int i = low; i < sorted.size() && movies.size() < limit; i++) {
+            Movie movie = sorted.get(i);
+            if (!movie.getKey().startsWith(key)) {
+                break;
+            }
+            movies.add(movie);
+        }
+        return movies;
     }
-}
\ No newline at end of file
+}
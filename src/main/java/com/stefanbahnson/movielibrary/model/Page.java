@@ -0,0 +1,59 @@
+package com.stefanbahnson.movielibrary.model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Represents one page of movies from a sorted listing of the library, and
+ * where the next page starts.<p>
+ *
+ * The cursor of the next page is an opaque string that marks a position in
+ * the sort order rather than an offset, so a listing can be paged through
+ * while movies are added or removed without skipping or repeating a movie.
+ */
+public final class Page {
+    private final List<Movie> movies;
+    private final String nextCursor;
+
+    Page(List<Movie> movies, String nextCursor) {
+        this.movies = Collections.unmodifiableList(movies);
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Returns the movies on this page. These movies can only be viewed and
+     * not modified.
+     */
+    public List<Movie> getMovies() {
+        return movies;
+    }
+
+    /**
+     * Returns the cursor that fetches the page after this one.
+     *
+     * @return the cursor of the next page, or {@code null} if this is the
+     *         last page
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * Returns the cursor of a page that starts after a movie.
+     */
+    static String cursorAfter(Movie movie) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(
+                movie.getTitle().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the title of the movie a cursor was made from.
+     *
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    static String titleOf(String cursor) {
+        return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,132 @@
+package com.stefanbahnson.movielibrary.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of search results, which evicts the least recently used
+ * result when it is full.<p>
+ *
+ * Every result is stored with the version of the library it was found in.
+ * A result from an older version is never returned, so the library only has
+ * to count its versions to invalidate the whole cache.<p>
+ *
+ * The cache is safe to use from many threads, and reading it never locks.
+ * Each result remembers when it was last used, to the nearest millisecond
+ * or so, and a result that overfills the cache evicts the one used longest
+ * ago, found by a scan of the results. Eviction is therefore only about as
+ * exact as the clock, and costs time in proportion to the capacity, which
+ * is paid by a search that was not cached.
+ */
+final class QueryCache {
+    /**
+     * Results with more movies than this are not cached, since copying
+     * them costs about as much as finding them.
+     */
+    static final int MAX_RESULT_SIZE = 4096;
+
+    /**
+     * How long a result may go without recording a use, in nanoseconds,
+     * so the results of popular queries are not written on every hit.
+     */
+    private static final long USE_RESOLUTION = 1000000;
+
+    private final int capacity;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param capacity the largest number of results to hold
+     */
+    QueryCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the result of a query found in a version of the library.
+     *
+     * @param key the query
+     * @param version the current version of the library
+     * @return the cached result, or {@code null} if there is none for that
+     *         version
+     */
+    List<Movie> get(String key, long version) {
+        Entry entry = entries.get(key);
+        if (entry == null || entry.version != version) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        long now = System.nanoTime();
+        if (now - entry.lastUsed > USE_RESOLUTION) {
+            entry.lastUsed = now;
+        }
+        return entry.movies;
+    }
+
+    /**
+     * Caches the result of a query found in a version of the library.
+     *
+     * @param key the query
+     * @param version the version of the library the result was found in
+     * @param movies the result, which is copied
+     */
+    void put(String key, long version, List<Movie> movies) {
+        if (movies.size() > MAX_RESULT_SIZE || capacity < 1) {
+            return;
+        }
+        entries.put(key, new Entry(version,
+                Collections.unmodifiableList(new ArrayList<>(movies))));
+        while (entries.size() > capacity) {
+            evictEldest();
+        }
+    }
+
+    /**
+     * Returns the hits, misses, evictions and size of the cache, by name.
+     */
+    Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("hits", hits.sum());
+        stats.put("misses", misses.sum());
+        stats.put("evictions", evictions.sum());
+        stats.put("size", (long) entries.size());
+        return stats;
+    }
+
+    /**
+     * Removes the result used longest ago, unless another thread removes
+     * it first.
+     */
+    private void evictEldest() {
+        Map.Entry<String, Entry> eldest = null;
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (eldest == null || entry.getValue().lastUsed - eldest.getValue().lastUsed < 0) {
+                eldest = entry;
+            }
+        }
+        if (eldest != null && entries.remove(eldest.getKey(), eldest.getValue())) {
+            evictions.increment();
+        }
+    }
+
+    private static final class Entry {
+        final long version;
+        final List<Movie> movies;
+        volatile long lastUsed = System.nanoTime();
+
+        Entry(long version, List<Movie> movies) {
+            this.version = version;
+            this.movies = movies;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.stefanbahnson.movielibrary.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * Holds the rated movies of a library sorted by rating, best first, for
+ * queries by rating.<p>
+ *
+ * The movies are held in balanced trees, one over every rated movie and
+ * one for each genre. A range of ratings or the best rated movies are
+ * then found by a single descent of a tree followed by a walk over the
+ * movies returned, so neither query reads the rest of the library.<p>
+ *
+ * Every rated movie also has a slot in a {@code WeightedSampler}, weighted
+ * by its rating, so a movie can be picked at random with the best rated
+ * movies the most likely.
+ */
+final class RatingIndex {
+    private final NavigableSet<Movie> all = new TreeSet<>(Movie.BY_RATING);
+    private final Map<Genre, NavigableSet<Movie>> byGenre = new EnumMap<>(Genre.class);
+    private final WeightedSampler sampler = new WeightedSampler();
+    private final Map<String, Integer> slots = new HashMap<>();
+    private Movie[] slotted = new Movie[16];
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private int slotCount;
+
+    RatingIndex() {
+        for (Genre genre : Genre.values()) {
+            byGenre.put(genre, new TreeSet<>(Movie.BY_RATING));
+        }
+    }
+
+    /**
+     * Adds a movie to the index if it has been rated.
+     */
+    void add(Movie movie) {
+        if (!movie.isRated()) {
+            return;
+        }
+        all.add(movie);
+        for (Genre genre : Genre.values()) {
+            if (movie.hasGenre(genre)) {
+                byGenre.get(genre).add(movie);
+            }
+        }
+
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            slot = slotCount++;
+            if (slot == slotted.length) {
+                slotted = Arrays.copyOf(slotted, slot * 2);
+            }
+        }
+        slotted[slot] = movie;
+        slots.put(movie.getKey(), slot);
+        sampler.set(slot, WeightedSampler.weight(movie.getRating()));
+    }
+
+    /**
+     * Removes a movie from the index.
+     */
+    void remove(Movie movie) {
+        if (!movie.isRated()) {
+            return;
+        }
+        all.remove(movie);
+        for (Genre genre : Genre.values()) {
+            if (movie.hasGenre(genre)) {
+                byGenre.get(genre).remove(movie);
+            }
+        }
+
+        Integer slot = slots.remove(movie.getKey());
+        if (slot != null) {
+            slotted[slot] = null;
+            sampler.set(slot, 0);
+            if (freeCount == freeSlots.length) {
+                freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+            }
+            freeSlots[freeCount++] = slot;
+        }
+    }
+
+    /**
+     * Returns the movies rated from a lowest to a highest rating, both
+     * included, best first.
+     *
+     * @param min the lowest rating
+     * @param max the highest rating
+     * @return a new List of the movies
+     */
+    List<Movie> range(double min, double max) {
+        List<Movie> movies = new ArrayList<>();
+        if (max < 0 || min > max) {
+            return movies;
+        }
+        // the first movie rated max, as no title is below the empty title
+        Movie from = new Movie("", Genre.ACTION, 0, Math.min(max, Movie.MAX_RATING));
+        for (Movie movie : all.tailSet(from, true)) {
+            if (movie.getRating() < min) {
+                break;
+            }
+            movies.add(movie);
+        }
+        return movies;
+    }
+
+    /**
+     * Returns the best rated movies, best first.
+     *
+     * @param genre the genre of the movies, or {@code null} for any genre
+     * @param limit the largest number of movies to return
+     * @return a new List of the movies
+     */
+    List<Movie> top(Genre genre, int limit) {
+        List<Movie> movies = new ArrayList<>(Math.min(limit, 1024));
+        for (Movie movie : genre == null ? all : byGenre.get(genre)) {
+            if (movies.size() == limit) {
+                break;
+            }
+            movies.add(movie);
+        }
+        return movies;
+    }
+
+    /**
+     * Picks a rated movie at random, with a chance in proportion to its
+     * rating.
+     *
+     * @return the movie, or {@code null} if no movie is rated above zero
+     */
+    Movie random() {
+        int slot = sampler.pick();
+        return slot < 0 ? null : slotted[slot];
+    }
+
+    /**
+     * Returns the number of rated movies.
+     */
+    int size() {
+        return all.size();
+    }
+}
@@ -0,0 +1,63 @@
+package com.stefanbahnson.movielibrary.model;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Counts the readers that are reading a library, so that a writer can wait
+ * until every one of them is done without the readers ever locking.<p>
+ *
+ * Each thread counts itself in a slot picked by its id, so a reader always
+ * leaves the slot it arrived in, and readers on different threads seldom
+ * write to the same cache line. The indicator is empty when every slot is.
+ */
+final class ReadIndicator {
+    /**
+     * The number of slots, a power of two.
+     */
+    private static final int SLOTS = Integer.highestOneBit(
+            Math.max(16, Runtime.getRuntime().availableProcessors() * 4));
+
+    /**
+     * The distance between two slots, which puts each in a cache line of
+     * its own.
+     */
+    private static final int SPACING = 16;
+
+    private final AtomicLongArray counts = new AtomicLongArray(SLOTS * SPACING);
+
+    /**
+     * Counts the calling thread as a reader.
+     */
+    void arrive() {
+        counts.getAndIncrement(slot());
+    }
+
+    /**
+     * Stops counting the calling thread as a reader, once for every time
+     * it arrived.
+     */
+    void depart() {
+        counts.getAndDecrement(slot());
+    }
+
+    /**
+     * Waits until every reader that was counted has departed. New readers
+     * must be sent elsewhere first, or the wait may never end.
+     */
+    void await() {
+        for (int slot = 0; slot < SLOTS * SPACING; slot += SPACING) {
+            for (int spins = 0; counts.get(slot) != 0; spins++) {
+                if (spins < 100) {
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(10000);
+                }
+            }
+        }
+    }
+
+    private static int slot() {
+        return ((int) Thread.currentThread().getId() & (SLOTS - 1)) * SPACING;
+    }
+}
@@ -0,0 +1,401 @@
+package com.stefanbahnson.movielibrary.model;
+
+import com.stefanbahnson.movielibrary.metrics.LibraryMetrics;
+import com.stefanbahnson.movielibrary.metrics.Operation;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A read-only library that answers queries from a sorted list of movies
+ * without any index, so it can answer them as soon as the movies are
+ * read.<p>
+ *
+ * Titles are looked up and completed by a binary search of the list, and
+ * every other query scans it. This takes time in proportion to the size of
+ * the library, which serves a {@code ConcurrentMovieLibrary} while the
+ * indexes of its movies are built. Any change to the library is refused.
+ */
+final class ScanMovieLibrary extends MovieLibrary {
+    private final List<Movie> movies;
+
+    /**
+     * Creates a library of movies.
+     *
+     * @param movies the movies, sorted by title, which must not be changed
+     *               from then on
+     */
+    ScanMovieLibrary(List<Movie> movies) {
+        this.movies = movies;
+    }
+
+    @Override
+    public boolean findDuplicate(String movieTitle) {
+        long start = LibraryMetrics.start();
+        try {
+            return find(movieTitle) != null;
+        } finally {
+            LibraryMetrics.record(Operation.FIND_DUPLICATE, start);
+        }
+    }
+
+    @Override
+    public boolean addMovie(Movie movie) {
+        throw readOnly();
+    }
+
+    @Override
+    public int addAll(Collection<Movie> movies) {
+        throw readOnly();
+    }
+
+    @Override
+    public Movie renameMovie(Movie movie, String newTitle) {
+        throw readOnly();
+    }
+
+    @Override
+    public Movie changeGenre(Movie movie, Genre newGenre) {
+        throw readOnly();
+    }
+
+    @Override
+    public Movie changeGenres(Movie movie, Genre newGenre, Collection<Genre> otherGenres) {
+        throw readOnly();
+    }
+
+    @Override
+    public Movie rateMovie(Movie movie, double rating) {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean removeMovie(Movie movie) {
+        throw readOnly();
+    }
+
+    @Override
+    public List<Movie> getByGenre(Genre genre) {
+        long start = LibraryMetrics.start();
+        try {
+            return Collections.unmodifiableList(ofGenre(genre));
+        } finally {
+            LibraryMetrics.record(Operation.GET_BY_GENRE, start);
+        }
+    }
+
+    @Override
+    public List<Movie> getByGenres(Set<Genre> required, Set<Genre> excluded) {
+        long start = LibraryMetrics.start();
+        int requiredMask = Genre.mask(required);
+        int excludedMask = Genre.mask(excluded);
+        List<Movie> selected = new ArrayList<>();
+        for (Movie movie : movies) {
+            int mask = movie.getGenreMask();
+            if ((mask & requiredMask) == requiredMask && (mask & excludedMask) == 0) {
+                selected.add(movie);
+            }
+        }
+        LibraryMetrics.record(Operation.GET_BY_GENRES, start);
+        return selected;
+    }
+
+    @Override
+    public List<Movie> getMovieMatches(String query) {
+        long start = LibraryMetrics.start();
+        List<Movie> movieMatches = new ArrayList<>();
+        for (Movie movie : movies) {
+            if (TitleSearchIndex.containsIgnoreCase(movie.getTitle(), query)) {
+                movieMatches.add(movie);
+            }
+        }
+        LibraryMetrics.record(Operation.GET_MOVIE_MATCHES, start);
+        LibraryMetrics.recordHits(movieMatches.size());
+        return movieMatches;
+    }
+
+    @Override
+    public List<Movie> getFuzzyMatches(String query, int maxDistance, int limit) {
+        checkFuzzy(maxDistance, limit);
+        long start = LibraryMetrics.start();
+        Set<String> queryWords = FuzzyTitleIndex.words(normalize(query));
+        final Map<Movie, Integer> scores = new HashMap<>();
+        if (!queryWords.isEmpty()) {
+            for (Movie movie : movies) {
+                int score = FuzzyTitleIndex.score(queryWords, movie.getKey(), maxDistance);
+                if (score >= 0) {
+                    scores.put(movie, score);
+                }
+            }
+        }
+
+        List<Movie> movieMatches = new ArrayList<>(scores.keySet());
+        Collections.sort(movieMatches, new Comparator<Movie>() {
+            @Override
+            public int compare(Movie m1, Movie m2) {
+                int c = Integer.compare(scores.get(m1), scores.get(m2));
+                return c != 0 ? c : m1.compareTo(m2);
+            }
+        });
+        if (movieMatches.size() > limit) {
+            movieMatches = new ArrayList<>(movieMatches.subList(0, limit));
+        }
+        LibraryMetrics.record(Operation.GET_FUZZY_MATCHES, start);
+        LibraryMetrics.recordHits(movieMatches.size());
+        return movieMatches;
+    }
+
+    @Override
+    public List<Movie> suggest(String prefix, int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must not be negative");
+        }
+        long start = LibraryMetrics.start();
+        List<Movie> suggestions = complete(movies, prefix, limit);
+        LibraryMetrics.record(Operation.SUGGEST, start);
+        return suggestions;
+    }
+
+    @Override
+    public List<Movie> getByRating(double minRating, double maxRating) {
+        if (Double.isNaN(minRating) || Double.isNaN(maxRating)) {
+            throw new IllegalArgumentException("ratings must be numbers");
+        }
+        long start = LibraryMetrics.start();
+        List<Movie> rated = new ArrayList<>();
+        for (Movie movie : movies) {
+            // unrated movies are NaN, which is never in range
+            if (movie.getRating() >= minRating && movie.getRating() <= maxRating) {
+                rated.add(movie);
+            }
+        }
+        Collections.sort(rated, Movie.BY_RATING);
+        LibraryMetrics.record(Operation.GET_BY_RATING, start);
+        LibraryMetrics.recordHits(rated.size());
+        return rated;
+    }
+
+    @Override
+    public List<Movie> getTopRated(Genre genre, int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must not be negative");
+        }
+        long start = LibraryMetrics.start();
+        List<Movie> rated = new ArrayList<>();
+        for (Movie movie : movies) {
+            if (movie.isRated() && (genre == null || movie.hasGenre(genre))) {
+                rated.add(movie);
+            }
+        }
+        Collections.sort(rated, Movie.BY_RATING);
+        if (rated.size() > limit) {
+            rated = new ArrayList<>(rated.subList(0, limit));
+        }
+        LibraryMetrics.record(Operation.GET_TOP_RATED, start);
+        return rated;
+    }
+
+    @Override
+    public Movie randomMovie() {
+        long start = LibraryMetrics.start();
+        try {
+            return random(movies);
+        } finally {
+            LibraryMetrics.record(Operation.RANDOM_MOVIE, start);
+        }
+    }
+
+    @Override
+    public Movie randomMovie(Genre genre) {
+        long start = LibraryMetrics.start();
+        try {
+            return random(ofGenre(genre));
+        } finally {
+            LibraryMetrics.record(Operation.RANDOM_MOVIE, start);
+        }
+    }
+
+    @Override
+    public Movie randomRatedMovie() {
+        long start = LibraryMetrics.start();
+        try {
+            // in a single pass, each rated movie replaces the pick with the
+            // chance of its weight in the weights so far
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            Movie picked = null;
+            long total = 0;
+            for (Movie movie : movies) {
+                long weight = WeightedSampler.weight(movie.getRating());
+                total += weight;
+                if (weight > 0 && random.nextLong(total) < weight) {
+                    picked = movie;
+                }
+            }
+            return picked;
+        } finally {
+            LibraryMetrics.record(Operation.RANDOM_MOVIE, start);
+        }
+    }
+
+    @Override
+    public Movie getUniqueMovie(String movieTitle) {
+        long start = LibraryMetrics.start();
+        try {
+            return find(movieTitle);
+        } finally {
+            LibraryMetrics.record(Operation.GET_UNIQUE_MOVIE, start);
+        }
+    }
+
+    @Override
+    public int size() {
+        return movies.size();
+    }
+
+    @Override
+    public List<Movie> getAllByTitle() {
+        long start = LibraryMetrics.start();
+        try {
+            return Collections.unmodifiableList(movies);
+        } finally {
+            LibraryMetrics.record(Operation.GET_ALL_BY_TITLE, start);
+        }
+    }
+
+    @Override
+    public List<Movie> getAllByGenre() {
+        long start = LibraryMetrics.start();
+        List<Movie> byGenre = new ArrayList<>();
+        for (Genre genre : GENRES_BY_NAME) {
+            byGenre.addAll(ofGenre(genre));
+        }
+        LibraryMetrics.record(Operation.GET_ALL_BY_GENRE, start);
+        return Collections.unmodifiableList(byGenre);
+    }
+
+    @Override
+    public List<Movie> getAllByTitle(int offset, int limit) {
+        long start = LibraryMetrics.start();
+        try {
+            return range(movies, offset, limit);
+        } finally {
+            LibraryMetrics.record(Operation.GET_ALL_BY_TITLE, start);
+        }
+    }
+
+    @Override
+    public List<Movie> getByGenre(Genre genre, int offset, int limit) {
+        long start = LibraryMetrics.start();
+        try {
+            return range(ofGenre(genre), offset, limit);
+        } finally {
+            LibraryMetrics.record(Operation.GET_BY_GENRE, start);
+        }
+    }
+
+    @Override
+    public Page getPageByTitle(String cursor, int limit) {
+        long start = LibraryMetrics.start();
+        try {
+            return page(movies, null, cursor, limit);
+        } finally {
+            LibraryMetrics.record(Operation.GET_PAGE, start);
+        }
+    }
+
+    @Override
+    public Page getPageByGenre(Genre genre, String cursor, int limit) {
+        long start = LibraryMetrics.start();
+        try {
+            return page(ofGenre(genre), null, cursor, limit);
+        } finally {
+            LibraryMetrics.record(Operation.GET_PAGE, start);
+        }
+    }
+
+    @Override
+    public Page getMatchPage(String query, String cursor, int limit) {
+        long start = LibraryMetrics.start();
+        try {
+            return page(movies, query, cursor, limit);
+        } finally {
+            LibraryMetrics.record(Operation.GET_PAGE, start);
+        }
+    }
+
+    /**
+     * Returns the number of movies scanned by the queries, as the library
+     * has no index.
+     */
+    @Override
+    public Map<String, Integer> getIndexSizes() {
+        Map<String, Integer> sizes = new LinkedHashMap<>();
+        sizes.put("scanned", movies.size());
+        return sizes;
+    }
+
+    /**
+     * Returns a library of the same movies with every index built.
+     */
+    @Override
+    MovieLibrary copy() {
+        MovieLibrary copy = new IndexedMovieLibrary();
+        copy.addAll(movies);
+        return copy;
+    }
+
+    @Override
+    void apply(Movie removed, Movie added) {
+        throw readOnly();
+    }
+
+    @Override
+    int applyAll(Collection<Movie> movies) {
+        throw readOnly();
+    }
+
+    /**
+     * Returns the movie with a title, found by binary search.
+     */
+    private Movie find(String movieTitle) {
+        String key = normalize(movieTitle);
+        int low = 0;
+        int high = movies.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int c = movies.get(mid).getKey().compareTo(key);
+            if (c < 0) {
+                low = mid + 1;
+            } else if (c > 0) {
+                high = mid - 1;
+            } else {
+                return movies.get(mid);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the movies that has a genre, sorted by title.
+     */
+    private List<Movie> ofGenre(Genre genre) {
+        List<Movie> ofGenre = new ArrayList<>();
+        for (Movie movie : movies) {
+            if (movie.hasGenre(genre)) {
+                ofGenre.add(movie);
+            }
+        }
+        return ofGenre;
+    }
+
+    private static UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException("The library can not be changed");
+    }
+}
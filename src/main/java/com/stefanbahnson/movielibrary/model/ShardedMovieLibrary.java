@@ -0,0 +1,686 @@
+package com.stefanbahnson.movielibrary.model;
+
+import com.stefanbahnson.movielibrary.metrics.LibraryMetrics;
+import com.stefanbahnson.movielibrary.metrics.Operation;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * A {@code MovieLibrary} split into shards by title, so that the work of a
+ * query is shared by every core of the machine.<p>
+ *
+ * Each movie is held by one shard, picked by a hash of its case-folded
+ * title. Every shard is an ordinary library behind a read-write lock of
+ * its own. A change is made to the shard of the movie alone, so it never
+ * holds up readers or writers of the other shards. Only a rename to a
+ * title of another shard locks both shards.<p>
+ *
+ * A query is run on every shard at once in a {@code ForkJoinPool}. The
+ * results of the shards are already sorted, so they are merged in a single
+ * pass through a heap of the first movie of each result, which keeps the
+ * order of the library without sorting it again.<p>
+ *
+ * The library is safe to use from many threads. Since a shard may change
+ * as soon as its lock is released, the lists returned are copies rather
+ * than views of the library.
+ */
+public class ShardedMovieLibrary extends MovieLibrary {
+    private static final Comparator<Movie> BY_TITLE = Comparator.naturalOrder();
+
+    private final MovieLibrary[] shards;
+    private final ReadWriteLock[] locks;
+    private final ForkJoinPool pool;
+
+    /**
+     * The sum of the rating weights of the movies of each shard, for
+     * picking a rated movie at random.
+     */
+    private final AtomicLongArray ratingWeights;
+
+    /**
+     * Creates an empty library with a shard for every processor.
+     */
+    public ShardedMovieLibrary() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates an empty library whose queries are run in the common pool.
+     *
+     * @param shardCount the number of shards
+     * @throws IllegalArgumentException if the number is not positive
+     */
+    public ShardedMovieLibrary(int shardCount) {
+        this(newShards(shardCount), ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a library over empty shards, which must not be used by
+     * anyone else from then on. The shards can be of any kind, such as
+     * {@code CompactMovieLibrary}.
+     *
+     * @param shards the empty libraries that hold the movies
+     * @param pool runs the queries of the shards
+     * @throws IllegalArgumentException if there are no shards or a shard
+     *         is not empty
+     */
+    public ShardedMovieLibrary(List<? extends MovieLibrary> shards, ForkJoinPool pool) {
+        this(checkEmpty(shards), pool);
+    }
+
+    private ShardedMovieLibrary(MovieLibrary[] shards, ForkJoinPool pool) {
+        this.shards = shards;
+        this.pool = pool;
+        this.locks = new ReadWriteLock[shards.length];
+        this.ratingWeights = new AtomicLongArray(shards.length);
+        for (int s = 0; s < shards.length; s++) {
+            locks[s] = new ReentrantReadWriteLock();
+            for (Movie movie : shards[s].getAllByTitle()) {
+                ratingWeights.addAndGet(s, WeightedSampler.weight(movie.getRating()));
+            }
+        }
+    }
+
+    private static MovieLibrary[] newShards(int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("there must be at least one shard");
+        }
+        MovieLibrary[] shards = new MovieLibrary[shardCount];
+        for (int s = 0; s < shardCount; s++) {
+            shards[s] = new IndexedMovieLibrary();
+        }
+        return shards;
+    }
+
+    private static MovieLibrary[] checkEmpty(List<? extends MovieLibrary> shards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("there must be at least one shard");
+        }
+        for (MovieLibrary shard : shards) {
+            if (!shard.getAllByTitle().isEmpty()) {
+                throw new IllegalArgumentException("shards must be empty");
+            }
+        }
+        return shards.toArray(new MovieLibrary[shards.size()]);
+    }
+
+    @Override
+    MovieLibrary copy() {
+        MovieLibrary[] copies = new MovieLibrary[shards.length];
+        for (int s = 0; s < shards.length; s++) {
+            copies[s] = read(s, MovieLibrary::copy);
+        }
+        return new ShardedMovieLibrary(copies, pool);
+    }
+
+    @Override
+    void apply(final Movie removed, final Movie added) {
+        if (removed != null && added != null
+                && shardOf(removed.getKey()) == shardOf(added.getKey())) {
+            final int s = shardOf(added.getKey());
+            write(s, shard -> {
+                shard.apply(removed, added);
+                reweigh(s, removed.getRating(), added.getRating());
+                return null;
+            });
+            return;
+        }
+        if (removed != null) {
+            final int s = shardOf(removed.getKey());
+            write(s, shard -> {
+                shard.apply(removed, null);
+                reweigh(s, removed.getRating(), Movie.UNRATED);
+                return null;
+            });
+        }
+        if (added != null) {
+            final int s = shardOf(added.getKey());
+            write(s, shard -> {
+                shard.apply(null, added);
+                reweigh(s, Movie.UNRATED, added.getRating());
+                return null;
+            });
+        }
+    }
+
+    @Override
+    void buildIndexes() {
+        fanOut(s -> write(s, shard -> {
+            shard.buildIndexes();
+            return null;
+        }));
+    }
+
+    @Override
+    int applyAll(Collection<Movie> movies) {
+        return addAll(movies, MovieLibrary::applyAll);
+    }
+
+    @Override
+    public boolean findDuplicate(final String movieTitle) {
+        return movieTitle != null
+            && read(shardOf(normalize(movieTitle)), shard -> shard.findDuplicate(movieTitle));
+    }
+
+    @Override
+    public boolean addMovie(final Movie movie) {
+        final int s = shardOf(movie.getKey());
+        return write(s, shard -> {
+            boolean added = shard.addMovie(movie);
+            if (added) {
+                reweigh(s, Movie.UNRATED, movie.getRating());
+            }
+            return added;
+        });
+    }
+
+    /**
+     * Adds several movies to the library at once, as by
+     * {@link MovieLibrary#addAll(Collection)}. The movies of each shard are
+     * added at the same time.
+     */
+    @Override
+    public int addAll(Collection<Movie> movies) {
+        return addAll(movies, MovieLibrary::addAll);
+    }
+
+    /**
+     * Adds several movies to the shards at once, each part by a function
+     * that adds it to its shard and returns the number of movies added.
+     */
+    private int addAll(Collection<Movie> movies,
+                       final BiFunction<MovieLibrary, List<Movie>, Integer> add) {
+        final List<List<Movie>> parts = new ArrayList<>(shards.length);
+        for (int s = 0; s < shards.length; s++) {
+            parts.add(new ArrayList<Movie>());
+        }
+        for (Movie movie : movies) {
+            parts.get(shardOf(movie.getKey())).add(movie);
+        }
+
+        int added = 0;
+        for (int count : fanOut(s -> write(s, shard -> {
+            // weigh the movies that will be added, the first of each title
+            Set<String> keys = new HashSet<>();
+            long weight = 0;
+            for (Movie movie : parts.get(s)) {
+                if (keys.add(movie.getKey()) && !shard.findDuplicate(movie.getTitle())) {
+                    weight += WeightedSampler.weight(movie.getRating());
+                }
+            }
+            ratingWeights.addAndGet(s, weight);
+            return add.apply(shard, parts.get(s));
+        }))) {
+            added += count;
+        }
+        return added;
+    }
+
+    /**
+     * Gives a movie in the library a new title, as by
+     * {@link MovieLibrary#renameMovie(Movie, String)}. If the new title
+     * belongs in another shard, the movie is moved there while both shards
+     * are locked.
+     */
+    @Override
+    public Movie renameMovie(final Movie movie, final String newTitle) {
+        int from = shardOf(movie.getKey());
+        int to = newTitle == null ? from : shardOf(normalize(newTitle));
+        if (from == to) {
+            return write(from, shard -> shard.renameMovie(movie, newTitle));
+        }
+
+        long start = LibraryMetrics.start();
+        // in the order of the shards, so two renames can not deadlock
+        Lock first = locks[Math.min(from, to)].writeLock();
+        Lock second = locks[Math.max(from, to)].writeLock();
+        first.lock();
+        second.lock();
+        try {
+            if (!movie.equals(shards[from].getUniqueMovie(movie.getTitle()))
+                    || shards[to].findDuplicate(newTitle)) {
+                return null;
+            }
+            Movie renamed = movie.withTitle(newTitle);
+            shards[from].apply(movie, null);
+            shards[to].apply(null, renamed);
+            reweigh(from, movie.getRating(), Movie.UNRATED);
+            reweigh(to, Movie.UNRATED, renamed.getRating());
+            return renamed;
+        } finally {
+            second.unlock();
+            first.unlock();
+            LibraryMetrics.record(Operation.RENAME_MOVIE, start);
+        }
+    }
+
+    @Override
+    public Movie changeGenre(final Movie movie, final Genre newGenre) {
+        return write(shardOf(movie.getKey()), shard -> shard.changeGenre(movie, newGenre));
+    }
+
+    @Override
+    public Movie changeGenres(final Movie movie, final Genre newGenre,
+                              final Collection<Genre> otherGenres) {
+        return write(shardOf(movie.getKey()),
+                     shard -> shard.changeGenres(movie, newGenre, otherGenres));
+    }
+
+    @Override
+    public Movie rateMovie(final Movie movie, final double rating) {
+        final int s = shardOf(movie.getKey());
+        return write(s, shard -> {
+            Movie rated = shard.rateMovie(movie, rating);
+            if (rated != null) {
+                reweigh(s, movie.getRating(), rated.getRating());
+            }
+            return rated;
+        });
+    }
+
+    @Override
+    public boolean removeMovie(final Movie movie) {
+        final int s = shardOf(movie.getKey());
+        return write(s, shard -> {
+            boolean removed = shard.removeMovie(movie);
+            if (removed) {
+                reweigh(s, movie.getRating(), Movie.UNRATED);
+            }
+            return removed;
+        });
+    }
+
+    @Override
+    public List<Movie> getByGenre(final Genre genre) {
+        return Collections.unmodifiableList(merge(
+                query(shard -> new ArrayList<>(shard.getByGenre(genre))),
+                BY_TITLE, Integer.MAX_VALUE));
+    }
+
+    @Override
+    public List<Movie> getByGenres(final Set<Genre> required, final Set<Genre> excluded) {
+        return merge(query(shard -> shard.getByGenres(required, excluded)),
+                     BY_TITLE, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<Movie> getMovieMatches(final String query) {
+        return merge(query(shard -> shard.getMovieMatches(query)),
+                     BY_TITLE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the movies that has a title which nearly matches the query,
+     * as by {@link MovieLibrary#getFuzzyMatches(String, int, int)}. The best
+     * matches of every shard are ranked again together.
+     */
+    @Override
+    public List<Movie> getFuzzyMatches(final String query, final int maxDistance,
+                                       final int limit) {
+        checkFuzzy(maxDistance, limit);
+        Set<String> queryWords = FuzzyTitleIndex.words(normalize(query));
+        final Map<Movie, Integer> scores = new HashMap<>();
+        for (List<Movie> matches : query(
+                shard -> shard.getFuzzyMatches(query, maxDistance, limit))) {
+            for (Movie movie : matches) {
+                scores.put(movie, FuzzyTitleIndex.score(
+                        queryWords, movie.getKey(), maxDistance));
+            }
+        }
+
+        List<Movie> movieMatches = new ArrayList<>(scores.keySet());
+        Collections.sort(movieMatches, new Comparator<Movie>() {
+            @Override
+            public int compare(Movie m1, Movie m2) {
+                int c = Integer.compare(scores.get(m1), scores.get(m2));
+                return c != 0 ? c : m1.compareTo(m2);
+            }
+        });
+        return movieMatches.size() > limit
+             ? new ArrayList<>(movieMatches.subList(0, limit))
+             : movieMatches;
+    }
+
+    @Override
+    public List<Movie> suggest(final String prefix, final int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must not be negative");
+        }
+        return merge(query(shard -> shard.suggest(prefix, limit)), BY_TITLE, limit);
+    }
+
+    @Override
+    public List<Movie> getByRating(final double minRating, final double maxRating) {
+        if (Double.isNaN(minRating) || Double.isNaN(maxRating)) {
+            throw new IllegalArgumentException("ratings must be numbers");
+        }
+        return merge(query(shard -> shard.getByRating(minRating, maxRating)),
+                     Movie.BY_RATING, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<Movie> getTopRated(final Genre genre, final int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must not be negative");
+        }
+        return merge(query(shard -> shard.getTopRated(genre, limit)),
+                     Movie.BY_RATING, limit);
+    }
+
+    @Override
+    public Movie randomMovie() {
+        long[] sizes = new long[shards.length];
+        for (int s = 0; s < shards.length; s++) {
+            sizes[s] = read(s, MovieLibrary::size);
+        }
+        return pick(sizes, MovieLibrary::randomMovie);
+    }
+
+    @Override
+    public Movie randomMovie(final Genre genre) {
+        long[] sizes = new long[shards.length];
+        for (int s = 0; s < shards.length; s++) {
+            sizes[s] = read(s, shard -> shard.getByGenre(genre).size());
+        }
+        return pick(sizes, shard -> shard.randomMovie(genre));
+    }
+
+    @Override
+    public Movie randomRatedMovie() {
+        long[] weights = new long[shards.length];
+        for (int s = 0; s < shards.length; s++) {
+            weights[s] = ratingWeights.get(s);
+        }
+        return pick(weights, MovieLibrary::randomRatedMovie);
+    }
+
+    @Override
+    public Movie getUniqueMovie(final String movieTitle) {
+        return movieTitle == null ? null
+             : read(shardOf(normalize(movieTitle)), shard -> shard.getUniqueMovie(movieTitle));
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (int s = 0; s < shards.length; s++) {
+            size += read(s, MovieLibrary::size);
+        }
+        return size;
+    }
+
+    @Override
+    public List<Movie> getAllByTitle() {
+        return Collections.unmodifiableList(merge(
+                query(shard -> new ArrayList<>(shard.getAllByTitle())),
+                BY_TITLE, Integer.MAX_VALUE));
+    }
+
+    @Override
+    public List<Movie> getAllByGenre() {
+        List<Movie> movies = new ArrayList<>();
+        for (Genre genre : GENRES_BY_NAME) {
+            movies.addAll(getByGenre(genre));
+        }
+        return Collections.unmodifiableList(movies);
+    }
+
+    @Override
+    public List<Movie> getAllByTitle(int offset, int limit) {
+        final int end = end(offset, limit);
+        return range(merge(query(shard -> new ArrayList<>(shard.getAllByTitle(0, end))),
+                           BY_TITLE, end), offset, limit);
+    }
+
+    @Override
+    public List<Movie> getByGenre(final Genre genre, int offset, int limit) {
+        final int end = end(offset, limit);
+        return range(merge(query(shard -> new ArrayList<>(shard.getByGenre(genre, 0, end))),
+                           BY_TITLE, end), offset, limit);
+    }
+
+    @Override
+    public Page getPageByTitle(final String cursor, final int limit) {
+        return page(cursor, limit, shard -> shard.getPageByTitle(cursor, limit));
+    }
+
+    @Override
+    public Page getPageByGenre(final Genre genre, final String cursor, final int limit) {
+        return page(cursor, limit, shard -> shard.getPageByGenre(genre, cursor, limit));
+    }
+
+    @Override
+    public Page getMatchPage(final String query, final String cursor, final int limit) {
+        return page(cursor, limit, shard -> shard.getMatchPage(query, cursor, limit));
+    }
+
+    /**
+     * Returns the number of entries in each index of the library, summed
+     * over the shards, and the number of shards.
+     */
+    @Override
+    public Map<String, Integer> getIndexSizes() {
+        Map<String, Integer> sizes = new LinkedHashMap<>();
+        for (int s = 0; s < shards.length; s++) {
+            for (Map.Entry<String, Integer> e : read(s, MovieLibrary::getIndexSizes).entrySet()) {
+                Integer size = sizes.get(e.getKey());
+                sizes.put(e.getKey(), size == null ? e.getValue() : size + e.getValue());
+            }
+        }
+        sizes.put("shards", shards.length);
+        return sizes;
+    }
+
+    /**
+     * Returns the statistics of the search caches, summed over the shards.
+     */
+    @Override
+    public Map<String, Long> getCacheStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        for (int s = 0; s < shards.length; s++) {
+            for (Map.Entry<String, Long> e : read(s, MovieLibrary::getCacheStats).entrySet()) {
+                Long stat = stats.get(e.getKey());
+                stats.put(e.getKey(), stat == null ? e.getValue() : stat + e.getValue());
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Returns the shard of a case-folded title.
+     */
+    private int shardOf(String key) {
+        int hash = key.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), shards.length);
+    }
+
+    private <T> T read(int s, Function<MovieLibrary, T> action) {
+        Lock lock = locks[s].readLock();
+        lock.lock();
+        try {
+            return action.apply(shards[s]);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private <T> T write(int s, Function<MovieLibrary, T> action) {
+        Lock lock = locks[s].writeLock();
+        lock.lock();
+        try {
+            return action.apply(shards[s]);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Runs a task for every shard at once, the first on the calling thread
+     * and the others in the pool.
+     *
+     * @param task the task, given the index of a shard
+     * @return the results of the task, in the order of the shards
+     */
+    private <T> List<T> fanOut(final IntFunction<T> task) {
+        List<ForkJoinTask<T>> forked = new ArrayList<>(shards.length - 1);
+        for (int s = 1; s < shards.length; s++) {
+            final int shard = s;
+            forked.add(pool.submit(() -> task.apply(shard)));
+        }
+        List<T> results = new ArrayList<>(shards.length);
+        results.add(task.apply(0));
+        for (ForkJoinTask<T> f : forked) {
+            results.add(f.join());
+        }
+        return results;
+    }
+
+    /**
+     * Runs a query on every shard at once, each under its read lock. The
+     * query must not return a view of the shard, which may change once the
+     * lock is released.
+     */
+    private List<List<Movie>> query(final Function<MovieLibrary, List<Movie>> query) {
+        return fanOut(s -> read(s, query));
+    }
+
+    /**
+     * Returns a page of the library merged from a page of every shard.
+     */
+    private Page page(String cursor, int limit, final Function<MovieLibrary, Page> page) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        if (cursor != null) {
+            Page.titleOf(cursor); // fails here rather than in a shard
+        }
+        List<List<Movie>> movies = new ArrayList<>(shards.length);
+        boolean more = false;
+        int total = 0;
+        for (Page shardPage : fanOut(s -> read(s, page))) {
+            movies.add(shardPage.getMovies());
+            more |= shardPage.getNextCursor() != null;
+            total += shardPage.getMovies().size();
+        }
+        List<Movie> merged = merge(movies, BY_TITLE, limit);
+        more |= total > merged.size();
+        return new Page(merged, more && !merged.isEmpty()
+                                ? Page.cursorAfter(merged.get(merged.size() - 1)) : null);
+    }
+
+    /**
+     * Picks a shard at random by weight, and a movie of that shard.
+     *
+     * @return the movie, or {@code null} if every shard weighs nothing
+     */
+    private Movie pick(long[] weights, Function<MovieLibrary, Movie> pick) {
+        long total = 0;
+        for (long weight : weights) {
+            total += weight;
+        }
+        if (total == 0) {
+            return null;
+        }
+        long target = ThreadLocalRandom.current().nextLong(total);
+        int s = 0;
+        while (target >= weights[s]) {
+            target -= weights[s++];
+        }
+        return read(s, pick);
+    }
+
+    private void reweigh(int s, double oldRating, double newRating) {
+        long delta = WeightedSampler.weight(newRating) - WeightedSampler.weight(oldRating);
+        if (delta != 0) {
+            ratingWeights.addAndGet(s, delta);
+        }
+    }
+
+    /**
+     * Returns the number of movies a shard must give for a range of the
+     * library.
+     */
+    private static int end(int offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("offset and limit must not be negative");
+        }
+        return (int) Math.min((long) offset + limit, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Merges sorted lists of movies in a single pass, taking the first
+     * movie of the lists from a heap each time.
+     *
+     * @param sorted lists sorted by the comparator
+     * @param order the order of the lists
+     * @param limit the largest number of movies to merge
+     * @return a new List of the first movies of all the lists, sorted
+     */
+    static List<Movie> merge(List<List<Movie>> sorted, Comparator<Movie> order, int limit) {
+        PriorityQueue<Head> heads = new PriorityQueue<>(Math.max(1, sorted.size()));
+        long total = 0;
+        for (List<Movie> movies : sorted) {
+            if (!movies.isEmpty()) {
+                heads.add(new Head(movies, order));
+                total += movies.size();
+            }
+        }
+        List<Movie> merged = new ArrayList<>((int) Math.min(total, limit));
+        while (merged.size() < limit && !heads.isEmpty()) {
+            Head head = heads.poll();
+            merged.add(head.movie);
+            if (head.advance()) {
+                heads.add(head);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * The next movie of a sorted list being merged.
+     */
+    private static final class Head implements Comparable<Head> {
+        private final List<Movie> movies;
+        private final Comparator<Movie> order;
+        private int next = 1;
+        Movie movie;
+
+        Head(List<Movie> movies, Comparator<Movie> order) {
+            this.movies = movies;
+            this.order = order;
+            this.movie = movies.get(0);
+        }
+
+        boolean advance() {
+            if (next == movies.size()) {
+                return false;
+            }
+            movie = movies.get(next++);
+            return true;
+        }
+
+        @Override
+        public int compareTo(Head other) {
+            return order.compare(movie, other.movie);
+        }
+    }
+}
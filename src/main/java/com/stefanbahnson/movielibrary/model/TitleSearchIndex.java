@@ -0,0 +1,154 @@
+package com.stefanbahnson.movielibrary.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An inverted index from every three character sequence (trigram) of a
+ * case-folded title to the movies whose title contains it.<p>
+ *
+ * A title that contains a query must also contain every trigram of the
+ * query. Intersecting the postings of those trigrams therefore gives a small
+ * set of candidates that only has to be verified, instead of matching the
+ * query against every title in the library.<p>
+ *
+ * Queries shorter than a trigram can not be answered by the index.
+ */
+final class TitleSearchIndex {
+    /**
+     * The shortest query the index can answer.
+     */
+    static final int GRAM_LENGTH = 3;
+
+    private static final Comparator<Set<Movie>> BY_SIZE =
+            new Comparator<Set<Movie>>() {
+        @Override
+        public int compare(Set<Movie> s1, Set<Movie> s2) {
+            return Integer.compare(s1.size(), s2.size());
+        }
+    };
+
+    private final Map<Long, Set<Movie>> postings = new HashMap<>();
+
+    /**
+     * Indexes a movie under every trigram of its title.
+     *
+     * @param movie represents a movie with a given title and genre
+     */
+    void add(Movie movie) {
+        for (long gram : grams(movie.getKey())) {
+            Set<Movie> movies = postings.get(gram);
+            if (movies == null) {
+                movies = new HashSet<>();
+                postings.put(gram, movies);
+            }
+            movies.add(movie);
+        }
+    }
+
+    /**
+     * Removes a movie from the index. The movie must still have the title
+     * it was indexed with.
+     *
+     * @param movie represents a movie with a given title and genre
+     */
+    void remove(Movie movie) {
+        for (long gram : grams(movie.getKey())) {
+            Set<Movie> movies = postings.get(gram);
+            if (movies != null) {
+                movies.remove(movie);
+                if (movies.isEmpty()) {
+                    postings.remove(gram);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of distinct trigrams in the index.
+     */
+    int size() {
+        return postings.size();
+    }
+
+    /**
+     * Returns all indexed movies with a title that contains the query.
+     * The match is literal and not case-sensitive. The movies are returned
+     * in no particular order.
+     *
+     * @param query a character sequence at least {@link #GRAM_LENGTH} long
+     * @return a new List of all the matched movies
+     */
+    List<Movie> search(String query) {
+        Set<Long> grams = grams(MovieLibrary.normalize(query));
+
+        List<Set<Movie>> candidates = new ArrayList<>(grams.size());
+        for (long gram : grams) {
+            Set<Movie> movies = postings.get(gram);
+            if (movies == null) {
+                return new ArrayList<>();
+            }
+            candidates.add(movies);
+        }
+        // walk the rarest trigram and probe the others
+        Collections.sort(candidates, BY_SIZE);
+
+        List<Movie> matches = new ArrayList<>();
+        Set<Movie> rarest = candidates.get(0);
+
+        candidateLoop:
+        for (Movie movie : rarest) {
+            for (int i = 1; i < candidates.size(); i++) {
+                if (!candidates.get(i).contains(movie)) {
+                    continue candidateLoop;
+                }
+            }
+            // all trigrams present, now check that they are in sequence
+            if (containsIgnoreCase(movie.getTitle(), query)) {
+                matches.add(movie);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Checks if a title contains a query, without regard to case.
+     *
+     * @param title title description of a movie
+     * @param query a character sequence of any sort
+     * @return {@code true} if the title contains the query
+     */
+    static boolean containsIgnoreCase(String title, String query) {
+        int last = title.length() - query.length();
+        for (int i = 0; i <= last; i++) {
+            if (title.regionMatches(true, i, query, 0, query.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the distinct trigrams of a case-folded text, each packed into
+     * a {@code long}.
+     */
+    private static Set<Long> grams(String folded) {
+        if (folded.length() < GRAM_LENGTH) {
+            return Collections.emptySet();
+        }
+        Set<Long> grams = new LinkedHashSet<>();
+        for (int i = 0; i + GRAM_LENGTH <= folded.length(); i++) {
+            grams.add(((long) folded.charAt(i) << 32)
+                    | ((long) folded.charAt(i + 1) << 16)
+                    | folded.charAt(i + 2));
+        }
+        return grams;
+    }
+}
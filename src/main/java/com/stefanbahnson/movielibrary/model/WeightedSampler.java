@@ -0,0 +1,95 @@
+package com.stefanbahnson.movielibrary.model;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks numbered slots at random, each with a chance in proportion to its
+ * weight.<p>
+ *
+ * The weights are summed in a Fenwick tree, so changing the weight of a
+ * slot and picking a slot both take O(log n) time. Weights are whole
+ * numbers, which keeps the sums exact however often they change.
+ */
+final class WeightedSampler {
+    /**
+     * The weight of a rating of one. Ratings are weighted to two decimals.
+     */
+    private static final int RATING_SCALE = 100;
+
+    private long[] weights = new long[16];
+    private long[] tree = new long[17]; // one-based
+    private long total;
+
+    /**
+     * Returns the weight of a movie with a rating, zero if it is unrated.
+     */
+    static long weight(double rating) {
+        return Double.isNaN(rating) ? 0 : Math.round(rating * RATING_SCALE);
+    }
+
+    /**
+     * Sets the weight of a slot, zero to never pick it.
+     *
+     * @param slot the slot, which need not be below the number of slots
+     * @param weight the new weight of the slot
+     */
+    void set(int slot, long weight) {
+        if (slot >= weights.length) {
+            grow(Math.max(slot + 1, weights.length * 2));
+        }
+        long delta = weight - weights[slot];
+        if (delta == 0) {
+            return;
+        }
+        weights[slot] = weight;
+        total += delta;
+        for (int i = slot + 1; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    /**
+     * Picks a slot at random by weight.
+     *
+     * @return the slot, or -1 if every slot weighs nothing
+     */
+    int pick() {
+        if (total == 0) {
+            return -1;
+        }
+        long target = ThreadLocalRandom.current().nextLong(total);
+        // the last node whose prefix sum does not pass the target
+        int node = 0;
+        for (int step = Integer.highestOneBit(weights.length); step > 0; step >>= 1) {
+            int next = node + step;
+            if (next < tree.length && tree[next] <= target) {
+                node = next;
+                target -= tree[next];
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Returns the sum of the weights of every slot.
+     */
+    long total() {
+        return total;
+    }
+
+    /**
+     * Makes room for more slots and builds the tree again in linear time.
+     */
+    private void grow(int capacity) {
+        weights = Arrays.copyOf(weights, capacity);
+        tree = new long[capacity + 1];
+        for (int i = 1; i <= capacity; i++) {
+            tree[i] += weights[i - 1];
+            int parent = i + (i & -i);
+            if (parent <= capacity) {
+                tree[parent] += tree[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,396 @@
+package com.stefanbahnson.movielibrary.storage;
+
+import com.stefanbahnson.movielibrary.model.Genre;
+import com.stefanbahnson.movielibrary.model.Movie;
+import com.stefanbahnson.movielibrary.model.IndexedMovieLibrary;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A {@code MovieLibrary} that survives a restart of the application.<p>
+ *
+ * The library is kept in memory as usual, but every change made to it is
+ * also written to an append-only {@code Journal} in the library directory.
+ * When the journal grows larger than the library itself it is compacted
+ * into a binary {@code Snapshot} and started over. A change that can not
+ * be written to the journal is undone in memory as well, so the library
+ * and its journal never disagree. A compaction that fails leaves the
+ * change that triggered it in place, since it is already in the journal,
+ * and is tried again by the next change or when the library is closed.<p>
+ *
+ * Opening a library loads the latest snapshot and replays the journal that
+ * continues it, which also recovers the library after a crash. The search
+ * indexes of the titles are left to the first search that needs them, so
+ * opening takes the time to read the movies and file them by title, genre
+ * and rating.<p>
+ *
+ * The library must be closed to make sure every change is on disk.
+ */
+public class DurableMovieLibrary extends IndexedMovieLibrary implements Closeable {
+    /**
+     * The number of journal records written between each fsync.
+     */
+    public static final int DEFAULT_SYNC_EVERY = 64;
+
+    /**
+     * The fewest journal records that will trigger a compaction.
+     */
+    public static final int DEFAULT_COMPACT_AFTER = 100000;
+
+    private static final String SNAPSHOT_FILE = "library.snapshot";
+    private static final String JOURNAL_FILE = "library.journal";
+
+    private final Path snapshotFile;
+    private final Path journalFile;
+    private final int syncEvery;
+    private final int compactAfter;
+    private Journal journal;
+    private boolean closed;
+
+    private DurableMovieLibrary(Path directory, int syncEvery, int compactAfter) {
+        this.snapshotFile = directory.resolve(SNAPSHOT_FILE);
+        this.journalFile = directory.resolve(JOURNAL_FILE);
+        this.syncEvery = syncEvery;
+        this.compactAfter = compactAfter;
+    }
+
+    /**
+     * Opens the library kept in a directory, creating an empty library if
+     * there is none.
+     *
+     * @param directory the library directory
+     * @return the library as it was when last changed
+     * @throws IOException if the library could not be read
+     */
+    public static DurableMovieLibrary open(Path directory) throws IOException {
+        return open(directory, DEFAULT_SYNC_EVERY, DEFAULT_COMPACT_AFTER);
+    }
+
+    /**
+     * Opens the library kept in a directory, creating an empty library if
+     * there is none.
+     *
+     * @param directory the library directory
+     * @param syncEvery the number of journal records written between each
+     *                  fsync, trading the changes lost in a crash of the
+     *                  machine for speed
+     * @param compactAfter the fewest journal records that will trigger a
+     *                     compaction
+     * @return the library as it was when last changed
+     * @throws IOException if the library could not be read
+     */
+    public static DurableMovieLibrary open(Path directory, int syncEvery,
+                                           int compactAfter) throws IOException {
+        Files.createDirectories(directory);
+        final DurableMovieLibrary library =
+                new DurableMovieLibrary(directory, syncEvery, compactAfter);
+
+        List<Movie> movies = new ArrayList<>();
+        long generation = Snapshot.read(library.snapshotFile, movies);
+        library.addAll(movies);
+
+        // the journal is not yet attached, so replayed changes are not logged
+        library.journal = Journal.open(library.journalFile, generation,
+                syncEvery, new Journal.Replay() {
+            @Override
+            public void add(String title, Genre genre, int genres) {
+                library.addMovie(new Movie(title, genre, Genre.setOf(genres)));
+            }
+
+            @Override
+            public void remove(String title) {
+                Movie movie = library.getUniqueMovie(title);
+                if (movie != null) {
+                    library.removeMovie(movie);
+                }
+            }
+
+            @Override
+            public void rename(String oldTitle, String newTitle) {
+                Movie movie = library.getUniqueMovie(oldTitle);
+                if (movie != null) {
+                    library.renameMovie(movie, newTitle);
+                }
+            }
+
+            @Override
+            public void changeGenre(String title, Genre genre, int genres) {
+                Movie movie = library.getUniqueMovie(title);
+                if (movie != null) {
+                    library.changeGenres(movie, genre, Genre.setOf(genres));
+                }
+            }
+
+            @Override
+            public void rate(String title, double rating) {
+                Movie movie = library.getUniqueMovie(title);
+                if (movie != null) {
+                    library.rateMovie(movie, rating);
+                }
+            }
+        });
+        if (library.journal == null) {
+            library.journal = Journal.create(library.journalFile, generation, syncEvery);
+        }
+        return library;
+    }
+
+    /**
+     * Reads the movies of the library kept in a directory as they were at
+     * the last checkpoint, without building any index, so they can be
+     * served while the library itself is opened.
+     *
+     * @param directory the library directory
+     * @return a new List of the movies, sorted by title, or {@code null} if
+     *         the library has been changed since the checkpoint
+     * @throws IOException if the library could not be read
+     */
+    public static List<Movie> readCheckpoint(Path directory) throws IOException {
+        List<Movie> movies = new ArrayList<>();
+        long generation = Snapshot.read(directory.resolve(SNAPSHOT_FILE), movies);
+        if (Journal.hasRecords(directory.resolve(JOURNAL_FILE), generation)) {
+            return null;
+        }
+        return movies;
+    }
+
+    @Override
+    public boolean addMovie(final Movie movie) {
+        boolean added = super.addMovie(movie);
+        if (added && journal != null) {
+            log(() -> add(movie), () -> restore(null, movie));
+        }
+        return added;
+    }
+
+    @Override
+    public int addAll(Collection<Movie> movies) {
+        int added = super.addAll(movies);
+        if (added > 0 && journal != null) {
+            // only the movies that made it into the library, once each
+            final List<Movie> logged = new ArrayList<>(added);
+            Set<String> titles = new HashSet<>();
+            for (Movie movie : movies) {
+                if (getUniqueMovie(movie.getTitle()) == movie
+                        && titles.add(normalize(movie.getTitle()))) {
+                    logged.add(movie);
+                }
+            }
+            log(() -> {
+                for (Movie movie : logged) {
+                    add(movie);
+                }
+            }, () -> {
+                for (Movie movie : logged) {
+                    restore(null, movie);
+                }
+            });
+        }
+        return added;
+    }
+
+    @Override
+    public Movie renameMovie(final Movie movie, final String newTitle) {
+        final Movie renamed = super.renameMovie(movie, newTitle);
+        if (renamed != null && journal != null) {
+            log(() -> journal.rename(movie.getTitle(), newTitle),
+                () -> restore(movie, renamed));
+        }
+        return renamed;
+    }
+
+    @Override
+    public Movie changeGenre(final Movie movie, final Genre newGenre) {
+        final Movie changed = super.changeGenre(movie, newGenre);
+        if (changed != null && journal != null) {
+            log(() -> journal.changeGenre(movie.getTitle(), newGenre, changed.getGenreMask()),
+                () -> restore(movie, changed));
+        }
+        return changed;
+    }
+
+    @Override
+    public Movie changeGenres(final Movie movie, final Genre newGenre,
+                              Collection<Genre> otherGenres) {
+        final Movie changed = super.changeGenres(movie, newGenre, otherGenres);
+        if (changed != null && journal != null) {
+            log(() -> journal.changeGenre(movie.getTitle(), newGenre, changed.getGenreMask()),
+                () -> restore(movie, changed));
+        }
+        return changed;
+    }
+
+    @Override
+    public Movie rateMovie(final Movie movie, final double rating) {
+        final Movie rated = super.rateMovie(movie, rating);
+        if (rated != null && journal != null) {
+            log(() -> journal.rate(movie.getTitle(), rating), () -> restore(movie, rated));
+        }
+        return rated;
+    }
+
+    @Override
+    public boolean removeMovie(final Movie movie) {
+        boolean removed = super.removeMovie(movie);
+        if (removed && journal != null) {
+            log(() -> journal.remove(movie.getTitle()), () -> restore(movie, null));
+        }
+        return removed;
+    }
+
+    /**
+     * Forces every change made so far to disk.
+     *
+     * @throws IOException if the journal could not be written
+     */
+    public void sync() throws IOException {
+        journal.sync();
+    }
+
+    /**
+     * Writes a snapshot of the library and starts a new, empty journal.
+     * This makes the next start of the library faster. If the snapshot is
+     * written but the new journal can not be started, the next change
+     * starts it.
+     *
+     * @throws IOException if the snapshot could not be written
+     */
+    public void checkpoint() throws IOException {
+        long generation = journal.generation() + 1;
+        journal.sync();
+        Snapshot.write(snapshotFile, generation, getAllByTitle());
+        // a crash here leaves an older journal, which is then ignored
+        journal.close();
+        journal = Journal.create(journalFile, generation, syncEvery);
+    }
+
+    /**
+     * Compacts the journal into a snapshot if it has any records, and
+     * closes the library, unless it is already closed.
+     *
+     * @throws IOException if the library could not be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (journal.records() > 0) {
+                checkpoint();
+            }
+        } finally {
+            journal.close();
+        }
+    }
+
+    /**
+     * Writes the records of a change that was made in memory to the
+     * journal, and compacts the journal if it has grown large enough. If
+     * the records could not all be written, those that were are cut off
+     * again and the change is undone in memory, so the journal and the
+     * library still agree.
+     *
+     * @param records writes the records of the change
+     * @param undo undoes the change in memory
+     * @throws IllegalStateException if the journal could not be written
+     */
+    private void log(Records records, Runnable undo) {
+        long position;
+        int count;
+        try {
+            restartJournal();
+            count = journal.records();
+            position = journal.position();
+        } catch (IOException e) {
+            undo.run();
+            throw failed(e);
+        }
+        try {
+            records.write();
+        } catch (IOException e) {
+            try {
+                journal.truncate(position, count);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            undo.run();
+            throw failed(e);
+        }
+        compactIfNeeded();
+    }
+
+    /**
+     * Puts a movie back in memory as it was before a change, without
+     * writing to the journal.
+     *
+     * @param before the movie before the change, or {@code null} if it
+     *               was added
+     * @param after the movie after the change, or {@code null} if it was
+     *              removed
+     */
+    private void restore(Movie before, Movie after) {
+        if (after != null) {
+            super.removeMovie(after);
+        }
+        if (before != null) {
+            super.addMovie(before);
+        }
+    }
+
+    /**
+     * Writes the records that add a movie to the journal.
+     */
+    private void add(Movie movie) throws IOException {
+        journal.add(movie.getTitle(), movie.getGenre(), movie.getGenreMask());
+        if (movie.isRated()) {
+            journal.rate(movie.getTitle(), movie.getRating());
+        }
+    }
+
+    /**
+     * Starts a new journal if the last checkpoint wrote its snapshot but
+     * could not start the journal that continues it, unless the library
+     * is closed.
+     */
+    private void restartJournal() throws IOException {
+        if (!closed && !journal.isOpen()) {
+            journal = Journal.create(journalFile, journal.generation() + 1, syncEvery);
+        }
+    }
+
+    /**
+     * Compacts the journal if it has grown large enough. A compaction that
+     * fails is only reported, since the change that triggered it is
+     * already in the journal, and the journal is then compacted by the
+     * next change or when the library is closed.
+     */
+    private void compactIfNeeded() {
+        if (journal.records() >= Math.max(compactAfter, size())) {
+            try {
+                checkpoint();
+            } catch (IOException e) {
+                System.err.println("Could not compact the library journal: " + e);
+            }
+        }
+    }
+
+    /**
+     * The records of a change, written to the journal.
+     */
+    private interface Records {
+        void write() throws IOException;
+    }
+
+    private static IllegalStateException failed(IOException e) {
+        return new IllegalStateException("Could not write to the library journal", e);
+    }
+}
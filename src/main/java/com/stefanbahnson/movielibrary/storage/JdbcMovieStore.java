@@ -0,0 +1,378 @@
+package com.stefanbahnson.movielibrary.storage;
+
+import com.stefanbahnson.movielibrary.model.Genre;
+import com.stefanbahnson.movielibrary.model.Movie;
+import com.stefanbahnson.movielibrary.model.MovieLibrary;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@code MovieStore} kept in an embedded database, such as an H2 or
+ * SQLite file, that runs inside the application rather than as a server.<p>
+ *
+ * Every movie is a row of the table {@code movies}, keyed by its
+ * case-folded title, and every genre of a movie is a row of the table
+ * {@code movie_genres}, keyed by the genre first. Searches and genre
+ * filters are answered by the database, and only the movies that match
+ * are sent back. A genre filter is a lookup on the keys of
+ * {@code movie_genres}. A title search is a {@code LIKE} with a wildcard
+ * on both sides, which no index of the keys can answer, so the database
+ * scans every title key for it. The rows are sorted by title here rather
+ * than by the database, whose collation may not be the one of the
+ * library.<p>
+ *
+ * Each statement is prepared once and kept for as long as the store is
+ * open. Movies added at once are inserted in JDBC batches, in a single
+ * transaction.<p>
+ *
+ * The store uses a single connection and may be used by one thread at a
+ * time. The JDBC driver of the database must be on the class path, which
+ * is done for H2 by building with the Maven profile {@code database}.
+ */
+public class JdbcMovieStore implements MovieStore {
+    /**
+     * The number of movies inserted by each JDBC batch.
+     */
+    public static final int BATCH_SIZE = 1000;
+
+    private static final String[] SCHEMA = {
+        "CREATE TABLE IF NOT EXISTS movies ("
+            + "title_key VARCHAR NOT NULL PRIMARY KEY, "
+            + "title VARCHAR NOT NULL, "
+            + "genre INT NOT NULL, "
+            + "genres INT NOT NULL, "
+            + "rating DOUBLE)",
+        "CREATE TABLE IF NOT EXISTS movie_genres ("
+            + "genre INT NOT NULL, "
+            + "title_key VARCHAR NOT NULL, "
+            + "PRIMARY KEY (genre, title_key))",
+        "CREATE INDEX IF NOT EXISTS movie_genres_title ON movie_genres (title_key)"
+    };
+
+    private static final String SELECT =
+            "SELECT m.title, m.genre, m.genres, m.rating FROM movies m";
+    private static final String FIND = SELECT + " WHERE m.title_key = ?";
+    private static final String SEARCH = SELECT + " WHERE m.title_key LIKE ? ESCAPE '!'";
+    private static final String BY_GENRE = SELECT
+            + " JOIN movie_genres g ON g.title_key = m.title_key WHERE g.genre = ?";
+    private static final String HAS_GENRE = "EXISTS (SELECT 1 FROM movie_genres g"
+            + " WHERE g.title_key = m.title_key AND g.genre = ?)";
+    private static final String INSERT_MOVIE = "INSERT INTO movies"
+            + " (title_key, title, genre, genres, rating) VALUES (?, ?, ?, ?, ?)";
+    private static final String INSERT_GENRE =
+            "INSERT INTO movie_genres (genre, title_key) VALUES (?, ?)";
+    private static final String DELETE_MOVIE = "DELETE FROM movies WHERE title_key = ?";
+    private static final String DELETE_GENRES = "DELETE FROM movie_genres WHERE title_key = ?";
+
+    private static final Genre[] GENRES = Genre.values();
+
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+    private JdbcMovieStore(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Opens the store in a database, creating its tables if there are none.
+     *
+     * @param url the JDBC URL of the database, such as
+     *            {@code jdbc:h2:~/.movielibrary/library}
+     * @return the open store
+     * @throws IOException if the database could not be opened
+     */
+    public static JdbcMovieStore open(String url) throws IOException {
+        Connection connection;
+        try {
+            connection = DriverManager.getConnection(url);
+        } catch (SQLException e) {
+            throw new IOException("Could not open the database " + url + ": "
+                                  + e.getMessage(), e);
+        }
+        JdbcMovieStore store = new JdbcMovieStore(connection);
+        try (Statement statement = connection.createStatement()) {
+            for (String sql : SCHEMA) {
+                statement.executeUpdate(sql);
+            }
+        } catch (SQLException e) {
+            store.close();
+            throw failed(e);
+        }
+        return store;
+    }
+
+    @Override
+    public synchronized List<Movie> loadAll() throws IOException {
+        try {
+            return query(prepare(SELECT));
+        } catch (SQLException e) {
+            throw failed(e);
+        }
+    }
+
+    @Override
+    public synchronized Movie find(String title) throws IOException {
+        try {
+            PreparedStatement statement = prepare(FIND);
+            statement.setString(1, MovieLibrary.normalize(title));
+            List<Movie> movies = query(statement);
+            return movies.isEmpty() ? null : movies.get(0);
+        } catch (SQLException e) {
+            throw failed(e);
+        }
+    }
+
+    @Override
+    public synchronized List<Movie> search(String query) throws IOException {
+        try {
+            PreparedStatement statement = prepare(SEARCH);
+            statement.setString(1, "%" + escapeLike(MovieLibrary.normalize(query)) + "%");
+            return query(statement);
+        } catch (SQLException e) {
+            throw failed(e);
+        }
+    }
+
+    @Override
+    public synchronized List<Movie> byGenre(Genre genre) throws IOException {
+        try {
+            PreparedStatement statement = prepare(BY_GENRE);
+            statement.setInt(1, genre.ordinal());
+            return query(statement);
+        } catch (SQLException e) {
+            throw failed(e);
+        }
+    }
+
+    @Override
+    public synchronized List<Movie> byGenres(Set<Genre> required,
+                                             Set<Genre> excluded) throws IOException {
+        // the statement only depends on the number of genres of each kind
+        StringBuilder sql = new StringBuilder(SELECT).append(" WHERE 1 = 1");
+        for (int i = 0; i < required.size(); i++) {
+            sql.append(" AND ").append(HAS_GENRE);
+        }
+        for (int i = 0; i < excluded.size(); i++) {
+            sql.append(" AND NOT ").append(HAS_GENRE);
+        }
+        try {
+            PreparedStatement statement = prepare(sql.toString());
+            int parameter = 1;
+            for (Genre genre : required) {
+                statement.setInt(parameter++, genre.ordinal());
+            }
+            for (Genre genre : excluded) {
+                statement.setInt(parameter++, genre.ordinal());
+            }
+            return query(statement);
+        } catch (SQLException e) {
+            throw failed(e);
+        }
+    }
+
+    @Override
+    public synchronized void add(Movie movie) throws IOException {
+        addAll(Collections.singletonList(movie));
+    }
+
+    @Override
+    public synchronized void addAll(final Collection<Movie> movies) throws IOException {
+        transaction(new Work() {
+            @Override
+            public void run() throws SQLException {
+                int batched = 0;
+                for (Movie movie : movies) {
+                    insert(movie);
+                    if (++batched == BATCH_SIZE) {
+                        executeInserts();
+                        batched = 0;
+                    }
+                }
+                if (batched > 0) {
+                    executeInserts();
+                }
+            }
+        });
+    }
+
+    @Override
+    public synchronized void replace(final String title, final Movie movie) throws IOException {
+        transaction(new Work() {
+            @Override
+            public void run() throws SQLException {
+                delete(title);
+                insert(movie);
+                executeInserts();
+            }
+        });
+    }
+
+    @Override
+    public synchronized void remove(final String title) throws IOException {
+        transaction(new Work() {
+            @Override
+            public void run() throws SQLException {
+                delete(title);
+            }
+        });
+    }
+
+    /**
+     * Closes every statement and the connection to the database.
+     *
+     * @throws IOException if the database could not be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            for (PreparedStatement statement : statements.values()) {
+                statement.close();
+            }
+            statements.clear();
+            connection.close();
+        } catch (SQLException e) {
+            throw failed(e);
+        }
+    }
+
+    /**
+     * Adds the rows of a movie to the batches of the insert statements.
+     */
+    private void insert(Movie movie) throws SQLException {
+        String key = MovieLibrary.normalize(movie.getTitle());
+        PreparedStatement insertMovie = prepare(INSERT_MOVIE);
+        insertMovie.setString(1, key);
+        insertMovie.setString(2, movie.getTitle());
+        insertMovie.setInt(3, movie.getGenre().ordinal());
+        insertMovie.setInt(4, movie.getGenreMask());
+        if (movie.isRated()) {
+            insertMovie.setDouble(5, movie.getRating());
+        } else {
+            insertMovie.setNull(5, Types.DOUBLE);
+        }
+        insertMovie.addBatch();
+
+        PreparedStatement insertGenre = prepare(INSERT_GENRE);
+        for (Genre genre : movie.getGenres()) {
+            insertGenre.setInt(1, genre.ordinal());
+            insertGenre.setString(2, key);
+            insertGenre.addBatch();
+        }
+    }
+
+    /**
+     * Runs the batches of the insert statements, movies before genres.
+     */
+    private void executeInserts() throws SQLException {
+        prepare(INSERT_MOVIE).executeBatch();
+        prepare(INSERT_GENRE).executeBatch();
+    }
+
+    /**
+     * Deletes the rows of the movie with a title.
+     */
+    private void delete(String title) throws SQLException {
+        String key = MovieLibrary.normalize(title);
+        PreparedStatement deleteGenres = prepare(DELETE_GENRES);
+        deleteGenres.setString(1, key);
+        deleteGenres.executeUpdate();
+        PreparedStatement deleteMovie = prepare(DELETE_MOVIE);
+        deleteMovie.setString(1, key);
+        deleteMovie.executeUpdate();
+    }
+
+    /**
+     * Returns the statement of an SQL string, preparing it the first time.
+     */
+    private PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if (statement == null) {
+            statement = connection.prepareStatement(sql);
+            statements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * Runs a query and reads the movies of its rows.
+     *
+     * @return a new List of the movies, sorted by title
+     */
+    private static List<Movie> query(PreparedStatement statement) throws SQLException {
+        List<Movie> movies = new ArrayList<>();
+        try (ResultSet rows = statement.executeQuery()) {
+            while (rows.next()) {
+                Movie movie = new Movie(rows.getString(1), GENRES[rows.getInt(2)],
+                                        Genre.setOf(rows.getInt(3)));
+                double rating = rows.getDouble(4);
+                movies.add(rows.wasNull() ? movie : movie.withRating(rating));
+            }
+        }
+        Collections.sort(movies);
+        return movies;
+    }
+
+    /**
+     * Makes changes in a single transaction, which is rolled back if any
+     * of them fails.
+     */
+    private void transaction(Work work) throws IOException {
+        try {
+            connection.setAutoCommit(false);
+            try {
+                work.run();
+                connection.commit();
+            } catch (SQLException e) {
+                for (PreparedStatement statement : statements.values()) {
+                    statement.clearBatch();
+                }
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw failed(e);
+        }
+    }
+
+    /**
+     * Escapes the characters of a text that have a special meaning in a
+     * LIKE pattern, with the escape character {@code !}.
+     */
+    private static String escapeLike(String text) {
+        StringBuilder escaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '%' || c == '_' || c == '!') {
+                escaped.append('!');
+            }
+            escaped.append(c);
+        }
+        return escaped.toString();
+    }
+
+    private static IOException failed(SQLException e) {
+        return new IOException("Could not use the database: " + e.getMessage(), e);
+    }
+
+    /**
+     * Changes made to the database in a transaction.
+     */
+    private interface Work {
+        void run() throws SQLException;
+    }
+}
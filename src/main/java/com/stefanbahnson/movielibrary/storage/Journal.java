@@ -0,0 +1,429 @@
+package com.stefanbahnson.movielibrary.storage;
+
+import com.stefanbahnson.movielibrary.model.Genre;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of the changes made to a library since the last
+ * snapshot.<p>
+ *
+ * The journal starts with a header holding the generation of the snapshot
+ * it continues. Every change is then written as a record prefixed by its
+ * length and a CRC32 checksum of its contents, so a record torn by a crash
+ * is detected and discarded when the journal is replayed.<p>
+ *
+ * A movie with a single genre is written with its genre only. A movie
+ * with several genres is written with records that also hold a mask of
+ * its genres, so journals written before movies could have several genres
+ * are read as they always were. A rating is written as a record of its 
+ * own.<p>
+ *
+ * Every record is written to the file as soon as it is made, so it
+ * survives a crash of the application, but it is forced to disk in
+ * batches. A crash of the machine may therefore lose the last changes made
+ * since the previous batch, but never leaves the journal unreadable.
+ */
+final class Journal implements Closeable {
+    private static final int MAGIC = 0x4D4C4A31; // MLJ1
+    private static final int HEADER_SIZE = 12;
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+    private static final byte RENAME = 3;
+    private static final byte GENRE = 4;
+    private static final byte ADD_GENRES = 5;
+    private static final byte GENRES = 6;
+    private static final byte RATE = 7;
+
+    /**
+     * Receives the changes read from a journal, in the order they were made.
+     */
+    interface Replay {
+        void add(String title, Genre genre, int genres);
+        void remove(String title);
+        void rename(String oldTitle, String newTitle);
+        void changeGenre(String title, Genre genre, int genres);
+        void rate(String title, double rating);
+    }
+
+    private final FileChannel channel;
+    private final long generation;
+    private final int syncEvery;
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer pending = ByteBuffer.allocate(256);
+    private int unsynced;
+    private int records;
+
+    private Journal(FileChannel channel, long generation, int syncEvery) {
+        this.channel = channel;
+        this.generation = generation;
+        this.syncEvery = syncEvery;
+    }
+
+    /**
+     * Creates a new, empty journal, replacing any journal in its place.
+     *
+     * @param file the journal file
+     * @param generation the generation of the snapshot the journal continues
+     * @param syncEvery the number of records written between each fsync
+     * @return the new journal
+     * @throws IOException if the journal could not be created
+     */
+    static Journal create(Path file, long generation, int syncEvery)
+            throws IOException {
+        FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putLong(generation).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        channel.force(true);
+        Snapshot.syncDirectory(file);
+        return new Journal(channel, generation, syncEvery);
+    }
+
+    /**
+     * Opens an existing journal and replays its records. Records after
+     * the first torn or corrupt record are discarded, and the journal is
+     * truncated so new records are appended after the last valid one.<p>
+     *
+     * The journal is read into memory rather than mapped, since a file
+     * that is still mapped can not be truncated on every platform, and a
+     * mapping can not be released before it is garbage collected.
+     *
+     * @param file the journal file
+     * @param generation the generation of the snapshot the journal must
+     *                   continue to be replayed
+     * @param syncEvery the number of records written between each fsync
+     * @param replay receives the records of the journal
+     * @return the opened journal, or {@code null} if the file does not
+     *         continue the snapshot and should be replaced
+     * @throws IOException if the journal could not be read
+     */
+    static Journal open(Path file, long generation, int syncEvery,
+                        Replay replay) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean opened = false;
+        try {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                return null;
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Movie library journal too large: " + file);
+            }
+            ByteBuffer in = ByteBuffer.allocate((int) size);
+            while (in.hasRemaining() && channel.read(in) >= 0) {
+                // read the whole journal
+            }
+            in.flip();
+            if (in.getInt() != MAGIC || in.getLong() != generation) {
+                return null;
+            }
+
+            Journal journal = new Journal(channel, generation, syncEvery);
+            long end = journal.replay(in, replay);
+            channel.truncate(end);
+            channel.position(end);
+            opened = true;
+            return journal;
+        } finally {
+            if (!opened) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Checks if a journal holds records that continue a snapshot, without
+     * replaying them.
+     *
+     * @param file the journal file
+     * @param generation the generation of the snapshot
+     * @return {@code true} if the journal continues the snapshot and holds
+     *         anything past its header
+     * @throws IOException if the journal could not be read
+     */
+    static boolean hasRecords(Path file, long generation) throws IOException {
+        if (!Files.exists(file)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() <= HEADER_SIZE) {
+                return false;
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // read the whole header
+            }
+            header.flip();
+            return header.remaining() == HEADER_SIZE
+                    && header.getInt() == MAGIC && header.getLong() == generation;
+        }
+    }
+
+    /**
+     * Returns the generation of the snapshot this journal continues.
+     */
+    long generation() {
+        return generation;
+    }
+
+    /**
+     * Returns the number of records in this journal.
+     */
+    int records() {
+        return records;
+    }
+
+    void add(String title, Genre genre, int genres) throws IOException {
+        genres(ADD, ADD_GENRES, title, genre, genres);
+    }
+
+    void remove(String title) throws IOException {
+        byte[] t = utf8(title);
+        ByteBuffer record = begin(1 + 4 + t.length);
+        record.put(REMOVE).putInt(t.length).put(t);
+        end();
+    }
+
+    void rename(String oldTitle, String newTitle) throws IOException {
+        byte[] o = utf8(oldTitle);
+        byte[] n = utf8(newTitle);
+        ByteBuffer record = begin(1 + 4 + o.length + 4 + n.length);
+        record.put(RENAME).putInt(o.length).put(o).putInt(n.length).put(n);
+        end();
+    }
+
+    void changeGenre(String title, Genre genre, int genres) throws IOException {
+        genres(GENRE, GENRES, title, genre, genres);
+    }
+
+    void rate(String title, double rating) throws IOException {
+        byte[] t = utf8(title);
+        ByteBuffer record = begin(1 + 4 + t.length + 8);
+        record.put(RATE).putInt(t.length).put(t).putDouble(rating);
+        end();
+    }
+
+    /**
+     * Writes a record with a title and genres, as the single genre op if
+     * the genre is the only genre and as the mask op otherwise.
+     */
+    private void genres(byte op, byte maskOp, String title, Genre genre,
+                        int genres) throws IOException {
+        byte[] t = utf8(title);
+        if (genres == Genre.mask(genre)) {
+            ByteBuffer record = begin(1 + 4 + t.length + 1);
+            record.put(op).putInt(t.length).put(t).put((byte) genre.ordinal());
+        } else {
+            ByteBuffer record = begin(1 + 4 + t.length + 1 + 4);
+            record.put(maskOp).putInt(t.length).put(t)
+                  .put((byte) genre.ordinal()).putInt(genres);
+        }
+        end();
+    }
+
+    /**
+     * Returns the position after the last record, to which the journal
+     * can be cut back by {@link #truncate(long, int)}.
+     *
+     * @throws IOException if the position could not be read
+     */
+    long position() throws IOException {
+        return channel.position();
+    }
+
+    /**
+     * Returns whether the journal is still open for records.
+     */
+    boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    /**
+     * Cuts off every record written after a position, so that the changes
+     * they record are forgotten, as when a change could not be written
+     * whole.
+     *
+     * @param position the position after the last record to keep
+     * @param records the number of records up to the position
+     * @throws IOException if the journal could not be cut back
+     */
+    void truncate(long position, int records) throws IOException {
+        channel.truncate(position);
+        channel.position(position);
+        this.unsynced = Math.max(0, unsynced - (this.records - records));
+        this.records = records;
+    }
+
+    /**
+     * Forces every record written so far to disk.
+     *
+     * @throws IOException if the records could not be forced
+     */
+    void sync() throws IOException {
+        if (unsynced > 0) {
+            channel.force(false);
+            unsynced = 0;
+        }
+    }
+
+    /**
+     * Forces every record to disk and closes the journal, unless it is
+     * already closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!channel.isOpen()) {
+            return;
+        }
+        try {
+            sync();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Starts a record in the buffer, leaving space for its length and
+     * checksum, which are filled in by {@link #end()}.
+     */
+    private ByteBuffer begin(int length) {
+        if (pending.capacity() < RECORD_HEADER_SIZE + length) {
+            pending = ByteBuffer.allocate(RECORD_HEADER_SIZE + length);
+        }
+        pending.clear();
+        pending.putInt(length).putInt(0);
+        return pending;
+    }
+
+    /**
+     * Completes the record in the buffer and writes it to the file, and
+     * forces the file to disk if enough records were written since the
+     * last time. A record that could not be written whole is cut off
+     * again, so the next record follows the last whole one.
+     */
+    private void end() throws IOException {
+        int length = pending.getInt(0);
+        crc.reset();
+        crc.update(pending.array(), pending.arrayOffset() + RECORD_HEADER_SIZE, length);
+        pending.putInt(4, (int) crc.getValue());
+        pending.flip();
+
+        long start = channel.position();
+        try {
+            while (pending.hasRemaining()) {
+                channel.write(pending);
+            }
+        } catch (IOException e) {
+            try {
+                channel.truncate(start);
+                channel.position(start);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+
+        records++;
+        if (++unsynced >= syncEvery) {
+            sync();
+        }
+    }
+
+    /**
+     * Replays the records that follow the header.
+     *
+     * @return the position after the last valid record
+     */
+    private long replay(ByteBuffer in, Replay replay) {
+        byte[] scratch = new byte[256];
+        for (;;) {
+            int start = in.position();
+            if (in.remaining() < RECORD_HEADER_SIZE) {
+                return start;
+            }
+            int length = in.getInt();
+            int checksum = in.getInt();
+            if (length <= 0 || length > in.remaining()) {
+                return start;
+            }
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            in.get(scratch, 0, length);
+            crc.reset();
+            crc.update(scratch, 0, length);
+            if ((int) crc.getValue() != checksum) {
+                return start;
+            }
+
+            ByteBuffer record = ByteBuffer.wrap(scratch, 0, length);
+            switch (record.get()) {
+                case ADD: {
+                    String title = string(record);
+                    Genre genre = genre(record);
+                    replay.add(title, genre, Genre.mask(genre));
+                    break;
+                }
+                case ADD_GENRES:
+                    replay.add(string(record), genre(record), record.getInt());
+                    break;
+                case REMOVE:
+                    replay.remove(string(record));
+                    break;
+                case RENAME:
+                    replay.rename(string(record), string(record));
+                    break;
+                case GENRE: {
+                    String title = string(record);
+                    Genre genre = genre(record);
+                    replay.changeGenre(title, genre, Genre.mask(genre));
+                    break;
+                }
+                case GENRES:
+                    replay.changeGenre(string(record), genre(record), record.getInt());
+                    break;
+                case RATE:
+                    replay.rate(string(record), record.getDouble());
+                    break;
+                default:
+                    return start;
+            }
+            records++;
+        }
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(ByteBuffer record) {
+        int length = record.getInt();
+        String s = new String(record.array(), record.arrayOffset()
+                              + record.position(), length,
+                              StandardCharsets.UTF_8);
+        record.position(record.position() + length);
+        return s;
+    }
+
+    private static Genre genre(ByteBuffer record) {
+        return Genre.values()[record.get()];
+    }
+}
@@ -0,0 +1,100 @@
+package com.stefanbahnson.movielibrary.storage;
+
+import com.stefanbahnson.movielibrary.model.Genre;
+import com.stefanbahnson.movielibrary.model.Movie;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The storage behind a {@code StoredMovieLibrary}.<p>
+ *
+ * A store keeps every movie of a library by its title, which is not
+ * case-sensitive, and answers the simple queries of the library itself, so
+ * they can be answered before the library has read its movies. Every
+ * change is kept by the store as soon as the method that makes it returns,
+ * and a change that fails leaves the store as it was.
+ */
+public interface MovieStore extends Closeable {
+
+    /**
+     * Returns every movie in the store.
+     *
+     * @return a new List of the movies, sorted by title
+     * @throws IOException if the store could not be read
+     */
+    List<Movie> loadAll() throws IOException;
+
+    /**
+     * Returns the movie with a title, which is not case-sensitive.
+     *
+     * @param title the title of the movie
+     * @return the movie, or {@code null} if there is none
+     * @throws IOException if the store could not be read
+     */
+    Movie find(String title) throws IOException;
+
+    /**
+     * Returns the movies with a title that contains the query, ignoring
+     * case, as by {@code MovieLibrary.getMovieMatches}.
+     *
+     * @param query a characther sequence of any sort
+     * @return a new List of the movies, sorted by title
+     * @throws IOException if the store could not be read
+     */
+    List<Movie> search(String query) throws IOException;
+
+    /**
+     * Returns the movies that has a genre, as their main genre or otherwise.
+     *
+     * @param genre a genre
+     * @return a new List of the movies, sorted by title
+     * @throws IOException if the store could not be read
+     */
+    List<Movie> byGenre(Genre genre) throws IOException;
+
+    /**
+     * Returns the movies that has every one of the required genres and
+     * none of the excluded genres.
+     *
+     * @param required the genres every movie must have, none for any genre
+     * @param excluded the genres no movie may have
+     * @return a new List of the movies, sorted by title
+     * @throws IOException if the store could not be read
+     */
+    List<Movie> byGenres(Set<Genre> required, Set<Genre> excluded) throws IOException;
+
+    /**
+     * Adds a movie with a title that is not in the store.
+     *
+     * @throws IOException if the store could not be written
+     */
+    void add(Movie movie) throws IOException;
+
+    /**
+     * Adds several movies at once, each with a title that is neither in the
+     * store nor the title of another of the movies.
+     *
+     * @throws IOException if the store could not be written
+     */
+    void addAll(Collection<Movie> movies) throws IOException;
+
+    /**
+     * Replaces the movie with a title by another movie, which may have
+     * another title.
+     *
+     * @param title the title of the movie to replace
+     * @param movie the movie that takes its place
+     * @throws IOException if the store could not be written
+     */
+    void replace(String title, Movie movie) throws IOException;
+
+    /**
+     * Removes the movie with a title.
+     *
+     * @throws IOException if the store could not be written
+     */
+    void remove(String title) throws IOException;
+}
@@ -0,0 +1,181 @@
+package com.stefanbahnson.movielibrary.storage;
+
+import com.stefanbahnson.movielibrary.model.Genre;
+import com.stefanbahnson.movielibrary.model.Movie;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A compact binary image of every movie in a library.<p>
+ *
+ * The snapshot holds a header with the generation of the journal that
+ * continues it and the number of movies, followed by one record per movie
+ * (main genre, genre mask, rating, title length, UTF-8 title) in title
+ * order. A CRC32 checksum of everything before it ends the file. Snapshots
+ * of the earlier versions, written before movies could have several genres
+ * or a rating, have no genre mask or no rating and are still read.<p>
+ *
+ * A snapshot is written to a temporary file and moved into place, so a
+ * crash while writing leaves the previous snapshot intact. The directory
+ * is forced to disk after the move, so the move survives a crash as well.
+ * It is read through a memory-mapped {@code FileChannel}.
+ */
+final class Snapshot {
+    private static final int MAGIC = 0x4D4C5331; // MLS1
+    private static final int VERSION = 3;
+    private static final int UNRATED_VERSION = 2;
+    private static final int SINGLE_GENRE_VERSION = 1;
+    private static final int HEADER_SIZE = 20;
+    private static final int CHUNK = 64 * 1024;
+
+    private Snapshot() {}// can not be instantiated!
+
+    /**
+     * Writes a snapshot of movies, replacing any snapshot in its place.
+     *
+     * @param file the snapshot file
+     * @param generation the generation of the journal that continues it
+     * @param movies the movies in the library, sorted by title
+     * @throws IOException if the snapshot could not be written
+     */
+    static void write(Path file, long generation, List<Movie> movies)
+            throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (FileOutputStream fos = new FileOutputStream(tmp.toFile())) {
+            CRC32 crc = new CRC32();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new CheckedOutputStream(fos, crc), CHUNK));
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(generation);
+            out.writeInt(movies.size());
+            for (Movie movie : movies) {
+                byte[] title = movie.getTitle().getBytes(StandardCharsets.UTF_8);
+                out.writeByte(movie.getGenre().ordinal());
+                out.writeInt(movie.getGenreMask());
+                out.writeDouble(movie.getRating());
+                out.writeInt(title.length);
+                out.write(title);
+            }
+            out.flush();
+
+            // the checksum itself is written past the checked stream
+            new DataOutputStream(fos).writeInt((int) crc.getValue());
+            fos.getChannel().force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                              StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(file);
+    }
+
+    /**
+     * Forces the directory of a file to disk, so that the file being
+     * created or moved there survives a crash. Platforms that can not open
+     * a directory, such as Windows, keep the entries of a directory without
+     * it.
+     *
+     * @param file a file in the directory
+     * @throws IOException if the directory could not be forced to disk
+     */
+    static void syncDirectory(Path file) throws IOException {
+        FileChannel directory;
+        try {
+            directory = FileChannel.open(file.toAbsolutePath().getParent(),
+                                         StandardOpenOption.READ);
+        } catch (IOException e) {
+            return;
+        }
+        try {
+            directory.force(true);
+        } finally {
+            directory.close();
+        }
+    }
+
+    /**
+     * Reads the movies of a snapshot.
+     *
+     * @param file the snapshot file
+     * @param movies receives the movies of the snapshot, sorted by title
+     * @return the generation of the journal that continues the snapshot,
+     *         or zero if there is no snapshot
+     * @throws IOException if the snapshot could not be read or is corrupt
+     */
+    static long read(Path file, List<Movie> movies) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE + 4 || size > Integer.MAX_VALUE) {
+                throw new IOException("Not a movie library snapshot: " + file);
+            }
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            byte[] scratch = new byte[CHUNK];
+            verify(in, scratch, file);
+
+            if (in.getInt() != MAGIC) {
+                throw new IOException("Not a movie library snapshot: " + file);
+            }
+            int version = in.getInt();
+            if (version != VERSION && version != UNRATED_VERSION
+                    && version != SINGLE_GENRE_VERSION) {
+                throw new IOException("Unknown movie library snapshot version "
+                                      + version + ": " + file);
+            }
+            long generation = in.getLong();
+            int count = in.getInt();
+
+            Genre[] genres = Genre.values();
+            for (int i = 0; i < count; i++) {
+                Genre genre = genres[in.get()];
+                int mask = version >= UNRATED_VERSION ? in.getInt() : Genre.mask(genre);
+                double rating = version >= VERSION ? in.getDouble() : Movie.UNRATED;
+                int length = in.getInt();
+                if (scratch.length < length) {
+                    scratch = new byte[length];
+                }
+                in.get(scratch, 0, length);
+
+                Movie movie = new Movie(new String(scratch, 0, length,
+                        StandardCharsets.UTF_8), genre, Genre.setOf(mask));
+                movies.add(Double.isNaN(rating) ? movie : movie.withRating(rating));
+            }
+            return generation;
+        }
+    }
+
+    /**
+     * Checks the checksum at the end of a snapshot against its contents.
+     */
+    private static void verify(ByteBuffer in, byte[] scratch, Path file)
+            throws IOException {
+        int end = in.limit() - 4;
+        CRC32 crc = new CRC32();
+        while (in.position() < end) {
+            int n = Math.min(scratch.length, end - in.position());
+            in.get(scratch, 0, n);
+            crc.update(scratch, 0, n);
+        }
+        if (in.getInt() != (int) crc.getValue()) {
+            throw new IOException("Corrupt movie library snapshot: " + file);
+        }
+        in.rewind();
+    }
+}
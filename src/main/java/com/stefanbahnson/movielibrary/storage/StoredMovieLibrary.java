@@ -0,0 +1,388 @@
+package com.stefanbahnson.movielibrary.storage;
+
+import com.stefanbahnson.movielibrary.metrics.LibraryMetrics;
+import com.stefanbahnson.movielibrary.metrics.Operation;
+import com.stefanbahnson.movielibrary.model.Genre;
+import com.stefanbahnson.movielibrary.model.Movie;
+import com.stefanbahnson.movielibrary.model.IndexedMovieLibrary;
+import com.stefanbahnson.movielibrary.model.Page;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@code MovieLibrary} kept in a {@code MovieStore}, such as a database,
+ * and read into memory when it is first needed.<p>
+ *
+ * Opening the library reads nothing. Until the movies are needed in
+ * memory, looking up a title, searching titles and filtering by genre are
+ * answered by the store, so the application can start and answer them
+ * whatever the size of the library. Every other query, and every change,
+ * first reads all the movies of the store into memory. From then on the
+ * movies in memory answer every query, those above included, as any
+ * library does, and the store is only written to.<p>
+ *
+ * Every change is made in memory and then to the store, before the method
+ * that makes it returns. A change the store fails to make is undone in
+ * memory as well, so the two never disagree.<p>
+ *
+ * The library is loaded once, even if several threads ask for it at
+ * once, and a thread that finds it loaded sees all of its movies. The
+ * library must still be loaded before it is shared by a
+ * {@code ConcurrentMovieLibrary}, and closed to close its store.
+ */
+public class StoredMovieLibrary extends IndexedMovieLibrary implements Closeable {
+    private final MovieStore store;
+    private volatile boolean loaded;
+
+    private StoredMovieLibrary(MovieStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Opens the library kept in a store, without reading any of it.
+     *
+     * @param store the store of the library, which must not be changed by
+     *              anyone else from then on
+     * @return the library
+     */
+    public static StoredMovieLibrary open(MovieStore store) {
+        return new StoredMovieLibrary(store);
+    }
+
+    /**
+     * Reads every movie of the store into memory, unless that is already
+     * done.
+     *
+     * @throws IllegalStateException if the store could not be read
+     */
+    public void load() {
+        if (loaded) {
+            return;
+        }
+        synchronized (this) {
+            if (!loaded) {
+                try {
+                    super.addAll(store.loadAll());
+                } catch (IOException e) {
+                    throw failed(e);
+                }
+                loaded = true;
+            }
+        }
+    }
+
+    /**
+     * Checks if the movies of the store are in memory.
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    @Override
+    public boolean findDuplicate(String movieTitle) {
+        if (loaded) {
+            return super.findDuplicate(movieTitle);
+        }
+        long start = LibraryMetrics.start();
+        try {
+            return store.find(movieTitle) != null;
+        } catch (IOException e) {
+            throw failed(e);
+        } finally {
+            LibraryMetrics.record(Operation.FIND_DUPLICATE, start);
+        }
+    }
+
+    @Override
+    public Movie getUniqueMovie(String movieTitle) {
+        if (loaded) {
+            return super.getUniqueMovie(movieTitle);
+        }
+        long start = LibraryMetrics.start();
+        try {
+            return store.find(movieTitle);
+        } catch (IOException e) {
+            throw failed(e);
+        } finally {
+            LibraryMetrics.record(Operation.GET_UNIQUE_MOVIE, start);
+        }
+    }
+
+    @Override
+    public List<Movie> getMovieMatches(String query) {
+        if (loaded) {
+            return super.getMovieMatches(query);
+        }
+        long start = LibraryMetrics.start();
+        try {
+            List<Movie> movieMatches = store.search(query);
+            LibraryMetrics.recordHits(movieMatches.size());
+            return movieMatches;
+        } catch (IOException e) {
+            throw failed(e);
+        } finally {
+            LibraryMetrics.record(Operation.GET_MOVIE_MATCHES, start);
+        }
+    }
+
+    @Override
+    public List<Movie> getByGenre(Genre genre) {
+        if (loaded) {
+            return super.getByGenre(genre);
+        }
+        long start = LibraryMetrics.start();
+        try {
+            return Collections.unmodifiableList(store.byGenre(genre));
+        } catch (IOException e) {
+            throw failed(e);
+        } finally {
+            LibraryMetrics.record(Operation.GET_BY_GENRE, start);
+        }
+    }
+
+    @Override
+    public List<Movie> getByGenres(Set<Genre> required, Set<Genre> excluded) {
+        if (loaded) {
+            return super.getByGenres(required, excluded);
+        }
+        long start = LibraryMetrics.start();
+        try {
+            return store.byGenres(required, excluded);
+        } catch (IOException e) {
+            throw failed(e);
+        } finally {
+            LibraryMetrics.record(Operation.GET_BY_GENRES, start);
+        }
+    }
+
+    @Override
+    public boolean addMovie(Movie movie) {
+        load();
+        boolean added = super.addMovie(movie);
+        if (added) {
+            try {
+                store.add(movie);
+            } catch (IOException e) {
+                super.removeMovie(movie);
+                throw failed(e);
+            }
+        }
+        return added;
+    }
+
+    @Override
+    public int addAll(Collection<Movie> movies) {
+        load();
+        List<Movie> candidates = new ArrayList<>();
+        for (Movie movie : movies) {
+            if (!super.findDuplicate(movie.getTitle())) {
+                candidates.add(movie);
+            }
+        }
+        int added = super.addAll(movies);
+        if (added > 0) {
+            // only the movies that made it into the library, once each
+            List<Movie> stored = new ArrayList<>(added);
+            Set<String> titles = new HashSet<>();
+            for (Movie movie : candidates) {
+                if (super.getUniqueMovie(movie.getTitle()) == movie
+                        && titles.add(normalize(movie.getTitle()))) {
+                    stored.add(movie);
+                }
+            }
+            try {
+                store.addAll(stored);
+            } catch (IOException e) {
+                for (Movie movie : stored) {
+                    super.removeMovie(movie);
+                }
+                throw failed(e);
+            }
+        }
+        return added;
+    }
+
+    @Override
+    public Movie renameMovie(Movie movie, String newTitle) {
+        load();
+        return replaced(movie, super.renameMovie(movie, newTitle));
+    }
+
+    @Override
+    public Movie changeGenre(Movie movie, Genre newGenre) {
+        load();
+        return replaced(movie, super.changeGenre(movie, newGenre));
+    }
+
+    @Override
+    public Movie changeGenres(Movie movie, Genre newGenre, Collection<Genre> otherGenres) {
+        load();
+        return replaced(movie, super.changeGenres(movie, newGenre, otherGenres));
+    }
+
+    @Override
+    public Movie rateMovie(Movie movie, double rating) {
+        load();
+        return replaced(movie, super.rateMovie(movie, rating));
+    }
+
+    @Override
+    public boolean removeMovie(Movie movie) {
+        load();
+        boolean removed = super.removeMovie(movie);
+        if (removed) {
+            try {
+                store.remove(movie.getTitle());
+            } catch (IOException e) {
+                super.addMovie(movie);
+                throw failed(e);
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    public List<Movie> getFuzzyMatches(String query, int maxDistance, int limit) {
+        load();
+        return super.getFuzzyMatches(query, maxDistance, limit);
+    }
+
+    @Override
+    public List<Movie> suggest(String prefix, int limit) {
+        load();
+        return super.suggest(prefix, limit);
+    }
+
+    @Override
+    public List<Movie> getByRating(double minRating, double maxRating) {
+        load();
+        return super.getByRating(minRating, maxRating);
+    }
+
+    @Override
+    public List<Movie> getTopRated(Genre genre, int limit) {
+        load();
+        return super.getTopRated(genre, limit);
+    }
+
+    @Override
+    public Movie randomMovie() {
+        load();
+        return super.randomMovie();
+    }
+
+    @Override
+    public Movie randomMovie(Genre genre) {
+        load();
+        return super.randomMovie(genre);
+    }
+
+    @Override
+    public Movie randomRatedMovie() {
+        load();
+        return super.randomRatedMovie();
+    }
+
+    @Override
+    public int size() {
+        load();
+        return super.size();
+    }
+
+    @Override
+    public List<Movie> getAllByTitle() {
+        load();
+        return super.getAllByTitle();
+    }
+
+    @Override
+    public List<Movie> getAllByGenre() {
+        load();
+        return super.getAllByGenre();
+    }
+
+    @Override
+    public List<Movie> getAllByTitle(int offset, int limit) {
+        load();
+        return super.getAllByTitle(offset, limit);
+    }
+
+    @Override
+    public List<Movie> getByGenre(Genre genre, int offset, int limit) {
+        load();
+        return super.getByGenre(genre, offset, limit);
+    }
+
+    @Override
+    public Page getPageByTitle(String cursor, int limit) {
+        load();
+        return super.getPageByTitle(cursor, limit);
+    }
+
+    @Override
+    public Page getPageByGenre(Genre genre, String cursor, int limit) {
+        load();
+        return super.getPageByGenre(genre, cursor, limit);
+    }
+
+    @Override
+    public Page getMatchPage(String query, String cursor, int limit) {
+        load();
+        return super.getMatchPage(query, cursor, limit);
+    }
+
+    @Override
+    public Map<String, Integer> getIndexSizes() {
+        load();
+        return super.getIndexSizes();
+    }
+
+    @Override
+    public Map<String, Long> getCacheStats() {
+        load();
+        return super.getCacheStats();
+    }
+
+    /**
+     * Closes the store of the library.
+     *
+     * @throws IOException if the store could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        store.close();
+    }
+
+    /**
+     * Writes a movie that was changed in memory to the store, or changes
+     * it back in memory if the store could not be written.
+     *
+     * @param movie the movie as it was before the change
+     * @param changed the movie as it is after it, or {@code null} if there
+     *                was no change
+     * @return the changed movie
+     */
+    private Movie replaced(Movie movie, Movie changed) {
+        if (changed != null) {
+            try {
+                store.replace(movie.getTitle(), changed);
+            } catch (IOException e) {
+                super.removeMovie(changed);
+                super.addMovie(movie);
+                throw failed(e);
+            }
+        }
+        return changed;
+    }
+
+    private static IllegalStateException failed(IOException e) {
+        return new IllegalStateException("Could not use the library store", e);
+    }
+}
@@ -1,6 +1,26 @@
 package com.stefanbahnson.movielibrary.ui;
 
+import com.stefanbahnson.movielibrary.importer.CatalogImporter;
+import com.stefanbahnson.movielibrary.importer.ImportReport;
+import com.stefanbahnson.movielibrary.metrics.LibraryMetrics;
+import com.stefanbahnson.movielibrary.model.ConcurrentMovieLibrary;
+import com.stefanbahnson.movielibrary.model.Movie;
 import com.stefanbahnson.movielibrary.model.MovieLibrary;
+import com.stefanbahnson.movielibrary.storage.DurableMovieLibrary;
+import com.stefanbahnson.movielibrary.storage.JdbcMovieStore;
+import com.stefanbahnson.movielibrary.storage.StoredMovieLibrary;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import javax.management.JMException;
 
 /**
  * This application keeps a library of movies.<p>
@@ -11,21 +31,179 @@ import com.stefanbahnson.movielibrary.model.MovieLibrary;
  * 
  * These options are made available through the {@code UI}.<p>
  * 
- * This application requires a console to run.
+ * This application requires a console to run.<p>
+ * 
+ * The library is kept in the directory given by the system property 
+ * {@code movielibrary.dir}, by default {@code .movielibrary} in the home 
+ * directory of the user, and is restored when the application is started.
+ * Started with {@code -Dmovielibrary.jdbc=<url>}, the library is kept in 
+ * the embedded database of that JDBC URL instead, such as 
+ * {@code jdbc:h2:~/.movielibrary/library}.<p>
+ * 
+ * Started with {@code -Dmovielibrary.coldStart=true}, a library kept in a 
+ * directory is served as soon as its last checkpoint is read, while it is 
+ * opened and indexed in the background, and the time taken by each phase 
+ * of the start is printed.<p>
+ * 
+ * Started with {@code --import} followed by one or more CSV or TSV catalog 
+ * files, the catalogs are imported into the library without a console.<p>
+ * 
+ * Started with {@code --batch} followed by a script file, or by nothing 
+ * to read the script from standard input, the commands of the script are 
+ * run against the library without a console, as by {@code BatchRunner}.<p>
+ * 
+ * Started with {@code -Dmovielibrary.metrics=true}, the operations of the 
+ * library are measured and published through JMX.
  *
- * <p>FUTURE FEATURES: Random choice, comments, ratings, search by ratings,
- *                     multiple genres for the same movie, database, 
- *                     web scraping.<p>
+ * <p>FUTURE FEATURES: Comments, web scraping.<p>
  *
  * Last modified: 17-10-2014
  * @author Stefan Bahnson
  */
 public class AppStart {
 
-    public static void main(String[] args) {
-        MovieLibrary movieLib = new MovieLibrary();
+    public static void main(String[] args) throws IOException, JMException {
+        final MovieLibrary movieLib = openLibrary(false);
+        if (LibraryMetrics.ENABLED) {
+            new LibraryMetrics(movieLib).register();
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                try {
+                    ((Closeable) movieLib).close();
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Could not save the library: " + e);
+                }
+            }
+        });
+        
+        if (args.length > 0 && args[0].equals("--import")) {
+            importCatalogs(movieLib, args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--batch")) {
+            if (runBatch(movieLib, args) > 0) {
+                System.exit(1);
+            }
+            return;
+        }
+        
         UI ui = new UI(movieLib);
         ui.run();
     }
+    
+    /**
+     * Imports the catalog files that follow the first argument and prints 
+     * a report for each of them.
+     */
+    private static void importCatalogs(MovieLibrary movieLib, 
+                                       String[] args) throws IOException {
+        CatalogImporter importer = new CatalogImporter(movieLib);
+        for (int i = 1; i < args.length; i++) {
+            ImportReport report = importer.importCatalog(Paths.get(args[i]));
+            System.out.printf("%s: %s%n", args[i], report);
+            for (String error : report.getErrors()) {
+                System.out.printf("  %s%n", error);
+            }
+        }
+    }
+    
+    /**
+     * Runs the script given by the argument that follows the first 
+     * argument, or read from standard input if there is none.
+     * 
+     * @return the number of commands that failed
+     */
+    private static int runBatch(MovieLibrary movieLib, 
+                                String[] args) throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+        BatchRunner runner = new BatchRunner(movieLib, out);
+        if (args.length > 1 && !args[1].equals("-")) {
+            try (BufferedReader script = Files.newBufferedReader(Paths.get(args[1]))) {
+                return runner.run(script);
+            }
+        }
+        return runner.run(new BufferedReader(new InputStreamReader(System.in), 1 << 16));
+    }
+    
+    /**
+     * Opens the library kept by the application, in the database given by 
+     * the system property {@code movielibrary.jdbc} if there is one and in 
+     * the library directory otherwise.
+     * 
+     * @param shared whether the library is shared by many threads, which 
+     *               makes it a {@code ConcurrentMovieLibrary}
+     * @return the library, which must be closed as a {@code Closeable}
+     * @throws IOException if the library could not be opened
+     */
+    static MovieLibrary openLibrary(boolean shared) throws IOException {
+        String url = System.getProperty("movielibrary.jdbc");
+        if (url != null) {
+            StoredMovieLibrary library = StoredMovieLibrary.open(JdbcMovieStore.open(url));
+            if (!shared) {
+                return library;
+            }
+            library.load();
+            return new ConcurrentMovieLibrary(library);
+        }
+        Path directory = libraryDirectory();
+        if (Boolean.getBoolean("movielibrary.coldStart")) {
+            ConcurrentMovieLibrary library = warmUp(directory);
+            if (library != null) {
+                return library;
+            }
+        }
+        DurableMovieLibrary library = DurableMovieLibrary.open(directory);
+        return shared ? new ConcurrentMovieLibrary(library) : library;
+    }
+    
+    /**
+     * Serves the library kept in a directory from its last checkpoint while 
+     * it is opened in the background, and prints the time taken by each 
+     * phase of the start to standard error.
+     * 
+     * @return the library, warming up, or {@code null} if it was changed 
+     *         since the checkpoint and must be opened as usual
+     */
+    private static ConcurrentMovieLibrary warmUp(final Path directory) 
+            throws IOException {
+        final long start = System.nanoTime();
+        List<Movie> movies = DurableMovieLibrary.readCheckpoint(directory);
+        if (movies == null) {
+            System.err.println("Cold start: the library was changed since its checkpoint");
+            return null;
+        }
+        final long read = millisSince(start);
+        ConcurrentMovieLibrary library = ConcurrentMovieLibrary.warmUp(
+                movies, () -> DurableMovieLibrary.open(directory));
+        System.err.printf("Cold start: read %d movies in %d ms, serving after %d ms%n", 
+                          movies.size(), read, millisSince(start));
+        library.whenWarm().whenComplete((times, e) -> {
+            if (e != null) {
+                System.err.println("Cold start: could not open the library: " + e);
+            } else {
+                System.err.printf("Cold start: opened in %d ms, indexed in %d ms, "
+                                  + "warm after %d ms%n", times.get("open"), 
+                                  times.get("index"), read + times.get("warm"));
+            }
+        });
+        return library;
+    }
+    
+    private static long millisSince(long start) {
+        return (System.nanoTime() - start) / 1000000;
+    }
+    
+    /**
+     * Returns the directory where the library is kept.
+     */
+    static Path libraryDirectory() {
+        String dir = System.getProperty("movielibrary.dir");
+        if (dir == null) {
+            return Paths.get(System.getProperty("user.home"), ".movielibrary");
+        }
+        return Paths.get(dir);
+    }
 
 }
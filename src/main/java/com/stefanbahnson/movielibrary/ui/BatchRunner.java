@@ -0,0 +1,256 @@
+package com.stefanbahnson.movielibrary.ui;
+
+import com.stefanbahnson.movielibrary.model.Genre;
+import com.stefanbahnson.movielibrary.model.Movie;
+import com.stefanbahnson.movielibrary.model.MovieLibrary;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Runs a script of commands against a library without a console or any
+ * prompts, so the library can be changed from scripts.<p>
+ *
+ * A script has one command per line. Blank lines and lines that start
+ * with {@code #} are skipped. Titles are not case-sensitive, and genres
+ * are given by name, several separated by commas with the main genre
+ * first:
+ *
+ * <pre>
+ *   add action,comedy Rush Hour
+ *   rename Rush Hour -&gt; Rush Hour 2
+ *   genre drama Rush Hour 2
+ *   rate 7.5 Rush Hour 2
+ *   remove Rush Hour 2
+ *   search rush
+ *   ratings 7.5 9
+ *   top 100 [&lt;genre&gt;]
+ *   random [&lt;genre&gt; | rated]
+ *   list title | genre | &lt;genre&gt;
+ * </pre>
+ *
+ * Commands that change the library print nothing unless they fail. Every
+ * line of output goes through a single buffered writer, which is only
+ * flushed when the script ends.
+ */
+public class BatchRunner {
+    private static final String RENAME_SEPARATOR = " -> ";
+
+    private final MovieLibrary library;
+    private final Writer out;
+    private int lineNumber;
+    private int failed;
+
+    /**
+     * Creates a runner of scripts.
+     *
+     * @param library the library the commands are run against
+     * @param out receives the results of the commands, which should be
+     *            buffered
+     */
+    public BatchRunner(MovieLibrary library, Writer out) {
+        this.library = library;
+        this.out = out;
+    }
+
+    /**
+     * Runs every command of a script and flushes the output.
+     *
+     * @param script the commands, one per line
+     * @return the number of commands that failed
+     * @throws IOException if the script could not be read or the output
+     *         could not be written
+     */
+    public int run(BufferedReader script) throws IOException {
+        long start = System.nanoTime();
+        int commands = 0;
+        String line;
+        while ((line = script.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            commands++;
+            try {
+                execute(line);
+            } catch (IllegalArgumentException e) {
+                fail(e.getMessage());
+            }
+        }
+        out.write(String.format("%d commands, %d failed in %d ms%n", commands,
+                                failed, (System.nanoTime() - start) / 1000000));
+        out.flush();
+        return failed;
+    }
+
+    /**
+     * Runs a single command.
+     *
+     * @throws IllegalArgumentException if the command is malformed
+     */
+    private void execute(String line) throws IOException {
+        int space = line.indexOf(' ');
+        String command = space < 0 ? line : line.substring(0, space);
+        String args = space < 0 ? "" : line.substring(space + 1).trim();
+
+        switch (command.toLowerCase(Locale.ROOT)) {
+            case "add":      add(args);    break;
+            case "remove":   remove(args); break;
+            case "rename":   rename(args); break;
+            case "genre":    genre(args);  break;
+            case "rate":     rate(args);   break;
+            case "ratings":  ratings(args); break;
+            case "top":      top(args);    break;
+            case "random":   random(args); break;
+            case "search":   print(library.getMovieMatches(args)); break;
+            case "list":     list(args);   break;
+            default:
+                throw new IllegalArgumentException("Unknown command: " + command);
+        }
+    }
+
+    private void add(String args) throws IOException {
+        int space = args.indexOf(' ');
+        if (space < 0) {
+            throw new IllegalArgumentException("Expected: add <genres> <title>");
+        }
+        List<Genre> genres = genres(args.substring(0, space));
+        String title = args.substring(space + 1).trim();
+        if (!library.addMovie(new Movie(title, genres.get(0), genres))) {
+            fail("Movie allready added: " + title);
+        }
+    }
+
+    private void remove(String title) throws IOException {
+        Movie movie = library.getUniqueMovie(title);
+        if (movie == null || !library.removeMovie(movie)) {
+            fail("No movie by that name: " + title);
+        }
+    }
+
+    private void rename(String args) throws IOException {
+        int separator = args.indexOf(RENAME_SEPARATOR);
+        if (separator < 0) {
+            throw new IllegalArgumentException(
+                    "Expected: rename <title>" + RENAME_SEPARATOR + "<new title>");
+        }
+        String title = args.substring(0, separator).trim();
+        String newTitle = args.substring(separator + RENAME_SEPARATOR.length()).trim();
+        Movie movie = library.getUniqueMovie(title);
+        if (movie == null) {
+            fail("No movie by that name: " + title);
+        } else if (newTitle.isEmpty() || library.renameMovie(movie, newTitle) == null) {
+            fail("Could not rename " + title + " to " + newTitle);
+        }
+    }
+
+    private void genre(String args) throws IOException {
+        int space = args.indexOf(' ');
+        if (space < 0) {
+            throw new IllegalArgumentException("Expected: genre <genres> <title>");
+        }
+        List<Genre> genres = genres(args.substring(0, space));
+        String title = args.substring(space + 1).trim();
+        Movie movie = library.getUniqueMovie(title);
+        if (movie == null || library.changeGenres(movie, genres.get(0), genres) == null) {
+            fail("No movie by that name: " + title);
+        }
+    }
+
+    private void rate(String args) throws IOException {
+        int space = args.indexOf(' ');
+        if (space < 0) {
+            throw new IllegalArgumentException("Expected: rate <rating|none> <title>");
+        }
+        String rating = args.substring(0, space);
+        String title = args.substring(space + 1).trim();
+        Movie movie = library.getUniqueMovie(title);
+        if (movie == null) {
+            fail("No movie by that name: " + title);
+        } else {
+            library.rateMovie(movie, rating.equalsIgnoreCase("none")
+                                     ? Movie.UNRATED : Double.parseDouble(rating));
+        }
+    }
+
+    private void ratings(String args) throws IOException {
+        String[] range = args.split("\\s+");
+        if (range.length != 2) {
+            throw new IllegalArgumentException("Expected: ratings <min> <max>");
+        }
+        print(library.getByRating(Double.parseDouble(range[0]),
+                                  Double.parseDouble(range[1])));
+    }
+
+    private void top(String args) throws IOException {
+        String[] words = args.split("\\s+");
+        if (args.isEmpty() || words.length > 2) {
+            throw new IllegalArgumentException("Expected: top <limit> [<genre>]");
+        }
+        Genre genre = words.length == 2 ? genres(words[1]).get(0) : null;
+        print(library.getTopRated(genre, Integer.parseInt(words[0])));
+    }
+
+    private void random(String args) throws IOException {
+        Movie movie;
+        switch (args.toLowerCase(Locale.ROOT)) {
+            case "":      movie = library.randomMovie();      break;
+            case "rated": movie = library.randomRatedMovie(); break;
+            default:      movie = library.randomMovie(genres(args).get(0));
+        }
+        print(movie == null ? Collections.<Movie>emptyList()
+                            : Collections.singletonList(movie));
+    }
+
+    private void list(String args) throws IOException {
+        switch (args.toLowerCase(Locale.ROOT)) {
+            case "":
+            case "title": print(library.streamByTitle().iterator()); break;
+            case "genre": print(library.getAllByGenre()); break;
+            default:      print(library.streamByGenre(genres(args).get(0)).iterator());
+        }
+    }
+
+    /**
+     * Parses genre names separated by commas.
+     *
+     * @throws IllegalArgumentException if a name is not a genre
+     */
+    private static List<Genre> genres(String names) {
+        List<Genre> genres = new ArrayList<>();
+        for (String name : names.split(",")) {
+            try {
+                genres.add(Genre.valueOf(name.trim().toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown genre: " + name.trim());
+            }
+        }
+        return genres;
+    }
+
+    private void print(List<Movie> movies) throws IOException {
+        print(movies.iterator());
+    }
+
+    private void print(Iterator<Movie> movies) throws IOException {
+        if (!movies.hasNext()) {
+            out.write("No match found!");
+            out.write(System.lineSeparator());
+        }
+        while (movies.hasNext()) {
+            out.write(movies.next().toString());
+            out.write(System.lineSeparator());
+        }
+    }
+
+    private void fail(String message) throws IOException {
+        failed++;
+        out.write(String.format("line %d: %s%n", lineNumber, message));
+    }
+}
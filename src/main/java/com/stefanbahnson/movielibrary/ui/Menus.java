@@ -44,8 +44,10 @@ public final class Menus
     public static final String[] SUB_MENU_EDIT = {
         ">> Edit movie title",     // 1
         ">> Edit genre for title", // 2
-        ">> Remove movie",         // 3
-        ">> Return to MAIN MENU",  // 4
+        ">> Add genre to title",   // 3
+        ">> Rate title",           // 4
+        ">> Remove movie",         // 5
+        ">> Return to MAIN MENU",  // 6
         };
     
     /**
@@ -56,7 +58,9 @@ public final class Menus
         ">> Show all sorted by genre", // 2
         ">> Show all sorted by title", // 3
         ">> Show by genre",            // 4
-        ">> Return to MAIN MENU",      // 5
+        ">> Show best rated",          // 5
+        ">> Pick a random movie",      // 6
+        ">> Return to MAIN MENU",      // 7
     };
     
 
@@ -0,0 +1,55 @@
+package com.stefanbahnson.movielibrary.ui;
+
+import com.stefanbahnson.movielibrary.api.MovieLibraryServer;
+import com.stefanbahnson.movielibrary.metrics.LibraryMetrics;
+import com.stefanbahnson.movielibrary.model.ConcurrentMovieLibrary;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import javax.management.JMException;
+
+/**
+ * Starts the application as a server instead of the console {@code UI}.<p>
+ * 
+ * The library kept by the application, the same library as the one used 
+ * by {@code AppStart} in a directory or a database, is served as a JSON API over HTTP by a 
+ * {@code MovieLibraryServer}. The port is given as the first argument or 
+ * by the system property {@code movielibrary.port}, by default 8080.<p>
+ * 
+ * Started with {@code -Dmovielibrary.metrics=true}, the operations of the 
+ * library are measured and published through JMX as well as on 
+ * {@code /metrics}.<p>
+ * 
+ * The server runs until the application is stopped.
+ */
+public class ServerStart {
+
+    public static void main(String[] args) throws IOException, JMException {
+        int port = args.length > 0 
+                 ? Integer.parseInt(args[0]) 
+                 : Integer.getInteger("movielibrary.port", 8080);
+        
+        final ConcurrentMovieLibrary shared = 
+                (ConcurrentMovieLibrary) AppStart.openLibrary(true);
+        if (LibraryMetrics.ENABLED) {
+            new LibraryMetrics(shared).register();
+        }
+        final MovieLibraryServer server = new MovieLibraryServer(
+                shared, new InetSocketAddress(port));
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                server.stop(1);
+                try {
+                    shared.close();
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Could not save the library: " + e);
+                }
+            }
+        });
+        
+        server.start();
+        System.out.printf("Serving %d movies on port %d%n", 
+                          shared.size(), server.getAddress().getPort());
+    }
+
+}
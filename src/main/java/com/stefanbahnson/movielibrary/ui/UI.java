@@ -4,7 +4,9 @@ import com.stefanbahnson.movielibrary.model.Genre;
 import com.stefanbahnson.movielibrary.model.MovieLibrary;
 import com.stefanbahnson.movielibrary.model.Movie;
 import java.io.Console;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 import javax.swing.JOptionPane;
 
 /**
@@ -19,6 +21,8 @@ import javax.swing.JOptionPane;
 public class UI {
 
     private static final Console c = System.console();
+    private static final int SUGGESTIONS = 10; // titles offered to select from
+    private static final int BEST_RATED = 20;  // movies shown as best rated
     
     private final MovieLibrary library;
     private Movie movieSelected;        //The current selected movie
@@ -42,7 +46,8 @@ public class UI {
         // check for console else exit application..
         if (c == null) {
             JOptionPane.showMessageDialog(null, 
-                    "Please use a Console to run the program");
+                    "Please use a Console to run the program, "
+                  + "or start it with --batch to run a script");
             System.exit(1);
         }
         
@@ -75,7 +80,6 @@ public class UI {
      * predetermined genres and must be set to proceed.
      */
     private void createMovieEntry() {
-        movieSelected = new Movie();
         String movieTitle = c.readLine(
                 "\n\n:: ADD MOVIE ::\nEnter the movie title:\n>>");
         
@@ -88,9 +92,8 @@ public class UI {
             c.writer().println("\nPlease enter a movie title to create a movie entry!");
         }
         else {
-            movieSelected.setTitle(movieTitle);
             submenuSelectGenre();
-            addGenreToMovie();
+            movieSelected = new Movie(movieTitle, genreSelected);
             library.addMovie(movieSelected);
             c.writer().printf("%n%n%s added to %s%n%n", movieTitle, movieSelected.getGenre());
         }
@@ -108,8 +111,10 @@ public class UI {
         switch (optionSelected) {
             case 1: editMovieTitle();   break;
             case 2: editMovieGenre(); break;
-            case 3: removeMovieEntry(); break;
-            case 4: c.writer().println("Returning to MAIN MENU\n"); break;
+            case 3: addMovieGenre();    break;
+            case 4: rateMovie();        break;
+            case 5: removeMovieEntry(); break;
+            case 6: c.writer().println("Returning to MAIN MENU\n"); break;
             }
     }
     
@@ -118,25 +123,24 @@ public class UI {
      * made through a query in the console. If the query matches a title
      * in the library, a new title name can be given to the movie.<p>
      * 
-     * To prevent multiple titles from being matched, the selection is 
-     * made by entering the full movie title but is not case sensitive.<p>
+     * The selection is made as by {@link #selectMovie(String)}.<p>
      * 
      * When done, returns to the menu: Edit Movie.
      */
     private void editMovieTitle() {
-        printToConsole(library.getAllByTitle());
-        
-        String currentMovieTitle = c.readLine(
-            "Please type the full name of the movie you want to edit:\n>> ");
-            
-        movieSelected = library.getUniqueMovie(currentMovieTitle);
+        movieSelected = selectMovie("edit");
         
         if(movieSelected == null) {
             c.writer().println("\nNo movie by that name...\n\n");
         }
         else {
             String newMovieTitle = c.readLine("Rename to >> ");
-            movieSelected.setTitle(newMovieTitle);
+            if (newMovieTitle.isEmpty()) {
+                c.writer().println("\nPlease enter a movie title to rename the movie!");
+            }
+            else if (library.renameMovie(movieSelected, newMovieTitle) == null) {
+                c.writer().println("\nMovie allready added!");
+            }
         }
         
         submenuEditMovie();
@@ -147,19 +151,12 @@ public class UI {
      * The selection is made through a query in the console. If the query 
      * matches a title in the library, a new genre can be added to the movie.<p>
      * 
-     * To prevent multiple titles from being matched, the selection is 
-     * made by entering the full movie title but is not
-     * case sensitive.<p>
+     * The selection is made as by {@link #selectMovie(String)}.<p>
      * 
      * When done, returns to the menu: Edit Movie.
      */
     private void editMovieGenre() {
-        printToConsole(library.getAllByTitle());
-        
-        String movieTitle = c.readLine(
-            "Please type the full name of the movie you want to edit:\n>> ");
-            
-        movieSelected = library.getUniqueMovie(movieTitle);
+        movieSelected = selectMovie("edit");
         
         if(movieSelected == null) {
             c.writer().println("\nNo movie by that name...\n\n");
@@ -167,9 +164,69 @@ public class UI {
         else {
             c.writer().println("\nChoose new genre for title");
             submenuSelectGenre();
-            addGenreToMovie();
+            movieSelected = library.changeGenre(movieSelected, genreSelected);
             c.writer().printf("%n%s is now added to %s%n%n", 
-                              movieTitle, movieSelected.getGenre());
+                              movieSelected.getTitle(), movieSelected.getGenre());
+        }
+        
+        submenuEditMovie();
+    }
+    
+    /**
+     * Adds a genre to a movie title, allready in the the library, which 
+     * keeps the genres it already has. The selection is made through a 
+     * query in the console. If the query matches a title in the library, 
+     * another genre can be added to the movie.<p>
+     * 
+     * The selection is made as by {@link #selectMovie(String)}.<p>
+     * 
+     * When done, returns to the menu: Edit Movie.
+     */
+    private void addMovieGenre() {
+        movieSelected = selectMovie("edit");
+        
+        if(movieSelected == null) {
+            c.writer().println("\nNo movie by that name...\n\n");
+        }
+        else {
+            c.writer().println("\nChoose genre to add to title");
+            submenuSelectGenre();
+            Set<Genre> genres = movieSelected.getGenres();
+            genres.add(genreSelected);
+            movieSelected = library.changeGenres(
+                    movieSelected, movieSelected.getGenre(), genres);
+            c.writer().printf("%n%s is now added to %s%n%n", 
+                              movieSelected.getTitle(), genreSelected);
+        }
+        
+        submenuEditMovie();
+    }
+    
+    /**
+     * Rates a movie title, allready in the the library, from 0 to 10. 
+     * The selection is made through a query in the console. If the query 
+     * matches a title in the library, a rating can be given to the movie, 
+     * or an empty rating removes the rating it has.<p>
+     * 
+     * The selection is made as by {@link #selectMovie(String)}.<p>
+     * 
+     * When done, returns to the menu: Edit Movie.
+     */
+    private void rateMovie() {
+        movieSelected = selectMovie("rate");
+        
+        if(movieSelected == null) {
+            c.writer().println("\nNo movie by that name...\n\n");
+        }
+        else {
+            String rating = c.readLine("Rating (0-10, empty for none) >> ").trim();
+            try {
+                movieSelected = library.rateMovie(movieSelected, rating.isEmpty()
+                        ? Movie.UNRATED : Double.parseDouble(rating));
+                c.writer().printf("%n%s%n%n", movieSelected);
+            } catch (IllegalArgumentException e) {
+                c.writer().println("\nPlease enter a rating from 0 to 10!\n");
+            }
         }
         
         submenuEditMovie();
@@ -180,19 +237,12 @@ public class UI {
      * in the console. Only if the query matches a title in the library, 
      * can the movie be removed.<p>
      * 
-     * To prevent multiple titles from being matched, the selection is 
-     * made by entering the full movie title but is not
-     * case sensitive.<p>
+     * The selection is made as by {@link #selectMovie(String)}.<p>
      * 
      * When done, returns to the menu: Edit Movie.
      */
     private void removeMovieEntry() {
-        printToConsole(library.getAllByTitle());
-        
-        String movieTitle = c.readLine(
-            "Please type the full name of the movie you want to remove:\n>> ");
-            
-        movieSelected = library.getUniqueMovie(movieTitle);
+        movieSelected = selectMovie("remove");
         
         if(movieSelected == null) {
             c.writer().println("\nNo movie by that name...\n\n");
@@ -206,6 +256,42 @@ public class UI {
         submenuEditMovie();
     }
     
+    /**
+     * Selects a movie in the library through a query in the console.<p>
+     * 
+     * If the query is the full title of a movie, which is not case 
+     * sensitive, that movie is selected. Otherwise the titles that start 
+     * with the query are offered in a submenu to select from, so only the 
+     * start of a title has to be typed.
+     * 
+     * @param action what is done to the selected movie, for the query
+     * @return the selected movie, or {@code null} if none was selected
+     */
+    private Movie selectMovie(String action) {
+        String movieTitle = c.readLine(
+            "Please type the name, or the start of the name, of the movie "
+          + "you want to %s:%n>> ", action);
+        
+        Movie movie = library.getUniqueMovie(movieTitle);
+        if (movie != null || movieTitle.isEmpty()) {
+            return movie;
+        }
+        
+        List<Movie> suggestions = library.suggest(movieTitle, SUGGESTIONS);
+        if (suggestions.isEmpty()) {
+            return null;
+        }
+        String[] options = new String[suggestions.size() + 1];
+        for (int i = 0; i < suggestions.size(); i++) {
+            options[i] = ">> " + suggestions.get(i).getTitle();
+        }
+        options[suggestions.size()] = "<< None of these";
+        
+        c.writer().println("\n:: SELECT MOVIE ::");
+        int choice = Menus.selectMenuOption(options);
+        return choice <= suggestions.size() ? suggestions.get(choice - 1) : null;
+    }
+    
     /**
      * A submenu to the main menu that shows the movies in the library through
      * different filter options.<p>
@@ -220,7 +306,9 @@ public class UI {
             case 2: printAllSortedByGenre(); break;
             case 3: printAllSortedByTitle(); break;
             case 4: printSelectedGenre();    break;
-            case 5: c.writer().println("Returning to MAIN MENU"); break;
+            case 5: printBestRated();        break;
+            case 6: printRandomMovie();      break;
+            case 7: c.writer().println("Returning to MAIN MENU"); break;
             }
     }
     
@@ -282,22 +370,64 @@ public class UI {
         submenuPrint();
     }
     
+    /**
+     * Prints the best rated movies in the library to the console, best 
+     * first, either in every genre or in a selected genre.<p>
+     * 
+     * When done, the user will be returned to the menu: View Library.
+     */
+    private void printBestRated() {
+        String genre = c.readLine("Only one genre? (y/n) >> ").trim();
+        Genre selected = null;
+        if (genre.equalsIgnoreCase("y")) {
+            submenuSelectGenre();
+            selected = genreSelected;
+        }
+        List<Movie> currentList = library.getTopRated(selected, BEST_RATED);
+        printToConsole(currentList);
+        submenuPrint();
+    }
+    
+    /**
+     * Prints a movie picked at random to the console, either of any genre 
+     * or of a selected genre.<p>
+     * 
+     * When done, the user will be returned to the menu: View Library.
+     */
+    private void printRandomMovie() {
+        String genre = c.readLine("Only one genre? (y/n) >> ").trim();
+        Movie movie;
+        if (genre.equalsIgnoreCase("y")) {
+            submenuSelectGenre();
+            movie = library.randomMovie(genreSelected);
+        }
+        else { movie = library.randomMovie(); }
+        printToConsole(movie == null ? null : Collections.singletonList(movie));
+        submenuPrint();
+    }
+    
     /**
      * Iterates through a list of movies and prints them to a console.
      * This is true as long as the {@code printList} is not empty 
-     * or returns {@code null}. If not, an error message will be displayed.
+     * or returns {@code null}. If not, an error message will be displayed.<p>
+     * 
+     * The movies are written to the console at once rather than a line 
+     * at a time, which keeps large lists fast to print.
      * 
      * @param currentList A sorted and/or filtered list of movies
      */
     private void printToConsole(List<Movie> currentList) {
-        c.writer().println();
+        String newLine = System.lineSeparator();
+        StringBuilder sb = new StringBuilder(newLine);
         if (currentList != null && !currentList.isEmpty()) {
             for (Movie movie : currentList) {
-                c.writer().println(movie);
+                sb.append(movie).append(newLine);
             }
         }
-        else { c.writer().println("No match found!"); }
-        c.writer().println();
+        else { sb.append("No match found!").append(newLine); }
+        sb.append(newLine);
+        c.writer().print(sb);
+        c.writer().flush();
     }
 
     /**
@@ -322,14 +452,6 @@ public class UI {
         }
     }
     
-    /**
-     * Adds a genre to the currently selected movie if a genre has previously
-     * been selected. This is done in the submenu Genre.
-     */
-    private void addGenreToMovie() {
-        movieSelected.setGenre(genreSelected);
-    }
-    
     /**
      * Prints instructions to the console on how to use the application.
      */
@@ -338,8 +460,9 @@ public class UI {
             "\n:: INSTRUCTIONS ::\n\n"
           + "Enter the number next to the option you want to choose\n"
           + "and continue by pressing ENTER.\n\n"
-          + "When selecting a movie for edit, the full title must be entered.\n"
-          + "Selecting a movie is not case sensitive\n\n"
+          + "When selecting a movie for edit, the full title or the start of it\n"
+          + "can be entered. The titles that start with it are then listed to\n"
+          + "choose from. Selecting a movie is not case sensitive\n\n"
           + "When searching for a movie, the query will be matched to part of\n"
           + "a movie title i.e. man will return Batman.\n"
           + "The search is not case sensitive.\n\n");
@@ -0,0 +1,100 @@
+package com.stefanbahnson.movielibrary.api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.stefanbahnson.movielibrary.model.ConcurrentMovieLibrary;
+import com.stefanbahnson.movielibrary.model.Genre;
+import com.stefanbahnson.movielibrary.model.Movie;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class MovieLibraryServerTest {
+    private static final Movie ALIEN = new Movie("Alien", Genre.HORROR).withRating(8);
+    private static final Movie HEAT = new Movie("Heat", Genre.ACTION);
+
+    private ConcurrentMovieLibrary library;
+    private MovieLibraryServer server;
+
+    @BeforeEach
+    void start() throws IOException {
+        library = new ConcurrentMovieLibrary();
+        library.addMovie(ALIEN);
+        library.addMovie(HEAT);
+        server = new MovieLibraryServer(library, new InetSocketAddress("127.0.0.1", 0));
+        server.start();
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        server.stop(0);
+        library.close();
+    }
+
+    @Test
+    void refusesATakenTitleBeforeChangingAnything() throws IOException {
+        HttpURLConnection put = request("PUT", "/movies?title=Alien&genre=drama&rating=9&newTitle=HEAT");
+        assertEquals(409, put.getResponseCode());
+        assertTrue(body(put).contains("Another movie has the new title"));
+        assertEquals(ALIEN, library.getUniqueMovie("Alien"));
+        assertEquals(2, library.getChangeStream().lastSequence());
+    }
+
+    @Test
+    void renamesFirstAndThenMakesTheOtherChanges() throws IOException {
+        HttpURLConnection put = request("PUT", "/movies?title=Alien&genre=drama&rating=9&newTitle=Aliens");
+        assertEquals(200, put.getResponseCode());
+        assertEquals(new Movie("Aliens", Genre.DRAMA).withRating(9), library.getUniqueMovie("Aliens"));
+        assertNull(library.getUniqueMovie("Alien"));
+    }
+
+    @Test
+    void streamsTheWholeLibraryPastAPage() throws IOException {
+        for (int i = 0; i < 1000; i++) {
+            library.addMovie(new Movie("Movie " + i, i % 2 == 0 ? Genre.DRAMA : Genre.COMEDY));
+        }
+        HttpURLConnection all = request("GET", "/movies");
+        assertEquals(200, all.getResponseCode());
+        assertEquals(1002, count(body(all), "\"title\""));
+
+        HttpURLConnection drama = request("GET", "/genres/drama");
+        assertEquals(200, drama.getResponseCode());
+        assertEquals(500, count(body(drama), "\"title\""));
+    }
+
+    private HttpURLConnection request(String method, String path) throws IOException {
+        URL url = new URL("http", "127.0.0.1", server.getAddress().getPort(), path);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod(method);
+        return connection;
+    }
+
+    private static String body(HttpURLConnection connection) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = connection.getResponseCode() < 400
+                              ? connection.getInputStream() : connection.getErrorStream()) {
+            byte[] buffer = new byte[4096];
+            for (int n; (n = in.read(buffer)) > 0;) {
+                body.write(buffer, 0, n);
+            }
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static int count(String text, String part) {
+        int count = 0;
+        for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+}
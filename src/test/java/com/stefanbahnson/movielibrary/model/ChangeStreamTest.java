@@ -0,0 +1,134 @@
+package com.stefanbahnson.movielibrary.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ChangeStreamTest {
+    private ConcurrentMovieLibrary library;
+
+    @BeforeEach
+    void openSmallRing() {
+        System.setProperty("movielibrary.changeCapacity", "8");
+        try {
+            library = new ConcurrentMovieLibrary();
+        } finally {
+            System.clearProperty("movielibrary.changeCapacity");
+        }
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        library.close();
+    }
+
+    /**
+     * A replica that polls now and then keeps up with the library through
+     * a ring of 8 events, and reads the library again whenever it falls a
+     * whole ring behind.
+     */
+    @Test
+    void replicaFollowsTheLibrary() {
+        ChangeStream changes = library.getChangeStream();
+        Random random = new Random(1);
+        MovieLibrary replica = new IndexedMovieLibrary();
+        ChangeStream.Subscription subscription = changes.subscribe(1);
+        int resyncs = 0;
+        for (int i = 0; i < 5000; i++) {
+            change(random);
+            if (random.nextInt(6) > 0) {
+                continue;
+            }
+            try {
+                for (ChangeEvent event : subscription.poll(random.nextInt(8) + 1)) {
+                    assertTrue(event.applyTo(replica), "apply " + event);
+                }
+            } catch (IllegalStateException e) {
+                assertTrue(subscription.isClosed());
+                replica = new IndexedMovieLibrary();
+                replica.addAll(library.getAllByTitle());
+                subscription = changes.subscribe(changes.lastSequence() + 1);
+                resyncs++;
+            }
+        }
+        for (List<ChangeEvent> events = subscription.poll(8); !events.isEmpty();
+                events = subscription.poll(8)) {
+            for (ChangeEvent event : events) {
+                assertTrue(event.applyTo(replica), "apply " + event);
+            }
+        }
+        assertEquals(library.getAllByTitle(), replica.getAllByTitle());
+        assertEquals(library.getAllByGenre(), replica.getAllByGenre());
+        assertTrue(resyncs > 0, "the replica never fell behind");
+    }
+
+    @Test
+    void writersNeverWaitForSubscribers() {
+        final ChangeStream changes = library.getChangeStream();
+        final ChangeStream.Subscription idle = changes.subscribe(1);
+        final Random random = new Random(2);
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            for (int i = 0; i < 1000; i++) {
+                change(random);
+            }
+        });
+        assertThrows(IllegalStateException.class, () -> idle.poll(8));
+        assertTrue(idle.isClosed());
+        assertThrows(IllegalStateException.class, () -> idle.poll(8));
+    }
+
+    @Test
+    void eachStreamHasAnEpochOfItsOwn() throws IOException {
+        try (ConcurrentMovieLibrary other = new ConcurrentMovieLibrary()) {
+            assertNotEquals(library.getChangeStream().getEpoch(), other.getChangeStream().getEpoch());
+        }
+    }
+
+    @Test
+    void batchesLargerThanTheRingArePublished() {
+        ChangeStream changes = library.getChangeStream();
+        Random random = new Random(3);
+        List<Movie> batch = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            batch.add(Differential.movie(random).withTitle("movie " + i));
+        }
+        assertEquals(20, library.addAll(batch));
+        assertEquals(20, changes.lastSequence());
+        assertEquals(13, changes.firstSequence());
+        assertEquals(8, changes.read(13, 100).size());
+        assertThrows(IllegalStateException.class, () -> changes.read(12, 100));
+    }
+
+    private void change(Random random) {
+        List<Movie> movies = library.getAllByTitle();
+        if (movies.isEmpty() || random.nextInt(3) == 0) {
+            library.addMovie(Differential.movie(random));
+            return;
+        }
+        Movie movie = movies.get(random.nextInt(movies.size()));
+        switch (random.nextInt(4)) {
+            case 0:
+                library.renameMovie(movie, Differential.title(random));
+                break;
+            case 1:
+                library.rateMovie(movie, random.nextInt(21) / 2.0);
+                break;
+            case 2:
+                library.changeGenre(movie, Genre.values()[random.nextInt(Genre.values().length)]);
+                break;
+            default:
+                library.removeMovie(movie);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.stefanbahnson.movielibrary.model;
+
+import org.junit.jupiter.api.Test;
+
+class CompactMovieLibraryTest {
+
+    @Test
+    void answersLikeAnIndexedLibrary() {
+        for (long seed = 1; seed <= 4; seed++) {
+            new Differential(new CompactMovieLibrary(), seed).run(4000, 200);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.stefanbahnson.movielibrary.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+class ConcurrentMovieLibraryTest {
+
+    @Test
+    void answersLikeOneLibrary() throws IOException {
+        try (ConcurrentMovieLibrary library = new ConcurrentMovieLibrary()) {
+            new Differential(library, 1).run(3000, 150);
+        }
+    }
+
+    /**
+     * Queries are answered by scanning the movies until the library is
+     * warm, and by the indexed libraries from then on, with the master
+     * library indexed by the first change.
+     */
+    @Test
+    void answersWhileWarmingUpAndAfter() throws Exception {
+        final MovieLibrary expected = new IndexedMovieLibrary();
+        Random random = new Random(2);
+        for (int i = 0; i < 500; i++) {
+            expected.addMovie(Differential.movie(random));
+        }
+        final List<Movie> movies = expected.getAllByTitle();
+        final CountDownLatch opening = new CountDownLatch(1);
+        ConcurrentMovieLibrary library = ConcurrentMovieLibrary.warmUp(movies, () -> {
+            opening.await();
+            MovieLibrary master = new IndexedMovieLibrary();
+            master.addAll(movies);
+            return master;
+        });
+
+        assertEquals(movies, library.getAllByTitle());
+        assertEquals(expected.getMovieMatches("star"), library.getMovieMatches("star"));
+        assertEquals(expected.getFuzzyMatches("alein", 1, 10), library.getFuzzyMatches("alein", 1, 10));
+        assertEquals(expected.suggest("bla", 10), library.suggest("bla", 10));
+
+        opening.countDown();
+        assertEquals(new HashSet<>(Arrays.asList("open", "index", "warm")),
+                     library.whenWarm().toCompletableFuture().get(10, TimeUnit.SECONDS).keySet());
+        new Differential(expected, library, 3).run(2000, 100);
+        library.close();
+    }
+
+    /**
+     * A stream reads the library a page at a time, so a change made past
+     * the point it has read to shows up in it.
+     */
+    @Test
+    void streamsReadTheLibraryAPageAtATime() throws IOException {
+        try (ConcurrentMovieLibrary library = new ConcurrentMovieLibrary()) {
+            Random random = new Random(4);
+            for (int i = 0; i < 1000; i++) {
+                library.addMovie(Differential.movie(random).withTitle("movie " + (1000 + i)));
+            }
+            assertEquals(library.getAllByTitle(), library.streamByTitle().collect(Collectors.toList()));
+            assertEquals(library.getByGenre(Genre.DRAMA),
+                         library.streamByGenre(Genre.DRAMA).collect(Collectors.toList()));
+            assertEquals(library.getMovieMatches("movie 15"),
+                         library.streamMovieMatches("movie 15").collect(Collectors.toList()));
+
+            Iterator<Movie> movies = library.streamByTitle().iterator();
+            assertEquals("movie 1000", movies.next().getTitle());
+            library.addMovie(new Movie("movie 3000", Genre.DRAMA));
+            Movie last = null;
+            while (movies.hasNext()) {
+                last = movies.next();
+            }
+            assertEquals("movie 3000", last.getTitle());
+        }
+    }
+
+    @Test
+    void closeWaitsForTheWarmUp() throws Exception {
+        final CountDownLatch opening = new CountDownLatch(1);
+        final ClosingLibrary master = new ClosingLibrary();
+        final ConcurrentMovieLibrary library = ConcurrentMovieLibrary.warmUp(
+                Collections.<Movie>emptyList(), () -> {
+                    opening.await();
+                    return master;
+                });
+        CompletableFuture<Void> closing = CompletableFuture.runAsync(() -> {
+            try {
+                library.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        assertFalse(master.closed);
+        opening.countDown();
+        closing.get(10, TimeUnit.SECONDS);
+        assertTrue(master.closed);
+    }
+
+    @Test
+    void closesNothingIfTheMasterCouldNotBeOpened() throws Exception {
+        ConcurrentMovieLibrary library = ConcurrentMovieLibrary.warmUp(
+                Collections.<Movie>emptyList(), () -> {
+                    throw new IOException("the disk is gone");
+                });
+        assertThrows(ExecutionException.class,
+                     () -> library.whenWarm().toCompletableFuture().get(10, TimeUnit.SECONDS));
+        library.close();
+        assertThrows(IllegalStateException.class,
+                     () -> library.addMovie(new Movie("Alien", Genre.HORROR)));
+        assertTrue(library.getAllByTitle().isEmpty());
+    }
+
+    private static final class ClosingLibrary extends IndexedMovieLibrary implements Closeable {
+        volatile boolean closed;
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
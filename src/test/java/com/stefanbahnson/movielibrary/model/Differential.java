@@ -0,0 +1,263 @@
+package com.stefanbahnson.movielibrary.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Makes the same random changes to a library under test and to an
+ * {@code IndexedMovieLibrary}, and checks that both give the same answer
+ * to every query along the way.
+ */
+final class Differential {
+    private static final String[] WORDS = {
+        "alien", "Alien", "ALIENS", "blade", "runner", "dark", "knight",
+        "night", "star", "wars", "Straße", "strasse", "café", "Café",
+        "über", "Ünter", "the", "The", "of", "a", "łódź", "東京", "ß",
+        "ıi", "İstanbul", "ΟΔΟΣ", "οδος", "𝔸lpha", "ǅungla"
+    };
+
+    private final MovieLibrary expected;
+    private final MovieLibrary actual;
+    private final Random random;
+
+    Differential(MovieLibrary actual, long seed) {
+        this(new IndexedMovieLibrary(), actual, seed);
+    }
+
+    /**
+     * Compares a library under test with another library that holds the
+     * same movies.
+     */
+    Differential(MovieLibrary expected, MovieLibrary actual, long seed) {
+        this.expected = expected;
+        this.actual = actual;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Makes a number of random changes, and compares the libraries after
+     * every one of them that is followed by a check.
+     */
+    void run(int changes, int checks) {
+        for (int i = 0; i < changes; i++) {
+            change();
+            if (random.nextInt(changes) < checks) {
+                check();
+            }
+        }
+        check();
+    }
+
+    static String title(Random random) {
+        StringBuilder title = new StringBuilder();
+        int words = 1 + random.nextInt(3);
+        for (int w = 0; w < words; w++) {
+            if (w > 0) {
+                title.append(' ');
+            }
+            title.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        if (random.nextBoolean()) {
+            title.append(' ').append(random.nextInt(50));
+        }
+        return title.toString();
+    }
+
+    static Movie movie(Random random) {
+        Movie movie = new Movie(title(random), genre(random), genres(random));
+        return random.nextInt(3) == 0 ? movie : movie.withRating(rating(random));
+    }
+
+    private static Genre genre(Random random) {
+        return Genre.values()[random.nextInt(Genre.values().length)];
+    }
+
+    private static Set<Genre> genres(Random random) {
+        Set<Genre> genres = EnumSet.noneOf(Genre.class);
+        for (Genre genre : Genre.values()) {
+            if (random.nextInt(4) == 0) {
+                genres.add(genre);
+            }
+        }
+        return genres;
+    }
+
+    private static double rating(Random random) {
+        return random.nextInt(21) / 2.0;
+    }
+
+    private void change() {
+        List<Movie> movies = expected.getAllByTitle();
+        Movie movie = movies.isEmpty() || random.nextInt(10) == 0
+                    ? movie(random)
+                    : movies.get(random.nextInt(movies.size()));
+        switch (random.nextInt(8)) {
+            case 0:
+            case 1:
+                Movie added = movie(random);
+                assertEquals(expected.addMovie(added), actual.addMovie(added), "add " + added);
+                break;
+            case 2:
+                List<Movie> batch = new ArrayList<>();
+                for (int i = random.nextInt(20); i > 0; i--) {
+                    batch.add(random.nextBoolean() || movies.isEmpty()
+                              ? movie(random) : movies.get(random.nextInt(movies.size())));
+                }
+                assertEquals(expected.addAll(batch), actual.addAll(batch), "add all " + batch);
+                break;
+            case 3:
+                String title = random.nextInt(4) == 0 ? movie.getTitle().toUpperCase() : title(random);
+                assertEquals(expected.renameMovie(movie, title), actual.renameMovie(movie, title),
+                             "rename " + movie + " to " + title);
+                break;
+            case 4:
+                Genre genre = genre(random);
+                assertEquals(expected.changeGenre(movie, genre), actual.changeGenre(movie, genre),
+                             "change the genre of " + movie);
+                break;
+            case 5:
+                Genre main = genre(random);
+                Set<Genre> others = genres(random);
+                assertEquals(expected.changeGenres(movie, main, others),
+                             actual.changeGenres(movie, main, others),
+                             "change the genres of " + movie);
+                break;
+            case 6:
+                double rating = rating(random);
+                assertEquals(expected.rateMovie(movie, rating), actual.rateMovie(movie, rating),
+                             "rate " + movie);
+                break;
+            default:
+                assertEquals(expected.removeMovie(movie), actual.removeMovie(movie),
+                             "remove " + movie);
+        }
+    }
+
+    private void check() {
+        List<Movie> all = expected.getAllByTitle();
+        assertEquals(all.size(), actual.size(), "size");
+        assertEquals(all, actual.getAllByTitle(), "all by title");
+        assertEquals(expected.getAllByGenre(), actual.getAllByGenre(), "all by genre");
+        assertEquals(all, actual.streamByTitle().collect(Collectors.toList()), "stream by title");
+
+        int offset = random.nextInt(all.size() + 2);
+        int limit = random.nextInt(30);
+        assertEquals(expected.getAllByTitle(offset, limit), actual.getAllByTitle(offset, limit),
+                     "all by title from " + offset);
+        assertEquals(all, pagesByTitle(actual, 1 + random.nextInt(40)), "pages by title");
+
+        for (Genre genre : Genre.values()) {
+            List<Movie> byGenre = expected.getByGenre(genre);
+            assertEquals(byGenre, actual.getByGenre(genre), "by genre " + genre);
+            assertEquals(expected.getByGenre(genre, offset, limit),
+                         actual.getByGenre(genre, offset, limit), "by genre " + genre + " from " + offset);
+            assertEquals(byGenre, pagesByGenre(actual, genre, 1 + random.nextInt(40)),
+                         "pages by genre " + genre);
+            assertEquals(byGenre, actual.streamByGenre(genre).collect(Collectors.toList()),
+                         "stream by genre " + genre);
+            assertEquals(expected.getTopRated(genre, limit), actual.getTopRated(genre, limit),
+                         "top rated " + genre);
+        }
+        assertEquals(expected.getTopRated(null, limit), actual.getTopRated(null, limit), "top rated");
+
+        Set<Genre> required = genres(random);
+        Set<Genre> excluded = genres(random);
+        excluded.removeAll(required);
+        assertEquals(expected.getByGenres(required, excluded), actual.getByGenres(required, excluded),
+                     "by genres " + required + " but not " + excluded);
+
+        double min = rating(random);
+        double max = rating(random);
+        assertEquals(expected.getByRating(Math.min(min, max), Math.max(min, max)),
+                     actual.getByRating(Math.min(min, max), Math.max(min, max)),
+                     "by rating from " + min + " to " + max);
+
+        String query = query();
+        List<Movie> matches = expected.getMovieMatches(query);
+        assertEquals(matches, actual.getMovieMatches(query), "matches of " + query);
+        assertEquals(matches, actual.streamMovieMatches(query).collect(Collectors.toList()),
+                     "stream of the matches of " + query);
+        assertEquals(matches, matchPages(actual, query, 1 + random.nextInt(40)), "pages of " + query);
+        assertEquals(expected.suggest(query, limit), actual.suggest(query, limit), "suggestions for " + query);
+        int distance = random.nextInt(MovieLibrary.MAX_FUZZY_DISTANCE + 1);
+        assertEquals(expected.getFuzzyMatches(query, distance, limit),
+                     actual.getFuzzyMatches(query, distance, limit), "fuzzy matches of " + query);
+
+        String title = all.isEmpty() || random.nextBoolean()
+                     ? title(random) : all.get(random.nextInt(all.size())).getTitle().toUpperCase();
+        assertEquals(expected.findDuplicate(title), actual.findDuplicate(title), "duplicate " + title);
+        assertEquals(expected.getUniqueMovie(title), actual.getUniqueMovie(title), "unique " + title);
+
+        Movie any = actual.randomMovie();
+        if (all.isEmpty()) {
+            assertNull(any, "a random movie of an empty library");
+        } else {
+            assertTrue(all.contains(any), "a random movie " + any);
+        }
+        Movie rated = actual.randomRatedMovie();
+        if (expected.randomRatedMovie() == null) {
+            assertNull(rated, "a random rated movie of a library without one");
+        } else {
+            assertTrue(rated.isRated() && all.contains(rated), "a random rated movie " + rated);
+        }
+    }
+
+    private String query() {
+        String word = WORDS[random.nextInt(WORDS.length)];
+        switch (random.nextInt(4)) {
+            case 0:
+                return word;
+            case 1:
+                return word.substring(0, 1 + random.nextInt(word.length()));
+            case 2:
+                return title(random);
+            default:
+                List<String> words = Arrays.asList(title(random).split(" "));
+                Collections.shuffle(words, random);
+                return String.join(" ", words).toUpperCase();
+        }
+    }
+
+    private static List<Movie> pagesByTitle(MovieLibrary library, int limit) {
+        List<Movie> movies = new ArrayList<>();
+        Page page = library.getPageByTitle(null, limit);
+        movies.addAll(page.getMovies());
+        while (page.getNextCursor() != null) {
+            page = library.getPageByTitle(page.getNextCursor(), limit);
+            movies.addAll(page.getMovies());
+        }
+        return movies;
+    }
+
+    private static List<Movie> pagesByGenre(MovieLibrary library, Genre genre, int limit) {
+        List<Movie> movies = new ArrayList<>();
+        Page page = library.getPageByGenre(genre, null, limit);
+        movies.addAll(page.getMovies());
+        while (page.getNextCursor() != null) {
+            page = library.getPageByGenre(genre, page.getNextCursor(), limit);
+            movies.addAll(page.getMovies());
+        }
+        return movies;
+    }
+
+    private static List<Movie> matchPages(MovieLibrary library, String query, int limit) {
+        List<Movie> movies = new ArrayList<>();
+        Page page = library.getMatchPage(query, null, limit);
+        movies.addAll(page.getMovies());
+        while (page.getNextCursor() != null) {
+            page = library.getMatchPage(query, page.getNextCursor(), limit);
+            movies.addAll(page.getMovies());
+        }
+        return movies;
+    }
+}
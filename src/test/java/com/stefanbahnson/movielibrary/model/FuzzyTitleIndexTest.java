@@ -0,0 +1,172 @@
+package com.stefanbahnson.movielibrary.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import org.junit.jupiter.api.Test;
+
+class FuzzyTitleIndexTest {
+    private static final String LETTERS = "abcdeilnorst";
+
+    /**
+     * The tree only measures the distance to some of the words, so it
+     * finds what a scan of every title finds only if it prunes no more
+     * than it may, whatever words come and go.
+     */
+    @Test
+    void findsWhatAScanFinds() {
+        Random random = new Random(1);
+        FuzzyTitleIndex index = new FuzzyTitleIndex();
+        Map<String, Movie> movies = new TreeMap<>();
+        for (int i = 0; i < 3000; i++) {
+            if (movies.isEmpty() || random.nextInt(3) > 0) {
+                add(index, movies, movie(random));
+            } else {
+                remove(index, movies, pick(movies, random));
+            }
+            if (i % 25 == 0) {
+                check(index, movies, random);
+            }
+        }
+    }
+
+    /**
+     * Removing most movies leaves most words unused, which rebuilds the
+     * tree. The words left, and words that come back, are still found.
+     */
+    @Test
+    void findsTheWordsLeftAfterARebuild() {
+        Random random = new Random(2);
+        FuzzyTitleIndex index = new FuzzyTitleIndex();
+        Map<String, Movie> movies = new TreeMap<>();
+        for (int i = 0; i < 1000; i++) {
+            add(index, movies, movie(random));
+        }
+        List<Movie> removed = new ArrayList<>();
+        for (Movie movie : new ArrayList<>(movies.values())) {
+            if (random.nextInt(10) > 0) {
+                remove(index, movies, movie);
+                removed.add(movie);
+            }
+        }
+        assertEquals(words(movies).size(), index.size());
+        check(index, movies, random);
+
+        for (Movie movie : removed.subList(0, removed.size() / 2)) {
+            add(index, movies, movie);
+        }
+        assertEquals(words(movies).size(), index.size());
+        check(index, movies, random);
+
+        for (Movie movie : new ArrayList<>(movies.values())) {
+            remove(index, movies, movie);
+        }
+        assertEquals(0, index.size());
+        assertTrue(index.search("alien", MovieLibrary.MAX_FUZZY_DISTANCE, 10).isEmpty());
+    }
+
+    @Test
+    void measuresTheEditDistance() {
+        Random random = new Random(3);
+        for (int i = 0; i < 5000; i++) {
+            String a = word(random);
+            String b = word(random);
+            int bound = random.nextInt(4);
+            int expected = levenshtein(a, b);
+            int actual = FuzzyTitleIndex.distance(a, b, bound);
+            if (expected <= bound) {
+                assertEquals(expected, actual, a + " to " + b);
+            } else {
+                assertTrue(actual > bound, a + " to " + b + " within " + bound);
+            }
+        }
+    }
+
+    private static void check(FuzzyTitleIndex index, Map<String, Movie> movies, Random random) {
+        ScanMovieLibrary scan = new ScanMovieLibrary(sorted(movies));
+        for (int q = 0; q < 10; q++) {
+            String query = word(random) + (random.nextBoolean() ? "" : " " + word(random));
+            int distance = random.nextInt(MovieLibrary.MAX_FUZZY_DISTANCE + 1);
+            int limit = random.nextInt(4) == 0 ? Integer.MAX_VALUE : random.nextInt(20);
+            assertEquals(scan.getFuzzyMatches(query, distance, limit),
+                         index.search(query, distance, limit),
+                         "fuzzy matches of " + query + " within " + distance);
+        }
+    }
+
+    /**
+     * Returns a movie with a title of a few short words from a few
+     * letters, so that many words are near each other.
+     */
+    private static Movie movie(Random random) {
+        StringBuilder title = new StringBuilder(word(random));
+        for (int w = random.nextInt(3); w > 0; w--) {
+            title.append(' ').append(word(random));
+        }
+        return new Movie(random.nextBoolean() ? title.toString() : title.toString().toUpperCase(),
+                         Genre.DRAMA);
+    }
+
+    private static String word(Random random) {
+        StringBuilder word = new StringBuilder();
+        for (int c = 1 + random.nextInt(6); c > 0; c--) {
+            word.append(LETTERS.charAt(random.nextInt(LETTERS.length())));
+        }
+        return word.toString();
+    }
+
+    private static void add(FuzzyTitleIndex index, Map<String, Movie> movies, Movie movie) {
+        if (!movies.containsKey(movie.getKey())) {
+            movies.put(movie.getKey(), movie);
+            index.add(movie);
+        }
+    }
+
+    private static void remove(FuzzyTitleIndex index, Map<String, Movie> movies, Movie movie) {
+        movies.remove(movie.getKey());
+        index.remove(movie);
+    }
+
+    private static Movie pick(Map<String, Movie> movies, Random random) {
+        List<Movie> all = new ArrayList<>(movies.values());
+        return all.get(random.nextInt(all.size()));
+    }
+
+    private static Set<String> words(Map<String, Movie> movies) {
+        Set<String> words = new HashSet<>();
+        for (Movie movie : movies.values()) {
+            words.addAll(FuzzyTitleIndex.words(movie.getKey()));
+        }
+        return words;
+    }
+
+    private static List<Movie> sorted(Map<String, Movie> movies) {
+        List<Movie> sorted = new ArrayList<>(movies.values());
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    private static int levenshtein(String a, String b) {
+        int[][] d = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i++) {
+            for (int j = 0; j <= b.length(); j++) {
+                if (i == 0 || j == 0) {
+                    d[i][j] = i + j;
+                } else {
+                    int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                    d[i][j] = Math.min(d[i - 1][j - 1] + cost,
+                                       Math.min(d[i - 1][j], d[i][j - 1]) + 1);
+                }
+            }
+        }
+        return d[a.length()][b.length()];
+    }
+}
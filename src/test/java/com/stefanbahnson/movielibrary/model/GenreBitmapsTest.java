@@ -0,0 +1,110 @@
+package com.stefanbahnson.movielibrary.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import org.junit.jupiter.api.Test;
+
+class GenreBitmapsTest {
+
+    /**
+     * The bitmaps select what a scan of every movie selects, while movies
+     * come and go, reuse the ids of removed movies and change genres.
+     */
+    @Test
+    void selectsWhatAScanSelects() {
+        Random random = new Random(1);
+        GenreBitmaps bitmaps = new GenreBitmaps();
+        Map<String, Movie> movies = new TreeMap<>();
+        for (int i = 0; i < 4000; i++) {
+            int change = movies.isEmpty() ? 0 : random.nextInt(4);
+            if (change < 2) {
+                Movie movie = Differential.movie(random);
+                if (!movies.containsKey(movie.getKey())) {
+                    movies.put(movie.getKey(), movie);
+                    bitmaps.add(movie);
+                }
+            } else if (change == 2) {
+                Movie movie = pick(movies, random);
+                movies.remove(movie.getKey());
+                bitmaps.remove(movie);
+            } else {
+                Movie movie = pick(movies, random);
+                Movie changed = movie.withGenres(genre(random), genres(random));
+                movies.put(changed.getKey(), changed);
+                bitmaps.replace(movie, changed);
+            }
+            if (i % 40 == 0) {
+                check(bitmaps, movies, random);
+            }
+        }
+        check(bitmaps, movies, random);
+    }
+
+    @Test
+    void selectsEveryMovieWithoutGenres() {
+        GenreBitmaps bitmaps = new GenreBitmaps();
+        List<Movie> movies = new ArrayList<>();
+        for (int i = 0; i < 130; i++) {
+            Movie movie = new Movie("Movie " + i, Genre.values()[i % Genre.values().length]);
+            movies.add(movie);
+            bitmaps.add(movie);
+        }
+        bitmaps.remove(movies.remove(64));
+        Collections.sort(movies);
+        assertEquals(movies, sorted(bitmaps.select(0, 0)));
+    }
+
+    private static void check(GenreBitmaps bitmaps, Map<String, Movie> movies, Random random) {
+        List<Movie> all = new ArrayList<>(movies.values());
+        Collections.sort(all);
+        ScanMovieLibrary scan = new ScanMovieLibrary(all);
+        for (int q = 0; q < 10; q++) {
+            Set<Genre> required = random.nextInt(4) == 0 ? EnumSet.noneOf(Genre.class) : few(random);
+            Set<Genre> excluded = few(random);
+            excluded.removeAll(required);
+            assertEquals(scan.getByGenres(required, excluded),
+                         sorted(bitmaps.select(Genre.mask(required), Genre.mask(excluded))),
+                         required + " but not " + excluded);
+        }
+    }
+
+    private static Genre genre(Random random) {
+        return Genre.values()[random.nextInt(Genre.values().length)];
+    }
+
+    private static Set<Genre> genres(Random random) {
+        Set<Genre> genres = EnumSet.noneOf(Genre.class);
+        for (Genre genre : Genre.values()) {
+            if (random.nextInt(4) == 0) {
+                genres.add(genre);
+            }
+        }
+        return genres;
+    }
+
+    private static Set<Genre> few(Random random) {
+        Set<Genre> genres = EnumSet.noneOf(Genre.class);
+        for (int g = random.nextInt(3); g > 0; g--) {
+            genres.add(genre(random));
+        }
+        return genres;
+    }
+
+    private static Movie pick(Map<String, Movie> movies, Random random) {
+        List<Movie> all = new ArrayList<>(movies.values());
+        return all.get(random.nextInt(all.size()));
+    }
+
+    private static List<Movie> sorted(List<Movie> movies) {
+        Collections.sort(movies);
+        return movies;
+    }
+}
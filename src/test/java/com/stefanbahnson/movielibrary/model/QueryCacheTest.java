@@ -0,0 +1,95 @@
+package com.stefanbahnson.movielibrary.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class QueryCacheTest {
+    private static final Movie ALIEN = new Movie("Alien", Genre.HORROR);
+    private static final Movie ALIENS = new Movie("Aliens", Genre.ACTION);
+    private static final List<Movie> RESULT = Collections.singletonList(ALIEN);
+
+    @Test
+    void answersOnlyForTheVersionItWasFoundIn() {
+        QueryCache cache = new QueryCache(8);
+        cache.put("alien", 1, RESULT);
+        assertEquals(RESULT, cache.get("alien", 1));
+        assertNull(cache.get("alien", 2));
+        assertNull(cache.get("alien", 0));
+        assertNull(cache.get("heat", 1));
+        assertEquals(1L, (long) cache.stats().get("hits"));
+        assertEquals(3L, (long) cache.stats().get("misses"));
+    }
+
+    @Test
+    void keepsACopyOfTheResult() {
+        QueryCache cache = new QueryCache(8);
+        List<Movie> result = new ArrayList<>(RESULT);
+        cache.put("alien", 1, result);
+        result.add(ALIENS);
+        assertEquals(RESULT, cache.get("alien", 1));
+    }
+
+    @Test
+    void skipsLargeResultsAndCachesNothingWithoutCapacity() {
+        QueryCache cache = new QueryCache(8);
+        cache.put("a", 1, Collections.nCopies(QueryCache.MAX_RESULT_SIZE + 1, ALIEN));
+        assertNull(cache.get("a", 1));
+
+        QueryCache none = new QueryCache(0);
+        none.put("alien", 1, RESULT);
+        assertNull(none.get("alien", 1));
+        assertEquals(0L, (long) none.stats().get("size"));
+    }
+
+    /**
+     * A full cache evicts the result used longest ago, which a use of an
+     * older result makes another one.
+     */
+    @Test
+    void evictsTheResultUsedLongestAgo() throws InterruptedException {
+        QueryCache cache = new QueryCache(3);
+        for (String key : Arrays.asList("a", "b", "c")) {
+            cache.put(key, 1, RESULT);
+            Thread.sleep(5);
+        }
+        cache.get("a", 1);
+        Thread.sleep(5);
+        cache.put("d", 1, RESULT);
+
+        assertNull(cache.get("b", 1));
+        assertEquals(RESULT, cache.get("a", 1));
+        assertEquals(RESULT, cache.get("c", 1));
+        assertEquals(RESULT, cache.get("d", 1));
+        assertEquals(1L, (long) cache.stats().get("evictions"));
+        assertEquals(3L, (long) cache.stats().get("size"));
+    }
+
+    /**
+     * Every change to a library makes a new version, so a cached search
+     * is never answered from before the change.
+     */
+    @Test
+    void libraryChangesInvalidateItsResults() {
+        IndexedMovieLibrary library = new IndexedMovieLibrary();
+        library.addMovie(ALIEN);
+        assertEquals(RESULT, library.getMovieMatches("alien"));
+        assertEquals(RESULT, library.getMovieMatches("ALIEN"));
+        assertEquals(1L, (long) library.getCacheStats().get("hits"));
+
+        library.addMovie(ALIENS);
+        assertEquals(Arrays.asList(ALIEN, ALIENS), library.getMovieMatches("alien"));
+        Movie renamed = library.renameMovie(ALIEN, "Heat");
+        assertEquals(Collections.singletonList(ALIENS), library.getMovieMatches("alien"));
+        library.changeGenre(ALIENS, Genre.HORROR);
+        assertEquals(Collections.singletonList(ALIENS.withGenre(Genre.HORROR)),
+                     library.getMovieMatches("alien"));
+        library.removeMovie(renamed);
+        assertEquals(Collections.<Movie>emptyList(), library.getMovieMatches("heat"));
+    }
+}
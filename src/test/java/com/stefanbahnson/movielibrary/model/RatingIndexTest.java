@@ -0,0 +1,119 @@
+package com.stefanbahnson.movielibrary.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.jupiter.api.Test;
+
+class RatingIndexTest {
+
+    /**
+     * The index finds the same ranges and best rated movies as a scan of
+     * every movie, while movies come and go and are rated again.
+     */
+    @Test
+    void findsWhatAScanFinds() {
+        Random random = new Random(1);
+        RatingIndex index = new RatingIndex();
+        Map<String, Movie> movies = new TreeMap<>();
+        for (int i = 0; i < 4000; i++) {
+            int change = movies.isEmpty() ? 0 : random.nextInt(4);
+            if (change < 2) {
+                Movie movie = Differential.movie(random);
+                if (!movies.containsKey(movie.getKey())) {
+                    movies.put(movie.getKey(), movie);
+                    index.add(movie);
+                }
+            } else if (change == 2) {
+                Movie movie = pick(movies, random);
+                movies.remove(movie.getKey());
+                index.remove(movie);
+            } else {
+                Movie movie = pick(movies, random);
+                Movie rated = movie.withRating(random.nextInt(5) == 0 ? Movie.UNRATED : rating(random));
+                index.remove(movie);
+                index.add(rated);
+                movies.put(rated.getKey(), rated);
+            }
+            if (i % 40 == 0) {
+                check(index, movies, random);
+            }
+        }
+        check(index, movies, random);
+    }
+
+    @Test
+    void picksNoMovieRatedZero() {
+        RatingIndex index = new RatingIndex();
+        Movie zero = new Movie("Zero", Genre.DRAMA).withRating(0);
+        Movie unrated = new Movie("Unrated", Genre.DRAMA);
+        index.add(zero);
+        index.add(unrated);
+        assertEquals(1, index.size());
+        assertNull(index.random());
+
+        Movie good = new Movie("Good", Genre.DRAMA).withRating(8);
+        index.add(good);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(good, index.random());
+        }
+        index.remove(good);
+        assertNull(index.random());
+    }
+
+    private static void check(RatingIndex index, Map<String, Movie> movies, Random random) {
+        List<Movie> all = new ArrayList<>(movies.values());
+        Collections.sort(all);
+        ScanMovieLibrary scan = new ScanMovieLibrary(all);
+
+        int rated = 0;
+        boolean weighty = false;
+        for (Movie movie : all) {
+            if (movie.isRated()) {
+                rated++;
+                weighty |= movie.getRating() > 0;
+            }
+        }
+        assertEquals(rated, index.size());
+
+        for (int q = 0; q < 5; q++) {
+            double min = rating(random);
+            double max = rating(random);
+            if (random.nextInt(4) == 0) {
+                min = -1;
+                max = Movie.MAX_RATING + 1;
+            }
+            assertEquals(scan.getByRating(min, max), index.range(min, max),
+                         "rated from " + min + " to " + max);
+            Genre genre = random.nextInt(4) == 0 ? null
+                        : Genre.values()[random.nextInt(Genre.values().length)];
+            int limit = random.nextInt(30);
+            assertEquals(scan.getTopRated(genre, limit), index.top(genre, limit),
+                         "top " + limit + " of " + genre);
+        }
+
+        Movie picked = index.random();
+        if (weighty) {
+            assertTrue(picked.getRating() > 0 && picked.equals(movies.get(picked.getKey())),
+                       "picked " + picked);
+        } else {
+            assertNull(picked);
+        }
+    }
+
+    private static double rating(Random random) {
+        return random.nextInt(21) / 2.0;
+    }
+
+    private static Movie pick(Map<String, Movie> movies, Random random) {
+        List<Movie> all = new ArrayList<>(movies.values());
+        return all.get(random.nextInt(all.size()));
+    }
+}
@@ -0,0 +1,35 @@
+package com.stefanbahnson.movielibrary.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+class ScanMovieLibraryTest {
+    private static final Movie ALIEN = new Movie("Alien", Genre.HORROR).withRating(9);
+    private static final Movie HEAT = new Movie("Heat", Genre.ACTION);
+    private static final Movie UP = new Movie("Up", Genre.COMEDY).withRating(1);
+
+    @Test
+    void picksNoRatedMovieIfNoneIsRated() {
+        assertNull(new ScanMovieLibrary(Arrays.asList(HEAT)).randomRatedMovie());
+        assertNull(new ScanMovieLibrary(Arrays.<Movie>asList()).randomRatedMovie());
+    }
+
+    @Test
+    void picksRatedMoviesByTheirRating() {
+        ScanMovieLibrary library = new ScanMovieLibrary(Arrays.asList(ALIEN, HEAT, UP));
+        int alien = 0;
+        for (int i = 0; i < 10000; i++) {
+            Movie movie = library.randomRatedMovie();
+            assertTrue(movie == ALIEN || movie == UP, "picked " + movie);
+            if (movie == ALIEN) {
+                alien++;
+            }
+        }
+        // nine in ten, well within chance
+        assertEquals(9000, alien, 300);
+    }
+}
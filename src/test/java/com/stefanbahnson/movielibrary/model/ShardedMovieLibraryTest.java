@@ -0,0 +1,149 @@
+package com.stefanbahnson.movielibrary.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.Test;
+
+class ShardedMovieLibraryTest {
+    private static final int WRITERS = 4;
+
+    @Test
+    void answersLikeOneLibrary() {
+        for (long seed = 1; seed <= 3; seed++) {
+            new Differential(new ShardedMovieLibrary(4), seed).run(3000, 150);
+        }
+    }
+
+    @Test
+    void answersLikeOneLibraryOverCompactShards() {
+        List<MovieLibrary> shards = Arrays.<MovieLibrary>asList(
+                new CompactMovieLibrary(), new CompactMovieLibrary(), new CompactMovieLibrary());
+        new Differential(new ShardedMovieLibrary(shards, ForkJoinPool.commonPool()), 7).run(3000, 150);
+    }
+
+    @Test
+    void answersLikeOneLibraryWithOneShard() {
+        new Differential(new ShardedMovieLibrary(1), 11).run(1000, 50);
+    }
+
+    /**
+     * Writers change movies of their own, so that each can tell what the
+     * library must hold of them in the end, while readers check that every
+     * answer is in order.
+     */
+    @Test
+    void keepsEveryChangeOfConcurrentWriters() throws Exception {
+        final ShardedMovieLibrary library = new ShardedMovieLibrary(4);
+        final MovieLibrary[] expected = new MovieLibrary[WRITERS];
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final CountDownLatch started = new CountDownLatch(1);
+        ExecutorService threads = Executors.newFixedThreadPool(WRITERS + 2);
+        try {
+            List<Future<?>> writers = new ArrayList<>();
+            for (int w = 0; w < WRITERS; w++) {
+                final int writer = w;
+                expected[w] = new IndexedMovieLibrary();
+                writers.add(threads.submit(() -> {
+                    started.await();
+                    write(library, expected[writer], "w" + writer + " ", new Random(writer));
+                    return null;
+                }));
+            }
+            List<Future<?>> readers = new ArrayList<>();
+            for (int r = 0; r < 2; r++) {
+                readers.add(threads.submit(() -> {
+                    started.await();
+                    while (writing.get()) {
+                        read(library);
+                    }
+                    return null;
+                }));
+            }
+            started.countDown();
+            for (Future<?> writer : writers) {
+                writer.get();
+            }
+            writing.set(false);
+            for (Future<?> reader : readers) {
+                reader.get();
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+
+        MovieLibrary all = new IndexedMovieLibrary();
+        for (MovieLibrary movies : expected) {
+            all.addAll(movies.getAllByTitle());
+        }
+        assertEquals(all.getAllByTitle(), library.getAllByTitle());
+        assertEquals(all.getAllByGenre(), library.getAllByGenre());
+        assertEquals(all.getTopRated(null, 100), library.getTopRated(null, 100));
+        for (int i = 0; i < 100; i++) {
+            Movie rated = library.randomRatedMovie();
+            assertTrue(rated.isRated() && all.findDuplicate(rated.getTitle()), "rated " + rated);
+        }
+    }
+
+    private static void write(MovieLibrary library, MovieLibrary expected, String prefix, Random random) {
+        for (int i = 0; i < 2000; i++) {
+            List<Movie> movies = expected.getAllByTitle();
+            if (movies.isEmpty() || random.nextInt(3) == 0) {
+                Movie movie = Differential.movie(random);
+                movie = movie.withTitle(prefix + movie.getTitle());
+                assertEquals(expected.addMovie(movie), library.addMovie(movie), "add " + movie);
+                continue;
+            }
+            Movie movie = movies.get(random.nextInt(movies.size()));
+            switch (random.nextInt(4)) {
+                case 0:
+                    String title = prefix + Differential.title(random);
+                    assertEquals(expected.renameMovie(movie, title), library.renameMovie(movie, title),
+                                 "rename " + movie);
+                    break;
+                case 1:
+                    double rating = random.nextInt(21) / 2.0;
+                    assertEquals(expected.rateMovie(movie, rating), library.rateMovie(movie, rating),
+                                 "rate " + movie);
+                    break;
+                case 2:
+                    Genre genre = Genre.values()[random.nextInt(Genre.values().length)];
+                    assertEquals(expected.changeGenre(movie, genre), library.changeGenre(movie, genre),
+                                 "change the genre of " + movie);
+                    break;
+                default:
+                    assertEquals(expected.removeMovie(movie), library.removeMovie(movie),
+                                 "remove " + movie);
+            }
+        }
+    }
+
+    private static void read(MovieLibrary library) {
+        assertSorted(library.getAllByTitle(), Movie::compareTo);
+        for (Genre genre : Genre.values()) {
+            assertSorted(library.getByGenre(genre), Movie::compareTo);
+        }
+        assertSorted(library.getMovieMatches("a"), Movie::compareTo);
+        assertSorted(library.getTopRated(null, 50), Movie.BY_RATING);
+        Movie rated = library.randomRatedMovie();
+        assertTrue(rated == null || rated.isRated(), "rated " + rated);
+    }
+
+    private static void assertSorted(List<Movie> movies, Comparator<Movie> order) {
+        for (int i = 1; i < movies.size(); i++) {
+            assertTrue(order.compare(movies.get(i - 1), movies.get(i)) < 0,
+                       movies.get(i - 1) + " before " + movies.get(i));
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.stefanbahnson.movielibrary.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.jupiter.api.Test;
+
+class TitleSearchIndexTest {
+
+    /**
+     * The index finds what a scan of every title finds, for queries long
+     * enough to have a trigram, while movies come and go.
+     */
+    @Test
+    void findsWhatAScanFinds() {
+        Random random = new Random(1);
+        TitleSearchIndex index = new TitleSearchIndex();
+        Map<String, Movie> movies = new TreeMap<>();
+        for (int i = 0; i < 3000; i++) {
+            if (movies.isEmpty() || random.nextInt(3) > 0) {
+                Movie movie = Differential.movie(random);
+                if (!movies.containsKey(movie.getKey())) {
+                    movies.put(movie.getKey(), movie);
+                    index.add(movie);
+                }
+            } else {
+                Movie movie = pick(movies, random);
+                movies.remove(movie.getKey());
+                index.remove(movie);
+            }
+            if (i % 20 == 0) {
+                ScanMovieLibrary scan = scan(movies);
+                for (int q = 0; q < 10; q++) {
+                    String query = query(movies, random);
+                    if (query.length() >= TitleSearchIndex.GRAM_LENGTH) {
+                        assertEquals(scan.getMovieMatches(query), sorted(index.search(query)),
+                                     "matches of " + query);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void forgetsTheTrigramsOfRemovedMovies() {
+        TitleSearchIndex index = new TitleSearchIndex();
+        Movie alien = new Movie("Alien", Genre.HORROR);
+        index.add(alien);
+        // ali, lie, ien
+        assertEquals(3, index.size());
+        index.remove(alien);
+        assertEquals(0, index.size());
+        assertTrue(index.search("lie").isEmpty());
+    }
+
+    /**
+     * A library answers queries shorter than a trigram without the index,
+     * and still finds what a scan finds.
+     */
+    @Test
+    void libraryAnswersShortQueriesByScanning() {
+        Random random = new Random(2);
+        IndexedMovieLibrary library = new IndexedMovieLibrary();
+        for (int i = 0; i < 500; i++) {
+            library.addMovie(Differential.movie(random));
+        }
+        ScanMovieLibrary scan = new ScanMovieLibrary(new ArrayList<>(library.getAllByTitle()));
+        assertEquals(library.getAllByTitle(), library.getMovieMatches(""));
+        for (int i = 0; i < 200; i++) {
+            String title = Differential.title(random);
+            int from = random.nextInt(title.length());
+            String query = title.substring(from, Math.min(title.length(), from + 1 + random.nextInt(2)));
+            if (random.nextBoolean()) {
+                query = query.toUpperCase();
+            }
+            assertEquals(scan.getMovieMatches(query), library.getMovieMatches(query),
+                         "matches of " + query);
+        }
+    }
+
+    private static String query(Map<String, Movie> movies, Random random) {
+        String title = movies.isEmpty() || random.nextInt(4) == 0
+                     ? Differential.title(random)
+                     : pick(movies, random).getTitle();
+        int from = random.nextInt(title.length());
+        String query = title.substring(from, Math.min(title.length(), from + 3 + random.nextInt(6)));
+        return random.nextBoolean() ? query.toUpperCase() : query;
+    }
+
+    private static Movie pick(Map<String, Movie> movies, Random random) {
+        List<Movie> all = new ArrayList<>(movies.values());
+        return all.get(random.nextInt(all.size()));
+    }
+
+    private static ScanMovieLibrary scan(Map<String, Movie> movies) {
+        return new ScanMovieLibrary(sorted(movies.values()));
+    }
+
+    private static List<Movie> sorted(Iterable<Movie> movies) {
+        List<Movie> sorted = new ArrayList<>();
+        for (Movie movie : movies) {
+            sorted.add(movie);
+        }
+        Collections.sort(sorted);
+        return sorted;
+    }
+}
@@ -0,0 +1,90 @@
+package com.stefanbahnson.movielibrary.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class WeightedSamplerTest {
+
+    /**
+     * The sums stay exact, and no slot that weighs nothing is picked,
+     * while slots are weighed again, emptied and added past the end.
+     */
+    @Test
+    void keepsItsSumsAsSlotsChange() {
+        Random random = new Random(1);
+        WeightedSampler sampler = new WeightedSampler();
+        long[] weights = new long[300];
+        for (int i = 0; i < 5000; i++) {
+            int slot = random.nextInt(Math.min(weights.length, 10 + i / 10));
+            long weight = random.nextInt(3) == 0 ? 0 : random.nextInt(1001);
+            sampler.set(slot, weight);
+            weights[slot] = weight;
+
+            long total = 0;
+            for (long w : weights) {
+                total += w;
+            }
+            assertEquals(total, sampler.total());
+            for (int p = 0; p < 5; p++) {
+                int picked = sampler.pick();
+                if (total == 0) {
+                    assertEquals(-1, picked);
+                } else {
+                    assertTrue(picked >= 0 && weights[picked] > 0, "picked " + picked);
+                }
+            }
+        }
+    }
+
+    /**
+     * Each slot is picked in proportion to its weight as it is last set,
+     * well within chance.
+     */
+    @Test
+    void picksInProportionToTheWeights() {
+        WeightedSampler sampler = new WeightedSampler();
+        for (int slot = 0; slot < 40; slot++) {
+            sampler.set(slot, 500);
+        }
+        for (int slot = 0; slot < 40; slot++) {
+            sampler.set(slot, 0);
+        }
+        sampler.set(3, 100);
+        sampler.set(17, 700);
+        sampler.set(33, 300);
+        sampler.set(38, 400);
+        sampler.set(17, 200);
+
+        int picks = 100000;
+        int[] counts = new int[40];
+        for (int i = 0; i < picks; i++) {
+            counts[sampler.pick()]++;
+        }
+        assertEquals(picks, counts[3] + counts[17] + counts[33] + counts[38]);
+        assertNear(picks, 0.1, counts[3]);
+        assertNear(picks, 0.2, counts[17]);
+        assertNear(picks, 0.3, counts[33]);
+        assertNear(picks, 0.4, counts[38]);
+    }
+
+    @Test
+    void weighsRatingsToTwoDecimals() {
+        assertEquals(0, WeightedSampler.weight(Movie.UNRATED));
+        assertEquals(0, WeightedSampler.weight(0));
+        assertEquals(725, WeightedSampler.weight(7.25));
+        assertEquals(1000, WeightedSampler.weight(Movie.MAX_RATING));
+    }
+
+    /**
+     * Checks a count of picks against its expected count, within five
+     * standard deviations.
+     */
+    private static void assertNear(int picks, double chance, int count) {
+        double expected = picks * chance;
+        double deviation = Math.sqrt(picks * chance * (1 - chance));
+        assertEquals(expected, count, 5 * deviation, "picks with a chance of " + chance);
+    }
+}
@@ -0,0 +1,80 @@
+package com.stefanbahnson.movielibrary.storage;
+
+import com.stefanbahnson.movielibrary.model.Genre;
+import com.stefanbahnson.movielibrary.model.Movie;
+import com.stefanbahnson.movielibrary.model.MovieLibrary;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Random changes to a library, of every kind a library can make.
+ */
+final class Changes {
+    private static final String[] WORDS = {
+        "alien", "Alien", "blade", "runner", "dark", "knight", "star",
+        "wars", "Straße", "café", "Café", "über", "100%", "a_b", "it's"
+    };
+
+    private Changes() {
+    }
+
+    static void random(MovieLibrary library, Random random) {
+        List<Movie> movies = library.getAllByTitle();
+        if (movies.isEmpty() || random.nextInt(4) == 0) {
+            library.addMovie(movie(random));
+            return;
+        }
+        Movie movie = movies.get(random.nextInt(movies.size()));
+        switch (random.nextInt(7)) {
+            case 0:
+                List<Movie> batch = new ArrayList<>();
+                for (int i = random.nextInt(10); i > 0; i--) {
+                    batch.add(movie(random));
+                }
+                library.addAll(batch);
+                break;
+            case 1:
+                library.renameMovie(movie, random.nextBoolean()
+                                           ? title(random) : movie.getTitle().toUpperCase());
+                break;
+            case 2:
+                library.changeGenre(movie, genre(random));
+                break;
+            case 3:
+                library.changeGenres(movie, genre(random), genres(random));
+                break;
+            case 4:
+                library.rateMovie(movie, random.nextInt(21) / 2.0);
+                break;
+            default:
+                library.removeMovie(movie);
+        }
+    }
+
+    static Movie movie(Random random) {
+        Movie movie = new Movie(title(random), genre(random), genres(random));
+        return random.nextBoolean() ? movie : movie.withRating(random.nextInt(21) / 2.0);
+    }
+
+    private static String title(Random random) {
+        return WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)]
+             + " " + random.nextInt(20);
+    }
+
+    private static Genre genre(Random random) {
+        return Genre.values()[random.nextInt(Genre.values().length)];
+    }
+
+    private static Set<Genre> genres(Random random) {
+        Set<Genre> genres = EnumSet.noneOf(Genre.class);
+        for (Genre genre : Genre.values()) {
+            if (random.nextInt(4) == 0) {
+                genres.add(genre);
+            }
+        }
+        return genres;
+    }
+}
@@ -0,0 +1,111 @@
+package com.stefanbahnson.movielibrary.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.stefanbahnson.movielibrary.model.ConcurrentMovieLibrary;
+import com.stefanbahnson.movielibrary.model.Genre;
+import com.stefanbahnson.movielibrary.model.Movie;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DurableMovieLibraryTest {
+    private static final Movie ALIEN = new Movie("Alien", Genre.HORROR).withRating(8);
+    private static final Movie HEAT = new Movie("Heat", Genre.ACTION,
+                                                EnumSet.of(Genre.THRILLER));
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void opensAsItWasLeft() throws Exception {
+        Random random = new Random(1);
+        List<Movie> movies;
+        // compacts every few hundred changes on the way
+        try (DurableMovieLibrary library = DurableMovieLibrary.open(directory, 16, 300)) {
+            for (int i = 0; i < 3000; i++) {
+                Changes.random(library, random);
+            }
+            movies = library.getAllByTitle();
+        }
+        try (DurableMovieLibrary library = DurableMovieLibrary.open(directory)) {
+            assertEquals(movies, library.getAllByTitle());
+        }
+    }
+
+    @Test
+    void replaysTheJournalAfterACrash() throws Exception {
+        Random random = new Random(2);
+        DurableMovieLibrary crashed = DurableMovieLibrary.open(directory, 1, 100000);
+        for (int i = 0; i < 500; i++) {
+            Changes.random(crashed, random);
+        }
+        // no close, so nothing but the journal is on disk
+        try (DurableMovieLibrary library = DurableMovieLibrary.open(directory)) {
+            assertEquals(crashed.getAllByTitle(), library.getAllByTitle());
+        }
+    }
+
+    @Test
+    void undoesChangesItCanNotJournal() throws Exception {
+        DurableMovieLibrary library = DurableMovieLibrary.open(directory);
+        library.addAll(Arrays.asList(ALIEN, HEAT));
+        library.close();
+        List<Movie> before = library.getAllByTitle();
+
+        Movie up = new Movie("Up", Genre.COMEDY).withRating(7.5);
+        assertThrows(IllegalStateException.class, () -> library.addMovie(up));
+        assertThrows(IllegalStateException.class, () -> library.addAll(Arrays.asList(up)));
+        assertThrows(IllegalStateException.class, () -> library.renameMovie(ALIEN, "Aliens"));
+        assertThrows(IllegalStateException.class, () -> library.changeGenre(HEAT, Genre.DRAMA));
+        assertThrows(IllegalStateException.class,
+                     () -> library.changeGenres(HEAT, Genre.DRAMA, EnumSet.of(Genre.COMEDY)));
+        assertThrows(IllegalStateException.class, () -> library.rateMovie(HEAT, 9));
+        assertThrows(IllegalStateException.class, () -> library.removeMovie(ALIEN));
+        assertEquals(before, library.getAllByTitle());
+        assertEquals(3, library.getAllByGenre().size());
+
+        try (DurableMovieLibrary reopened = DurableMovieLibrary.open(directory)) {
+            assertEquals(before, reopened.getAllByTitle());
+        }
+    }
+
+    /**
+     * A directory in the place of the temporary snapshot file makes every
+     * compaction fail until it is removed.
+     */
+    @Test
+    void keepsChangesWhenACompactionFails() throws Exception {
+        Path blocker = Files.createDirectory(directory.resolve("library.snapshot.tmp"));
+        Random random = new Random(3);
+        DurableMovieLibrary durable = DurableMovieLibrary.open(directory, 16, 50);
+        List<Movie> movies;
+        try (ConcurrentMovieLibrary library = new ConcurrentMovieLibrary(durable)) {
+            for (int i = 0; i < 80; i++) {
+                Changes.random(library, random);
+            }
+            assertEquals(durable.getAllByTitle(), library.getAllByTitle());
+            assertEquals(durable.getAllByGenre(), library.getAllByGenre());
+            assertFalse(Files.exists(directory.resolve("library.snapshot")));
+
+            Files.delete(blocker);
+            for (int i = 0; i < 80; i++) {
+                Changes.random(library, random);
+            }
+            assertEquals(durable.getAllByTitle(), library.getAllByTitle());
+            assertTrue(Files.exists(directory.resolve("library.snapshot")));
+            movies = library.getAllByTitle();
+        }
+        try (DurableMovieLibrary library = DurableMovieLibrary.open(directory)) {
+            assertEquals(movies, library.getAllByTitle());
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.stefanbahnson.movielibrary.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import com.stefanbahnson.movielibrary.model.Genre;
+import com.stefanbahnson.movielibrary.model.IndexedMovieLibrary;
+import com.stefanbahnson.movielibrary.model.Movie;
+import com.stefanbahnson.movielibrary.model.MovieLibrary;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs the store against an H2 database in memory, which is only on the
+ * class path when built with the Maven profile {@code database}.
+ */
+class JdbcMovieStoreTest {
+    private static int databases;
+
+    private String url;
+
+    @BeforeEach
+    void needsH2() {
+        boolean h2;
+        try {
+            Class.forName("org.h2.Driver");
+            h2 = true;
+        } catch (ClassNotFoundException e) {
+            h2 = false;
+        }
+        assumeTrue(h2, "H2 is only on the class path with -Pdatabase");
+        url = "jdbc:h2:mem:library" + (++databases) + ";DB_CLOSE_DELAY=-1";
+    }
+
+    @Test
+    void answersLikeTheLibrary() throws Exception {
+        MovieLibrary expected = new IndexedMovieLibrary();
+        Random random = new Random(1);
+        try (JdbcMovieStore store = JdbcMovieStore.open(url);
+             StoredMovieLibrary library = StoredMovieLibrary.open(store)) {
+            for (int i = 0; i < 1000; i++) {
+                Changes.random(library, random);
+            }
+            expected.addAll(library.getAllByTitle());
+        }
+
+        try (JdbcMovieStore store = JdbcMovieStore.open(url)) {
+            assertEquals(expected.getAllByTitle(), store.loadAll());
+            for (Movie movie : expected.getAllByTitle()) {
+                String title = movie.getTitle().toUpperCase();
+                assertEquals(expected.getUniqueMovie(title), store.find(title), title);
+            }
+            assertNull(store.find("no such movie"));
+            for (String query : Arrays.asList("alien", "CAFÉ", "straße", "100%", "a_b", "it's", "!")) {
+                assertEquals(expected.getMovieMatches(query), store.search(query), query);
+            }
+            for (Genre genre : Genre.values()) {
+                assertEquals(expected.getByGenre(genre), store.byGenre(genre), genre.name());
+            }
+            for (int i = 0; i < 50; i++) {
+                Set<Genre> required = genres(random);
+                Set<Genre> excluded = genres(random);
+                excluded.removeAll(required);
+                assertEquals(expected.getByGenres(required, excluded),
+                             store.byGenres(required, excluded), required + " but not " + excluded);
+            }
+        }
+    }
+
+    @Test
+    void rollsBackABatchThatFails() throws Exception {
+        Movie alien = new Movie("Alien", Genre.HORROR).withRating(8);
+        try (JdbcMovieStore store = JdbcMovieStore.open(url)) {
+            store.add(alien);
+            assertThrows(IOException.class, () -> store.addAll(Arrays.asList(
+                    new Movie("Heat", Genre.ACTION), new Movie("ALIEN", Genre.DRAMA))));
+            assertEquals(Arrays.asList(alien), store.loadAll());
+            store.replace("alien", alien.withTitle("Aliens").withRating(9));
+            assertEquals(Arrays.asList(alien.withTitle("Aliens").withRating(9)), store.loadAll());
+            store.remove("ALIENS");
+            assertEquals(0, store.loadAll().size());
+        }
+    }
+
+    private static Set<Genre> genres(Random random) {
+        Set<Genre> genres = EnumSet.noneOf(Genre.class);
+        for (Genre genre : Genre.values()) {
+            if (random.nextInt(3) == 0) {
+                genres.add(genre);
+            }
+        }
+        return genres;
+    }
+}
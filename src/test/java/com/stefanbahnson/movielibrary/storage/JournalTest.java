@@ -0,0 +1,61 @@
+package com.stefanbahnson.movielibrary.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.stefanbahnson.movielibrary.model.Genre;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class JournalTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void forgetsTheRecordsCutOff() throws Exception {
+        Path file = directory.resolve("library.journal");
+        try (Journal journal = Journal.create(file, 1, 2)) {
+            journal.add("Alien", Genre.HORROR, Genre.mask(Genre.HORROR));
+            long position = journal.position();
+            int records = journal.records();
+            journal.add("Heat", Genre.ACTION, Genre.mask(Genre.ACTION));
+            journal.rate("Heat", 8);
+            journal.truncate(position, records);
+            assertEquals(1, journal.records());
+            journal.remove("Alien");
+        }
+
+        final List<String> replayed = new ArrayList<>();
+        Journal.open(file, 1, 2, new Journal.Replay() {
+            @Override
+            public void add(String title, Genre genre, int genres) {
+                replayed.add("add " + title);
+            }
+
+            @Override
+            public void remove(String title) {
+                replayed.add("remove " + title);
+            }
+
+            @Override
+            public void rename(String oldTitle, String newTitle) {
+                replayed.add("rename " + oldTitle);
+            }
+
+            @Override
+            public void changeGenre(String title, Genre genre, int genres) {
+                replayed.add("genre " + title);
+            }
+
+            @Override
+            public void rate(String title, double rating) {
+                replayed.add("rate " + title);
+            }
+        }).close();
+        assertEquals(Arrays.asList("add Alien", "remove Alien"), replayed);
+    }
+}
@@ -0,0 +1,111 @@
+package com.stefanbahnson.movielibrary.storage;
+
+import com.stefanbahnson.movielibrary.model.Genre;
+import com.stefanbahnson.movielibrary.model.Movie;
+import com.stefanbahnson.movielibrary.model.MovieLibrary;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A {@code MovieStore} in memory, which can be told to fail every change
+ * made to it from then on.
+ */
+final class MemoryMovieStore implements MovieStore {
+    private final Map<String, Movie> movies = new TreeMap<>();
+    boolean failing;
+    int reads;
+    int queries;
+
+    @Override
+    public List<Movie> loadAll() {
+        reads++;
+        return sorted(movies.values());
+    }
+
+    @Override
+    public Movie find(String title) {
+        queries++;
+        return movies.get(MovieLibrary.normalize(title));
+    }
+
+    @Override
+    public List<Movie> search(String query) {
+        queries++;
+        List<Movie> matches = new ArrayList<>();
+        for (Map.Entry<String, Movie> entry : movies.entrySet()) {
+            if (entry.getKey().contains(MovieLibrary.normalize(query))) {
+                matches.add(entry.getValue());
+            }
+        }
+        return sorted(matches);
+    }
+
+    @Override
+    public List<Movie> byGenre(Genre genre) {
+        return byGenres(Collections.singleton(genre), Collections.<Genre>emptySet());
+    }
+
+    @Override
+    public List<Movie> byGenres(Set<Genre> required, Set<Genre> excluded) {
+        queries++;
+        List<Movie> matches = new ArrayList<>();
+        for (Movie movie : movies.values()) {
+            if (movie.getGenres().containsAll(required)
+                    && Collections.disjoint(movie.getGenres(), excluded)) {
+                matches.add(movie);
+            }
+        }
+        return sorted(matches);
+    }
+
+    @Override
+    public void add(Movie movie) throws IOException {
+        addAll(Collections.singletonList(movie));
+    }
+
+    @Override
+    public void addAll(Collection<Movie> added) throws IOException {
+        check();
+        for (Movie movie : added) {
+            if (movies.put(MovieLibrary.normalize(movie.getTitle()), movie) != null) {
+                throw new AssertionError("the store already holds " + movie);
+            }
+        }
+    }
+
+    @Override
+    public void replace(String title, Movie movie) throws IOException {
+        remove(title);
+        add(movie);
+    }
+
+    @Override
+    public void remove(String title) throws IOException {
+        check();
+        if (movies.remove(MovieLibrary.normalize(title)) == null) {
+            throw new AssertionError("the store does not hold " + title);
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private void check() throws IOException {
+        if (failing) {
+            throw new IOException("the store is failing");
+        }
+    }
+
+    private static List<Movie> sorted(Collection<Movie> movies) {
+        List<Movie> sorted = new ArrayList<>(movies);
+        Collections.sort(sorted);
+        return sorted;
+    }
+}
@@ -0,0 +1,136 @@
+package com.stefanbahnson.movielibrary.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.stefanbahnson.movielibrary.model.Genre;
+import com.stefanbahnson.movielibrary.model.Movie;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class StoredMovieLibraryTest {
+    private static final Movie ALIEN = new Movie("Alien", Genre.HORROR).withRating(8);
+    private static final Movie HEAT = new Movie("Heat", Genre.ACTION,
+                                                EnumSet.of(Genre.THRILLER));
+    private static final Movie UP = new Movie("Up", Genre.COMEDY).withRating(7.5);
+
+    @Test
+    void answersFromTheStoreUntilLoaded() throws Exception {
+        MemoryMovieStore store = new MemoryMovieStore();
+        store.addAll(Arrays.asList(ALIEN, HEAT, UP));
+        StoredMovieLibrary library = StoredMovieLibrary.open(store);
+
+        assertEquals(HEAT, library.getUniqueMovie("HEAT"));
+        assertTrue(library.findDuplicate("alien"));
+        assertEquals(Arrays.asList(ALIEN, HEAT), library.getMovieMatches("e"));
+        assertEquals(Collections.singletonList(HEAT), library.getByGenre(Genre.THRILLER));
+        assertEquals(Collections.singletonList(HEAT),
+                     library.getByGenres(EnumSet.of(Genre.ACTION), EnumSet.of(Genre.HORROR)));
+        assertFalse(library.isLoaded());
+        assertEquals(0, store.reads);
+
+        assertEquals(3, (int) library.getIndexSizes().get("titles"));
+        assertTrue(library.isLoaded());
+        assertEquals(1, store.reads);
+    }
+
+    @Test
+    void answersFromMemoryOnceLoaded() throws Exception {
+        MemoryMovieStore store = new MemoryMovieStore();
+        store.addAll(Arrays.asList(ALIEN, HEAT, UP));
+        StoredMovieLibrary library = StoredMovieLibrary.open(store);
+        library.load();
+
+        assertEquals(HEAT, library.getUniqueMovie("HEAT"));
+        assertTrue(library.findDuplicate("alien"));
+        assertEquals(Arrays.asList(ALIEN, HEAT), library.getMovieMatches("e"));
+        assertEquals(Collections.singletonList(HEAT), library.getByGenre(Genre.THRILLER));
+        assertEquals(Collections.singletonList(HEAT),
+                     library.getByGenres(EnumSet.of(Genre.ACTION), EnumSet.of(Genre.HORROR)));
+        assertEquals(0, store.queries);
+    }
+
+    @Test
+    void loadsOnceForManyThreads() throws Exception {
+        MemoryMovieStore store = new MemoryMovieStore();
+        store.addAll(Arrays.asList(ALIEN, HEAT, UP));
+        final StoredMovieLibrary library = StoredMovieLibrary.open(store);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<CompletableFuture<Integer>> sizes = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            sizes.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return library.size();
+            }));
+        }
+        start.countDown();
+        for (CompletableFuture<Integer> size : sizes) {
+            assertEquals(3, (int) size.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1, store.reads);
+    }
+
+    @Test
+    void loadsForTheCacheStats() {
+        StoredMovieLibrary library = StoredMovieLibrary.open(new MemoryMovieStore());
+        library.getCacheStats();
+        assertTrue(library.isLoaded());
+    }
+
+    @Test
+    void keepsTheStoreInStepWithTheLibrary() throws Exception {
+        MemoryMovieStore store = new MemoryMovieStore();
+        StoredMovieLibrary library = StoredMovieLibrary.open(store);
+        Random random = new Random(1);
+        for (int i = 0; i < 2000; i++) {
+            Changes.random(library, random);
+        }
+        assertEquals(library.getAllByTitle(), store.loadAll());
+        assertEquals(library.getAllByTitle(), StoredMovieLibrary.open(store).getAllByTitle());
+    }
+
+    @Test
+    void undoesChangesTheStoreFailsToMake() throws Exception {
+        MemoryMovieStore store = new MemoryMovieStore();
+        StoredMovieLibrary library = StoredMovieLibrary.open(store);
+        library.addAll(Arrays.asList(ALIEN, HEAT));
+        List<Movie> before = library.getAllByTitle();
+        store.failing = true;
+
+        assertThrows(IllegalStateException.class, () -> library.addMovie(UP));
+        assertThrows(IllegalStateException.class,
+                     () -> library.addAll(Arrays.asList(UP, new Movie("Jaws", Genre.HORROR))));
+        assertThrows(IllegalStateException.class, () -> library.renameMovie(ALIEN, "Aliens"));
+        assertThrows(IllegalStateException.class, () -> library.renameMovie(ALIEN, "ALIEN"));
+        assertThrows(IllegalStateException.class, () -> library.changeGenre(HEAT, Genre.DRAMA));
+        assertThrows(IllegalStateException.class,
+                     () -> library.changeGenres(HEAT, Genre.DRAMA, EnumSet.of(Genre.COMEDY)));
+        assertThrows(IllegalStateException.class, () -> library.rateMovie(HEAT, 9));
+        assertThrows(IllegalStateException.class, () -> library.removeMovie(ALIEN));
+
+        assertEquals(before, library.getAllByTitle());
+        assertEquals(3, library.getAllByGenre().size());
+        assertTrue(library.getMovieMatches("aliens").isEmpty());
+        assertEquals(Collections.singletonList(HEAT), library.getByGenre(Genre.ACTION));
+        assertEquals(Collections.singletonList(ALIEN), library.getByRating(0, Movie.MAX_RATING));
+
+        store.failing = false;
+        assertEquals(before, store.loadAll());
+        assertTrue(library.addMovie(UP));
+        assertEquals(library.getAllByTitle(), store.loadAll());
+    }
+}